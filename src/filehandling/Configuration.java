@@ -0,0 +1,111 @@
+package filehandling;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Properties;
+
+/**
+ * Settings read from {@code config.properties} in the working directory. The settings measured by {@link main.Autotuner} for this machine are stored in
+ * {@code tuning.properties} and take precedence over the ones in {@code config.properties}. Every setting can be overridden by a system property with the same name,
+ * e.g. {@code -Dtraining.data=by_class.zip}.
+ */
+public final class Configuration {
+
+    /**
+     * The folder or ZIP archive the network is trained on, see {@link filehandling.FileHandler#loadFiles(File)}.
+     */
+    public static final String TRAINING_DATA = "training.data";
+
+    /**
+     * The folder or ZIP archive the network is tested on.
+     */
+    public static final String TEST_DATA = "test.data";
+
+    /**
+     * Whether the network used for predictions computes large layers in parallel, see {@link network.Network#enableParallelCompute(java.util.concurrent.ForkJoinPool, long)}.
+     */
+    public static final String PARALLEL_COMPUTE = "parallel.compute";
+
+    /**
+     * The number of images per batch of a newly trained network.
+     */
+    public static final String TRAINING_BATCH_SIZE = "training.batch.size";
+
+    /**
+     * How batches are trained, {@link filehandling.Configuration#MATRIX_KERNEL} or {@link filehandling.Configuration#NEURON_KERNEL}, see {@link network.Network#setMatrixTraining(boolean)}.
+     */
+    public static final String TRAINING_KERNEL = "training.kernel";
+
+    /**
+     * The number of threads shuffling and augmenting batches while training.
+     */
+    public static final String TRAINING_PRODUCER_THREADS = "training.producer.threads";
+
+    /**
+     * The default number of threads of {@link main.BatchRecognizer}.
+     */
+    public static final String RECOGNIZER_THREADS = "recognizer.threads";
+
+    public static final String NEURON_KERNEL = "neuron";
+    public static final String MATRIX_KERNEL = "matrix";
+
+    private static final File CONFIGURATION_FILE = new File("config.properties");
+
+    /**
+     * The settings written by {@link main.Autotuner}.
+     */
+    public static final File TUNING_PROFILE = new File("tuning.properties");
+
+    private static final Properties PROPERTIES = load();
+
+    private Configuration() {
+    }
+
+    private static Properties load() {
+        Properties properties = new Properties();
+        //the tuning profile overrides the general settings
+        for (File file : new File[]{CONFIGURATION_FILE, TUNING_PROFILE}) {
+            if (file.exists()) {
+                try (Reader reader = new FileReader(file)) {
+                    properties.load(reader);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        }
+        return properties;
+    }
+
+    /**
+     * @param key The name of the setting.
+     * @return The value of the setting, null if it isn't set.
+     */
+    public static String get(String key) {
+        return System.getProperty(key, PROPERTIES.getProperty(key));
+    }
+
+    /**
+     * @param key The name of a setting holding a whole number.
+     * @param defaultValue The value used if the setting isn't set.
+     * @return The value of the setting.
+     */
+    public static int getInt(String key, int defaultValue) {
+        String value = get(key);
+        return value == null || value.isBlank() ? defaultValue : Integer.parseInt(value.trim());
+    }
+
+    /**
+     * @param key The name of a setting holding a path.
+     * @return The file at the path.
+     * @throws IllegalStateException if the setting isn't set.
+     */
+    public static File getFile(String key) {
+        String path = get(key);
+        if (path == null || path.isBlank()) {
+            throw new IllegalStateException("Set " + key + " in " + CONFIGURATION_FILE.getAbsolutePath() + " or with -D" + key + "=<path>.");
+        }
+        return new File(path.trim());
+    }
+}
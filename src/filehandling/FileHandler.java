@@ -2,12 +2,16 @@ package filehandling;
 
 import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
-import java.util.LinkedHashMap;
-import java.util.LinkedList;
-import java.util.Objects;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 
 public class FileHandler {
 
@@ -15,23 +19,133 @@ public class FileHandler {
 
     private final LinkedList<Thread> THREADS;
 
+    /**
+     * Every distinct image that has been loaded by its content hash, see {@link filehandling.FileHandler#hash(double[])}. Images sharing a hash are compared pixel by pixel.
+     */
+    private final ConcurrentHashMap<Long, List<LoadedImage>> LOADED_IMAGES;
+
+    private final AtomicInteger DROPPED_DUPLICATES;
+    private final AtomicInteger DROPPED_CONFLICTING_IMAGES;
+    private final AtomicInteger DROPPED_BLANK_IMAGES;
+
+    /**
+     * The value of a black block for every downscaling algorithm that has been asked for, see {@link filehandling.FileHandler#getBlackValue(int)}.
+     */
+    private final ConcurrentHashMap<Integer, Double> BLACK_VALUES;
+
     private boolean allFilesLoaded;
 
+    /**
+     * Width and height of the images this file handler compresses to.
+     */
+    private final int IMAGE_RESOLUTION;
+
+    /**
+     * One file handler per resolution, so that loaded images are only shared by networks with the same resolution.
+     */
+    private static final ConcurrentHashMap<Integer, FileHandler> INSTANCES = new ConcurrentHashMap<>();
+
     public FileHandler() {
+        this(DEFAULT_IMAGE_RESOLUTION);
+    }
+
+    /**
+     * @param imageResolution The width and height of the compressed images.
+     */
+    public FileHandler(int imageResolution) {
+        if (imageResolution < 2) throw new IllegalArgumentException("The images need a resolution of at least 2x2.");
         TRAINING_DATA = new ConcurrentHashMap<>();
         THREADS = new LinkedList<>();
+        LOADED_IMAGES = new ConcurrentHashMap<>();
+        DROPPED_DUPLICATES = new AtomicInteger();
+        DROPPED_CONFLICTING_IMAGES = new AtomicInteger();
+        DROPPED_BLANK_IMAGES = new AtomicInteger();
+        BLACK_VALUES = new ConcurrentHashMap<>();
         allFilesLoaded = false;
+        IMAGE_RESOLUTION = imageResolution;
+    }
+
+    /**
+     * @param imageResolution The width and height of the compressed images.
+     * @return The shared file handler for the given resolution.
+     */
+    public static FileHandler getInstance(int imageResolution) {
+        return INSTANCES.computeIfAbsent(imageResolution, FileHandler::new);
     }
 
+    /**
+     * Width and height of the images given to networks that don't specify otherwise.
+     */
+    public static final int DEFAULT_IMAGE_RESOLUTION = 32;
+
+    /**
+     * Width and height of the images of the database the models are trained on.
+     */
+    public static final int TRAINING_IMAGE_SIZE = 128;
+
+    /**
+     * Size of the blocks of pixels the weights of {@link filehandling.FileHandler#WEIGHTED_BILINEAR_INTERPOLATION} were chosen for.
+     */
+    private static final double WEIGHTED_BLOCK_SIZE = 4;
+
+    /**
+     * Share of the area of a compressed image that has to be black for it not to be blank, one block is ~0.1% at 32x32.
+     */
+    private static final double MIN_INK_SHARE = 0.002;
+
+    /**
+     * Share of the width or height of a compressed image the bounding box of the ink has to span for it not to be a speck.
+     */
+    private static final double MIN_INK_EXTENT_SHARE = 0.1;
+
     public static final int BILINEAR_INTERPOLATION = 0;
     public static final int WEIGHTED_BILINEAR_INTERPOLATION = 1;
 
+    public int getImageResolution() {
+        return IMAGE_RESOLUTION;
+    }
+
+    /**
+     * Images that weren't downscaled by this file handler, e.g. the ones drawn on the {@link gui.DrawingPane}, have to use the same value for black so that they look like the training data.
+     * The value is only computed the first time it is asked for.
+     * @param downscalingAlgorithm The algorithm to be used when downscaling.
+     * @return The value of a completely black block of an image of {@link filehandling.FileHandler#TRAINING_IMAGE_SIZE} compressed with the given algorithm.
+     */
+    public double getBlackValue(int downscalingAlgorithm) {
+        return BLACK_VALUES.computeIfAbsent(downscalingAlgorithm, this::computeBlackValue);
+    }
+
+    private double computeBlackValue(int downscalingAlgorithm) {
+        byte[][] black = new byte[TRAINING_IMAGE_SIZE][TRAINING_IMAGE_SIZE];
+        for (byte[] column : black) {
+            Arrays.fill(column, (byte) 1);
+        }
+        return getCompressedImage(black, downscalingAlgorithm)[0];
+    }
+
     /**
      * Loads all the files from the given path into {@link filehandling.FileHandler#TRAINING_DATA}.
-     * @param database The path to be loaded from.
+     * @param database The path to be loaded from, either a folder or a ZIP archive, see {@link filehandling.FileHandler#loadArchive(File, int, int)}.
      * @throws InterruptedException if one of the threads loading the files throws {@link InterruptedException}
      */
     public void loadFiles(File database) throws InterruptedException {
+        loadFiles(database, 0, 1);
+    }
+
+    /**
+     * Like {@link filehandling.FileHandler#loadFiles(File)} but only loads the files of the given shard, e.g. to split the data between several processes.
+     * The shard of a file only depends on its name, so the shards are disjoint and together contain all files.
+     * @param database The path to be loaded from, either a folder or a ZIP archive.
+     * @param shard The index of the shard to be loaded.
+     * @param shards The number of shards the files are split into.
+     * @throws InterruptedException if one of the threads loading the files throws {@link InterruptedException}
+     */
+    public void loadFiles(File database, int shard, int shards) throws InterruptedException {
+        if (shard < 0 || shard >= shards) throw new IllegalArgumentException("The shard has to be between 0 (inclusive) & " + shards + " (exclusive).");
+        if (database.isFile()) {
+            loadArchive(database, shard, shards);
+            return;
+        }
         System.out.println("Loading and compressing data...");
 
         //iterating over all sub-folders of the database folder
@@ -40,13 +154,17 @@ public class FileHandler {
             //creating a thread for each sub-folder that loads all the images
             Runnable fileLoader = () -> {
                 for (File file : Objects.requireNonNull(new File(folder + "/train_" + folder.getName()).listFiles(), "No file found in " + folder.getAbsolutePath())) {
+                    if (!isInShard(file.getName(), shard, shards)) continue;
 
                     //read image
-                    BufferedImage image;
+                    double[] compressedImage;
                     try {
-                        image = ImageIO.read(file);
+                        compressedImage = getCompressedImage(file, WEIGHTED_BILINEAR_INTERPOLATION);
                     } catch (IOException e) {
                         e.printStackTrace();
+                        compressedImage = null;
+                    }
+                    if (compressedImage == null) {
                         System.out.println("Thread " + Thread.currentThread().getName() + " could not read file " + file.getAbsolutePath() + ", continuing to load other files...");
                         continue;
                     }
@@ -54,7 +172,7 @@ public class FileHandler {
                     //get character from hex code in folder name
                     char character = (char) Integer.parseInt(folder.getName(), 16);
 
-                    TRAINING_DATA.put(getCompressedImage(image, WEIGHTED_BILINEAR_INTERPOLATION), character);
+                    addImage(compressedImage, character);
                 }
                 System.out.println("File loader thread " + Thread.currentThread().getName() + " terminated.");
             };
@@ -74,7 +192,202 @@ public class FileHandler {
         }
 
         allFilesLoaded = true;
-        System.out.println("Number of files loaded: " + TRAINING_DATA.size());
+        System.out.println("Number of files loaded: " + TRAINING_DATA.size() + getDroppedDescription());
+    }
+
+    /**
+     * Loads all images of a ZIP archive (or a JAR) into {@link filehandling.FileHandler#TRAINING_DATA} without extracting it. Like in a folder,
+     * the images of a character are in {@code <hex code>/train_<hex code>/}, which may be nested in other folders of the archive, all other entries are skipped.
+     * The entries are decompressed and decoded by one thread per character.
+     * @param archive The archive to be loaded from.
+     * @param shard The index of the shard to be loaded, see {@link filehandling.FileHandler#loadFiles(File, int, int)}.
+     * @param shards The number of shards the entries are split into.
+     * @throws InterruptedException if one of the threads loading the entries throws {@link InterruptedException}
+     */
+    public void loadArchive(File archive, int shard, int shards) throws InterruptedException {
+        System.out.println("Loading and compressing data from " + archive.getName() + "...");
+
+        try (ZipFile zipFile = new ZipFile(archive)) {
+            //group the images by character, the central directory lists all entries without reading them
+            LinkedHashMap<Character, List<ZipEntry>> entries = new LinkedHashMap<>();
+            for (ZipEntry entry : Collections.list(zipFile.entries())) {
+                if (entry.isDirectory() || !isInShard(entry.getName().substring(entry.getName().lastIndexOf('/') + 1), shard, shards)) continue;
+                Character character = getCharacter(entry.getName());
+                if (character != null) {
+                    entries.computeIfAbsent(character, c -> new ArrayList<>()).add(entry);
+                }
+            }
+            if (entries.isEmpty()) throw new IllegalArgumentException("No images in <hex code>/train_<hex code>/ folders found in " + archive.getAbsolutePath());
+
+            //creating a thread for each character that loads all its images, the zip file can be read by several threads at once
+            for (Map.Entry<Character, List<ZipEntry>> characterEntries : entries.entrySet()) {
+                char character = characterEntries.getKey();
+                Runnable entryLoader = () -> {
+                    for (ZipEntry entry : characterEntries.getValue()) {
+                        double[] compressedImage;
+                        try (InputStream inputStream = zipFile.getInputStream(entry)) {
+                            compressedImage = getCompressedImage(inputStream.readAllBytes(), WEIGHTED_BILINEAR_INTERPOLATION);
+                        } catch (IOException e) {
+                            e.printStackTrace();
+                            compressedImage = null;
+                        }
+                        if (compressedImage == null) {
+                            System.out.println("Thread " + Thread.currentThread().getName() + " could not read entry " + entry.getName() + ", continuing to load other entries...");
+                            continue;
+                        }
+
+                        addImage(compressedImage, character);
+                    }
+                    System.out.println("Entry loader thread " + Thread.currentThread().getName() + " terminated.");
+                };
+
+                Thread entryLoaderThread = new Thread(entryLoader, String.valueOf(character));
+                entryLoaderThread.start();
+                THREADS.add(entryLoaderThread);
+            }
+            System.out.println(THREADS.size() + " entry loader threads started.");
+
+            //join all the threads before the archive is closed
+            for (Thread thread : THREADS) {
+                thread.join();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+
+        allFilesLoaded = true;
+        System.out.println("Number of entries loaded: " + TRAINING_DATA.size() + getDroppedDescription());
+    }
+
+    /**
+     * Adds an image to {@link filehandling.FileHandler#TRAINING_DATA} unless it is blank or identical to an image that has already been loaded.
+     * Identical images with different characters can't be learned, so all of them are dropped, which doesn't depend on the order the loader threads add them in.
+     * @param compressedImage The compressed image.
+     * @param character The character of the image.
+     */
+    private void addImage(double[] compressedImage, char character) {
+        if (isBlank(compressedImage)) {
+            DROPPED_BLANK_IMAGES.incrementAndGet();
+            return;
+        }
+
+        //images with the same hash are only changed by one thread at a time
+        LOADED_IMAGES.compute(hash(compressedImage), (hash, loadedImages) -> {
+            if (loadedImages == null) loadedImages = new ArrayList<>(1);
+            for (LoadedImage loadedImage : loadedImages) {
+                if (!Arrays.equals(loadedImage.IMAGE, compressedImage)) continue;
+
+                if (loadedImage.conflicting) {
+                    DROPPED_CONFLICTING_IMAGES.incrementAndGet();
+                } else if (loadedImage.CHARACTER == character) {
+                    loadedImage.copies++;
+                    DROPPED_DUPLICATES.incrementAndGet();
+                } else {
+                    //drop the image that has already been added as well and count its duplicates as conflicting, so the counts don't depend on the order either
+                    loadedImage.conflicting = true;
+                    TRAINING_DATA.remove(loadedImage.IMAGE);
+                    DROPPED_DUPLICATES.addAndGet(1 - loadedImage.copies);
+                    DROPPED_CONFLICTING_IMAGES.addAndGet(loadedImage.copies + 1);
+                }
+                return loadedImages;
+            }
+            loadedImages.add(new LoadedImage(compressedImage, character));
+            TRAINING_DATA.put(compressedImage, character);
+            return loadedImages;
+        });
+    }
+
+    private String getDroppedDescription() {
+        int droppedImages = DROPPED_DUPLICATES.get() + DROPPED_CONFLICTING_IMAGES.get() + DROPPED_BLANK_IMAGES.get();
+        return droppedImages == 0 ? "" : " (dropped " + DROPPED_DUPLICATES.get() + " duplicates, " + DROPPED_CONFLICTING_IMAGES.get() + " identical images with different characters & "
+                + DROPPED_BLANK_IMAGES.get() + " blank images)";
+    }
+
+    /**
+     * @param compressedImage An image compressed by this file handler.
+     * @return Whether the image has (almost) no ink or all its ink lies in a speck too small to be a character.
+     */
+    public boolean isBlank(double[] compressedImage) {
+        double ink = 0;
+        int maxX = -1;
+        int minX = IMAGE_RESOLUTION;
+        int maxY = -1;
+        int minY = IMAGE_RESOLUTION;
+        for (int i = 0; i < compressedImage.length; i++) {
+            if (compressedImage[i] <= 0) continue;
+            ink += compressedImage[i];
+            int x = i % IMAGE_RESOLUTION;
+            int y = i / IMAGE_RESOLUTION;
+            if (x > maxX) maxX = x;
+            if (x < minX) minX = x;
+            if (y > maxY) maxY = y;
+            if (y < minY) minY = y;
+        }
+        if (ink < MIN_INK_SHARE * compressedImage.length) return true;
+        int extent = Math.max(maxX - minX, maxY - minY) + 1;
+        return extent < MIN_INK_EXTENT_SHARE * IMAGE_RESOLUTION;
+    }
+
+    /**
+     * @param image The image to be hashed.
+     * @return A hash of the exact content of the image, every pixel is mixed into all bits with the finalizer of SplitMix64.
+     */
+    private static long hash(double[] image) {
+        long hash = image.length;
+        for (double pixel : image) {
+            hash = mix(hash ^ Double.doubleToLongBits(pixel));
+        }
+        return hash;
+    }
+
+    private static long mix(long value) {
+        value = (value ^ (value >>> 30)) * 0xbf58476d1ce4e5b9L;
+        value = (value ^ (value >>> 27)) * 0x94d049bb133111ebL;
+        return value ^ (value >>> 31);
+    }
+
+    /**
+     * @return The number of images that weren't loaded because an identical image with the same character had already been loaded.
+     */
+    public int getDroppedDuplicates() {
+        return DROPPED_DUPLICATES.get();
+    }
+
+    /**
+     * @return The number of images that weren't loaded or have been removed because an identical image has a different character.
+     */
+    public int getDroppedConflictingImages() {
+        return DROPPED_CONFLICTING_IMAGES.get();
+    }
+
+    /**
+     * @return The number of images that weren't loaded because they were blank, see {@link filehandling.FileHandler#isBlank(double[])}.
+     */
+    public int getDroppedBlankImages() {
+        return DROPPED_BLANK_IMAGES.get();
+    }
+
+    private static boolean isInShard(String fileName, int shard, int shards) {
+        return shards == 1 || Math.floorMod(fileName.hashCode(), shards) == shard;
+    }
+
+    /**
+     * @param entryName The path of an entry in an archive.
+     * @return The character of the images in {@code <hex code>/train_<hex code>/} folders, null for all other entries.
+     */
+    private static Character getCharacter(String entryName) {
+        String[] folders = entryName.split("/");
+        //the last part is the file name
+        for (int i = folders.length - 2; i > 0; i--) {
+            if (folders[i].equals("train_" + folders[i - 1])) {
+                try {
+                    return (char) Integer.parseInt(folders[i - 1], 16);
+                } catch (NumberFormatException e) {
+                    return null;
+                }
+            }
+        }
+        return null;
     }
 
     /**
@@ -85,82 +398,125 @@ public class FileHandler {
         return new LinkedHashMap<>(TRAINING_DATA);
     }
 
+    /**
+     * Decodes bilevel PNG images with {@link filehandling.PngDecoder} and all other images with {@link javax.imageio.ImageIO}.
+     * @param file The image file to be compressed.
+     * @param downscalingAlgorithm The algorithm to be used when downscaling.
+     * @return The image of the file compressed to {@link filehandling.FileHandler#getImageResolution()} greyscale represented as a double array, null if the file isn't a supported image.
+     * @throws IOException if the file cannot be read.
+     */
+    public double[] getCompressedImage(File file, int downscalingAlgorithm) throws IOException {
+        return getCompressedImage(Files.readAllBytes(file.toPath()), downscalingAlgorithm);
+    }
+
+    /**
+     * Like {@link filehandling.FileHandler#getCompressedImage(File, int)} for an image that has already been read, e.g. from an archive.
+     * @param data The content of the image file.
+     * @param downscalingAlgorithm The algorithm to be used when downscaling.
+     * @return The image compressed to {@link filehandling.FileHandler#getImageResolution()} greyscale represented as a double array, null if the data isn't a supported image.
+     * @throws IOException if the image is corrupt.
+     */
+    public double[] getCompressedImage(byte[] data, int downscalingAlgorithm) throws IOException {
+        byte[][] uncompressed = PngDecoder.decode(data);
+        if (uncompressed != null) {
+            return getCompressedImage(uncompressed, downscalingAlgorithm);
+        }
+
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(data));
+        return image == null ? null : getCompressedImage(image, downscalingAlgorithm);
+    }
+
     /**
      * @param image The image to be compressed.
      * @param downscalingAlgorithm The algorithm to be used when downscaling.
-     * @return The given image compressed to 32x32 greyscale represented as a double array.
+     * @return The given image compressed to {@link filehandling.FileHandler#getImageResolution()} greyscale represented as a double array.
      */
     public double[] getCompressedImage(BufferedImage image, int downscalingAlgorithm) {
-        final int IMAGE_RESOLUTION = 32;
-        final double SCALE_FACTOR = (double) Math.max(image.getHeight(), image.getWidth()) / IMAGE_RESOLUTION; //TODO: not nice; rather make sure images from panel are square
-
         //convert image to byte array
         byte[][] uncompressed = new byte[image.getWidth()][image.getHeight()];
-
-        int maxX = 0;
-        int minX = image.getWidth();
-        int maxY = 0;
-        int minY = image.getHeight();
         for (int x = 0; x < image.getWidth(); x++) {
             for (int y = 0; y < image.getHeight(); y++) {
-                int pixel = (int) Math.round(image.getRGB(x, y) / -16777215.0d - 0.0000000596046473d);
-                uncompressed[x][y] = (byte) pixel;
-                if(pixel != 0) {
-                    if(x > maxX) maxX = x;
-                    if(x < minX) minX = x;
-                    if(y > maxY) maxY = y;
-                    if(y < minY) minY = y;
-                }
+                uncompressed[x][y] = (byte) Math.round(image.getRGB(x, y) / -16777215.0d - 0.0000000596046473d);
             }
         }
 
-        //compress image to specified resolution
-        double[] compressedImage = new double[IMAGE_RESOLUTION * IMAGE_RESOLUTION];
+        return getCompressedImage(uncompressed, downscalingAlgorithm);
+    }
+
+    /**
+     * @param uncompressed Whether each pixel is black (1) or white (0) indexed by x and y.
+     * @param downscalingAlgorithm The algorithm to be used when downscaling.
+     * @return The given image compressed to {@link filehandling.FileHandler#getImageResolution()} greyscale represented as a double array.
+     */
+    public double[] getCompressedImage(byte[][] uncompressed, int downscalingAlgorithm) {
+        int width = uncompressed.length;
+        int height = uncompressed[0].length;
+        final double SCALE_FACTOR = (double) Math.max(width, height) / IMAGE_RESOLUTION; //TODO: not nice; rather make sure images from panel are square
 
+        //weight of a pixel depending on its distance from the corner of its block
+        double[] weights = new double[2 * (int) Math.ceil(SCALE_FACTOR)];
         switch(downscalingAlgorithm) {
-            case BILINEAR_INTERPOLATION -> {
-                int i = 0;
-                for (int y = 0; y < uncompressed.length - SCALE_FACTOR; y += SCALE_FACTOR) {
-                    for (int x = 0; x < uncompressed[y].length - SCALE_FACTOR; x += SCALE_FACTOR) {
-                        int sum = 0;
-                        for (int x1 = 0; x1 < SCALE_FACTOR; x1++) {
-                            for (int y1 = 0; y1 < SCALE_FACTOR; y1++) {
-                                sum += uncompressed[x + x1][y + y1];
-                            }
-                        }
-                        compressedImage[i] = sum / (SCALE_FACTOR * SCALE_FACTOR);
-                        //compressedImage[i] = (uncompressed[x][y] + uncompressed[x + 1][y] + uncompressed[x + 2][y] + uncompressed[x + 3][y] + uncompressed[x + 1][y + 1] + uncompressed[x + 2][y + 1] + uncompressed[x + 3][y + 1] + uncompressed[x + 1][y + 2] + uncompressed[x + 2][y + 2] + uncompressed[x + 3][y + 2] + uncompressed[x + 1][y + 3] + uncompressed[x + 2][y + 3] + uncompressed[x + 3][y + 3]) / 16.0d;
-                        i++;
-                    }
-                    i++;
-                }
-            }
+            case BILINEAR_INTERPOLATION -> Arrays.fill(weights, 1);
 
             case WEIGHTED_BILINEAR_INTERPOLATION -> {
-                int i = 0;
                 double a = 2.6339157935;
                 double b = 2.5;
-                for (int y = 0; y < uncompressed.length - SCALE_FACTOR; y += SCALE_FACTOR) {
-                    for (int x = 0; x < uncompressed[y].length - SCALE_FACTOR; x += SCALE_FACTOR) {
-                        int sum = 0;
-                        for (int x1 = 0; x1 < SCALE_FACTOR; x1++) {
-                            for (int y1 = 0; y1 < SCALE_FACTOR; y1++) {
-                                double pixelPosition = (x1 + y1) / 2.0d;
-                                sum += uncompressed[x + x1][y + y1] * ((3 / (1 + Math.exp(a * (pixelPosition - b)))) * (1 - 1 / (1 + Math.exp(a * (pixelPosition - b)))) * 2);
-                            }
-                        }
-                        compressedImage[i] = sum / (SCALE_FACTOR * SCALE_FACTOR);
-                        //compressedImage[i] = (uncompressed[x][y] + uncompressed[x + 1][y] + uncompressed[x + 2][y] + uncompressed[x + 3][y] + uncompressed[x + 1][y + 1] + uncompressed[x + 2][y + 1] + uncompressed[x + 3][y + 1] + uncompressed[x + 1][y + 2] + uncompressed[x + 2][y + 2] + uncompressed[x + 3][y + 2] + uncompressed[x + 1][y + 3] + uncompressed[x + 2][y + 3] + uncompressed[x + 3][y + 3]) / 16.0d;
-                        i++;
-                    }
-                    i++;
+                //the curve was fitted to blocks of 4x4 pixels, so the distance is scaled to them
+                for (int distance = 0; distance < weights.length; distance++) {
+                    double pixelPosition = distance / 2.0d * (WEIGHTED_BLOCK_SIZE / SCALE_FACTOR);
+                    weights[distance] = (3 / (1 + Math.exp(a * (pixelPosition - b)))) * (1 - 1 / (1 + Math.exp(a * (pixelPosition - b)))) * 2;
                 }
             }
 
             default -> throw new IllegalStateException("Unexpected value: " + downscalingAlgorithm);
         }
 
+        //compress image to specified resolution, every block spans the pixels between two multiples of the scale factor
+        //the last row and column stay empty like in the images the first models were trained on
+        double[] compressedImage = new double[IMAGE_RESOLUTION * IMAGE_RESOLUTION];
+        for (int blockY = 0; blockY < IMAGE_RESOLUTION - 1; blockY++) {
+            int y = (int) (blockY * SCALE_FACTOR);
+            int blockHeight = Math.min((int) ((blockY + 1) * SCALE_FACTOR), height) - y;
+            for (int blockX = 0; blockX < IMAGE_RESOLUTION - 1; blockX++) {
+                int x = (int) (blockX * SCALE_FACTOR);
+                int blockWidth = Math.min((int) ((blockX + 1) * SCALE_FACTOR), width) - x;
+                if (blockWidth <= 0 || blockHeight <= 0) continue;
+
+                int sum = 0;
+                for (int x1 = 0; x1 < blockWidth; x1++) {
+                    for (int y1 = 0; y1 < blockHeight; y1++) {
+                        sum += uncompressed[x + x1][y + y1] * weights[x1 + y1];
+                    }
+                }
+                compressedImage[blockY * IMAGE_RESOLUTION + blockX] = sum / ((double) blockWidth * blockHeight);
+            }
+        }
+
         return compressedImage;
     }
 
+    /**
+     * An image that has been loaded and its character.
+     */
+    private static class LoadedImage {
+
+        private final double[] IMAGE;
+        private final char CHARACTER;
+
+        /**
+         * The number of times the image has been loaded with its character.
+         */
+        private int copies;
+
+        /**
+         * Whether an identical image with a different character has been loaded, in which case neither is in the training data.
+         */
+        private boolean conflicting;
+
+        private LoadedImage(double[] image, char character) {
+            IMAGE = image;
+            CHARACTER = character;
+            copies = 1;
+        }
+    }
 }
@@ -0,0 +1,125 @@
+package filehandling;
+
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Decodes bilevel PNG images like the ones of the NIST database straight into the pixel array used by {@link filehandling.FileHandler#getCompressedImage(byte[][], int)},
+ * without creating a {@link java.awt.image.BufferedImage}. Only non-interlaced greyscale images with a bit depth of 1 are supported.
+ */
+public final class PngDecoder {
+
+    private static final byte[] SIGNATURE = {(byte) 137, 80, 78, 71, 13, 10, 26, 10};
+
+    private static final int GREYSCALE = 0;
+
+    /**
+     * One inflater per thread, since creating one allocates native memory.
+     */
+    private static final ThreadLocal<Inflater> INFLATERS = ThreadLocal.withInitial(Inflater::new);
+
+    private PngDecoder() {
+    }
+
+    /**
+     * @param data The content of a PNG file.
+     * @return Whether each pixel is black (1) or white (0) indexed by x and y, null if the image isn't a supported PNG image.
+     * @throws IOException if the image is supported but its data is corrupt.
+     */
+    public static byte[][] decode(byte[] data) throws IOException {
+        if (data.length < SIGNATURE.length + 25) return null;
+        for (int i = 0; i < SIGNATURE.length; i++) {
+            if (data[i] != SIGNATURE[i]) return null;
+        }
+
+        //the header always comes first
+        int position = SIGNATURE.length;
+        if (readInt(data, position) != 13 || readInt(data, position + 4) != 0x49484452) return null;
+        int width = readInt(data, position + 8);
+        int height = readInt(data, position + 12);
+        int bitDepth = data[position + 16];
+        int colorType = data[position + 17];
+        int interlaceMethod = data[position + 20];
+        if (bitDepth != 1 || colorType != GREYSCALE || interlaceMethod != 0 || width <= 0 || height <= 0) return null;
+        position += 25;
+
+        //inflate the data chunks one after another into the filtered scanlines, each starting with its filter type
+        int rowBytes = (width + 7) / 8;
+        byte[] scanlines = new byte[(rowBytes + 1) * height];
+        int inflatedBytes = 0;
+        Inflater inflater = INFLATERS.get();
+        inflater.reset();
+        try {
+            while (position + 8 <= data.length) {
+                int length = readInt(data, position);
+                int type = readInt(data, position + 4);
+                if (length < 0 || position + 12L + length > data.length) throw new IOException("Truncated chunk in PNG image.");
+
+                if (type == 0x49444154) {
+                    inflater.setInput(data, position + 8, length);
+                    while (!inflater.needsInput() && !inflater.finished() && inflatedBytes < scanlines.length) {
+                        inflatedBytes += inflater.inflate(scanlines, inflatedBytes, scanlines.length - inflatedBytes);
+                    }
+                } else if (type == 0x49454e44) {
+                    break;
+                }
+                position += 12 + length;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException(e);
+        }
+        if (inflatedBytes < scanlines.length) throw new IOException("Missing image data in PNG image.");
+
+        unfilter(scanlines, rowBytes, height);
+
+        //black pixels are stored as 0
+        byte[][] pixels = new byte[width][height];
+        for (int y = 0; y < height; y++) {
+            int rowOffset = y * (rowBytes + 1) + 1;
+            for (int x = 0; x < width; x++) {
+                pixels[x][y] = (byte) (~(scanlines[rowOffset + (x >> 3)] >> (7 - (x & 7))) & 1);
+            }
+        }
+        return pixels;
+    }
+
+    /**
+     * Reverses the filter of every scanline in place, a pixel of less than a byte counts as one byte.
+     */
+    private static void unfilter(byte[] scanlines, int rowBytes, int height) throws IOException {
+        int stride = rowBytes + 1;
+        for (int y = 0; y < height; y++) {
+            int row = y * stride + 1;
+            int previousRow = row - stride;
+            int filterType = scanlines[row - 1];
+            for (int i = 0; i < rowBytes; i++) {
+                int left = i > 0 ? scanlines[row + i - 1] & 0xff : 0;
+                int up = y > 0 ? scanlines[previousRow + i] & 0xff : 0;
+                int upperLeft = y > 0 && i > 0 ? scanlines[previousRow + i - 1] & 0xff : 0;
+                int predictor = switch (filterType) {
+                    case 0 -> 0;
+                    case 1 -> left;
+                    case 2 -> up;
+                    case 3 -> (left + up) / 2;
+                    case 4 -> paeth(left, up, upperLeft);
+                    default -> throw new IOException("Unknown filter type " + filterType + " in PNG image.");
+                };
+                scanlines[row + i] = (byte) (scanlines[row + i] + predictor);
+            }
+        }
+    }
+
+    private static int paeth(int left, int up, int upperLeft) {
+        int estimate = left + up - upperLeft;
+        int leftDistance = Math.abs(estimate - left);
+        int upDistance = Math.abs(estimate - up);
+        int upperLeftDistance = Math.abs(estimate - upperLeft);
+        if (leftDistance <= upDistance && leftDistance <= upperLeftDistance) return left;
+        return upDistance <= upperLeftDistance ? up : upperLeft;
+    }
+
+    private static int readInt(byte[] data, int position) {
+        return (data[position] & 0xff) << 24 | (data[position + 1] & 0xff) << 16 | (data[position + 2] & 0xff) << 8 | (data[position + 3] & 0xff);
+    }
+}
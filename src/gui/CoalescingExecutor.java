@@ -0,0 +1,52 @@
+package gui;
+
+/**
+ * Runs tasks one after another on a single background thread, dropping every task that has been replaced by a newer one before it could start.
+ */
+public class CoalescingExecutor {
+
+    private final Thread THREAD;
+    private Runnable pendingTask;
+
+    /**
+     * @param threadName The name of the background thread.
+     */
+    public CoalescingExecutor(String threadName) {
+        THREAD = new Thread(this::runTasks, threadName);
+        THREAD.setDaemon(true);
+        THREAD.start();
+    }
+
+    /**
+     * Schedules the task, replacing any task that is still waiting.
+     * @param task The task to be run.
+     */
+    public synchronized void submit(Runnable task) {
+        pendingTask = task;
+        notifyAll();
+    }
+
+    private void runTasks() {
+        while (true) {
+            Runnable task;
+            synchronized (this) {
+                while (pendingTask == null) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                task = pendingTask;
+                pendingTask = null;
+            }
+
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+                System.out.println("Thread " + Thread.currentThread().getName() + " could not finish a task, continuing with the next one...");
+            }
+        }
+    }
+}
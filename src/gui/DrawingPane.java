@@ -1,5 +1,6 @@
 package gui;
 
+import filehandling.FileHandler;
 import main.Main;
 
 import javax.swing.*;
@@ -7,11 +8,9 @@ import java.awt.*;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
 import java.awt.event.MouseMotionListener;
-import java.awt.geom.Path2D;
-import java.awt.geom.Point2D;
-
+import java.awt.geom.Line2D;
 import java.awt.image.BufferedImage;
-import java.util.LinkedList;
+import java.util.ArrayList;
 import java.util.List;
 
 public class DrawingPane extends JPanel implements MouseListener, MouseMotionListener {
@@ -19,10 +18,30 @@ public class DrawingPane extends JPanel implements MouseListener, MouseMotionLis
     boolean leftClickPressed;
     private final int DRAWING_RESOLUTION;
     private final float STROKE_WIDTH;
-    private final LinkedList<LinkedList<Point2D.Double>> DRAWN_STROKES;
-    private MouseEvent mousePositionEvent;
+
+    /**
+     * Maximum distance in pixels between a drawn point and the simplified stroke.
+     */
+    private final float SIMPLIFICATION_TOLERANCE;
+
+    /**
+     * All strokes on the panel, only accessed on the event dispatch thread.
+     */
+    private final ArrayList<DrawnStroke> DRAWN_STROKES;
+
+    /**
+     * The strokes rendered so far, so that a new point only needs its own segment to be drawn.
+     */
+    private BufferedImage canvas;
 
     public DrawingPane() {
+        this(DEFAULT_SIMPLIFICATION_TOLERANCE);
+    }
+
+    /**
+     * @param simplificationTolerance The maximum distance in pixels between a drawn point and the simplified stroke, 0 to keep every point.
+     */
+    public DrawingPane(float simplificationTolerance) {
         addMouseListener(this);
         addMouseMotionListener(this);
         setFocusable(true);
@@ -31,98 +50,157 @@ public class DrawingPane extends JPanel implements MouseListener, MouseMotionLis
         setBackground(Color.WHITE);
         DRAWING_RESOLUTION = 1;
         STROKE_WIDTH = 10;
-        DRAWN_STROKES = new LinkedList<>();
+        SIMPLIFICATION_TOLERANCE = simplificationTolerance;
+        DRAWN_STROKES = new ArrayList<>();
         leftClickPressed = false;
     }
 
     public static final int MIN_MAX_NORMALIZATION = 1;
 
+    public static final float DEFAULT_SIMPLIFICATION_TOLERANCE = 1;
+
     /**
+     * Has to be called on the event dispatch thread.
+     * @return Copies of the strokes on this panel that can be used on any thread.
+     */
+    public List<DrawnStroke> getDrawnStrokes() {
+        List<DrawnStroke> drawnStrokes = new ArrayList<>(DRAWN_STROKES.size());
+        for (DrawnStroke stroke : DRAWN_STROKES) {
+            drawnStrokes.add(new DrawnStroke(stroke));
+        }
+        return drawnStrokes;
+    }
+
+    /**
+     * Has to be called on the event dispatch thread.
+     * @return The number of points the simplification of the strokes has removed, see {@link gui.DrawnStroke#add(float, float)}.
+     */
+    public int getSavedPointCount() {
+        int savedPoints = 0;
+        for (DrawnStroke stroke : DRAWN_STROKES) {
+            savedPoints += stroke.getAddedPointCount() - stroke.getPointCount();
+        }
+        return savedPoints;
+    }
+
+    /**
+     * Only reads the given strokes, so it can be called on any thread.
+     * @param drawnStrokes The strokes to be regularized, see {@link gui.DrawingPane#getDrawnStrokes()}.
+     * @param width The width of the panel the strokes have been drawn on.
+     * @param height The height of the panel the strokes have been drawn on.
      * @param regularizationAlgorithm The algorithm to be used for the regularization.
-     * @return A regularized version of the image on this panel .
+     * @param resolution The width and height of the returned image.
+     * @return A regularized version of the given strokes rasterized to the given resolution, or null if there are no strokes.
      */
-    public BufferedImage getRegularizedImage(int regularizationAlgorithm) {
+    public double[] getRegularizedImage(List<DrawnStroke> drawnStrokes, int width, int height, int regularizationAlgorithm, int resolution) {
 
-        if(DRAWN_STROKES.isEmpty()) {
+        if(drawnStrokes.isEmpty()) {
             return null;
         }
 
         final double PADDING = 50;
-        final double X_SCALE_FACTOR = getWidth() - 2 * PADDING;
-        final double Y_SCALE_FACTOR = getHeight() - 2 * PADDING;
+        final double X_SCALE_FACTOR = width - 2 * PADDING;
+        final double Y_SCALE_FACTOR = height - 2 * PADDING;
 
-        LinkedList<LinkedList<Point2D.Double>> drawnStrokesBackup = new LinkedList<>();
-
-        for (int s = 0; s < DRAWN_STROKES.size(); s++) {
-            drawnStrokesBackup.add(new LinkedList<>());
-            for (int p = 0; p < DRAWN_STROKES.get(s).size(); p++) {
-                drawnStrokesBackup.get(s).add(new Point2D.Double(DRAWN_STROKES.get(s).get(p).x, DRAWN_STROKES.get(s).get(p).y));
-            }
+        if(regularizationAlgorithm != MIN_MAX_NORMALIZATION) {
+            throw new IllegalArgumentException(regularizationAlgorithm + " is not a valid regularization algorithm.");
         }
 
-        if(regularizationAlgorithm == MIN_MAX_NORMALIZATION) {
-            //apply min-max normalization
-            double maxX = DRAWN_STROKES.stream().mapToDouble(stroke -> stroke.stream().mapToDouble(point -> point.x).max().orElseThrow()).max().orElseThrow();
-            double minX = DRAWN_STROKES.stream().mapToDouble(stroke -> stroke.stream().mapToDouble(point -> point.x).min().orElseThrow()).min().orElseThrow();
-            double maxY = DRAWN_STROKES.stream().mapToDouble(stroke -> stroke.stream().mapToDouble(point -> point.y).max().orElseThrow()).max().orElseThrow();
-            double minY = DRAWN_STROKES.stream().mapToDouble(stroke -> stroke.stream().mapToDouble(point -> point.y).min().orElseThrow()).min().orElseThrow();
-
-            //calculate the max and min coordinates of the points
-            double absoluteMax = Math.max(maxX, maxY);
-            double absoluteMin = Math.min(minX, minY);
-
-            //shift every point accordingly
-            for (LinkedList<Point2D.Double> stroke : DRAWN_STROKES) {
-                for (Point2D.Double point : stroke) {
-                    point.setLocation(((point.x - absoluteMin) / (absoluteMax - absoluteMin)) * X_SCALE_FACTOR + PADDING / 2, ((point.y - absoluteMin) / (absoluteMax - absoluteMin)) * Y_SCALE_FACTOR + PADDING);
-                }
+        //apply min-max normalization
+        double maxX = Double.NEGATIVE_INFINITY;
+        double minX = Double.POSITIVE_INFINITY;
+        double maxY = Double.NEGATIVE_INFINITY;
+        double minY = Double.POSITIVE_INFINITY;
+        for (DrawnStroke stroke : drawnStrokes) {
+            for (int p = 0; p < stroke.getPointCount(); p++) {
+                maxX = Math.max(maxX, stroke.getX(p));
+                minX = Math.min(minX, stroke.getX(p));
+                maxY = Math.max(maxY, stroke.getY(p));
+                minY = Math.min(minY, stroke.getY(p));
             }
-        } else {
-            throw new IllegalArgumentException(regularizationAlgorithm + " is not a valid regularization algorithm.");
         }
 
-        //print the points to an image
-        BufferedImage image = new BufferedImage(getWidth(), getHeight(), BufferedImage.TYPE_INT_RGB);
-        Graphics2D g = image.createGraphics();
-        printAll(g);
-        g.dispose();
-
-        //reset the points on the panel to revert regularization
-        DRAWN_STROKES.clear();
-        DRAWN_STROKES.addAll(drawnStrokesBackup);
-        repaint();
+        //calculate the max and min coordinates of the points
+        double absoluteMax = Math.max(maxX, maxY);
+        double absoluteMin = Math.min(minX, minY);
+        double range = absoluteMax > absoluteMin ? absoluteMax - absoluteMin : 1;
+
+        //shift every point accordingly while rasterizing, scaling the panel down to the resolution
+        //a covered cell is as dark as a black block of the downscaled training images
+        double xScale = (double) resolution / width;
+        double yScale = (double) resolution / height;
+        return StrokeRasterizer.rasterize(drawnStrokes,
+                X_SCALE_FACTOR / range * xScale, Y_SCALE_FACTOR / range * yScale,
+                (PADDING / 2 - absoluteMin * X_SCALE_FACTOR / range) * xScale, (PADDING - absoluteMin * Y_SCALE_FACTOR / range) * yScale,
+                STROKE_WIDTH * Math.min(xScale, yScale), resolution, FileHandler.getInstance(resolution).getBlackValue(FileHandler.WEIGHTED_BILINEAR_INTERPOLATION));
+    }
 
-        return image;
+    /**
+     * Only reads the given strokes, so it can be called on any thread.
+     * Splits the strokes into characters with {@link gui.StrokeSegmenter} and regularizes every character on its own like {@link gui.DrawingPane#getRegularizedImage(List, int, int, int, int)}.
+     * @param drawnStrokes The strokes to be regularized, see {@link gui.DrawingPane#getDrawnStrokes()}.
+     * @param width The width of the panel the strokes have been drawn on.
+     * @param height The height of the panel the strokes have been drawn on.
+     * @param regularizationAlgorithm The algorithm to be used for the regularization.
+     * @param resolution The width and height of the returned images.
+     * @return The image of every character from left to right, empty if there are no strokes.
+     */
+    public List<double[]> getRegularizedImages(List<DrawnStroke> drawnStrokes, int width, int height, int regularizationAlgorithm, int resolution) {
+        //the ink of two characters has to be separated by at least the width of a stroke
+        List<List<DrawnStroke>> segments = StrokeSegmenter.segment(drawnStrokes, 2 * STROKE_WIDTH);
+        List<double[]> images = new ArrayList<>(segments.size());
+        for (List<DrawnStroke> segment : segments) {
+            images.add(getRegularizedImage(segment, width, height, regularizationAlgorithm, resolution));
+        }
+        return images;
     }
 
     @Override
     public void paintComponent(Graphics g) {
-        //set up graphics object
-        Graphics2D g2D = (Graphics2D) g;
-        g2D.setStroke(new BasicStroke(STROKE_WIDTH));
-        g2D.setColor(Color.BLACK);
-
         //reset canvas
-        super.paintComponent(g2D);
-
-        //convert points to paths
-        LinkedList<Path2D.Double> strokes = new LinkedList<>();
+        super.paintComponent(g);
 
-        for (LinkedList<Point2D.Double> stroke : DRAWN_STROKES) {
-            Path2D.Double path = new Path2D.Double();
-            path.moveTo(stroke.getFirst().x, stroke.getFirst().y);
+        //only the part of the rendered strokes inside the clip is copied
+        g.drawImage(getCanvas(), 0, 0, null);
+    }
 
-            for (int i = 1; i < stroke.size(); i++) {
-                Point2D.Double point = stroke.get(i);
-                path.lineTo(point.x, point.y);
+    /**
+     * @return The image of all strokes, rendered again from scratch if the size of the panel has changed.
+     */
+    private BufferedImage getCanvas() {
+        if (canvas == null || canvas.getWidth() != Math.max(getWidth(), 1) || canvas.getHeight() != Math.max(getHeight(), 1)) {
+            canvas = new BufferedImage(Math.max(getWidth(), 1), Math.max(getHeight(), 1), BufferedImage.TYPE_INT_ARGB);
+            Graphics2D g2D = createCanvasGraphics();
+            for (DrawnStroke stroke : DRAWN_STROKES) {
+                for (int p = 1; p < stroke.getPointCount(); p++) {
+                    g2D.draw(new Line2D.Float(stroke.getX(p - 1), stroke.getY(p - 1), stroke.getX(p), stroke.getY(p)));
+                }
             }
-            strokes.add(path);
+            g2D.dispose();
         }
+        return canvas;
+    }
 
-        //draw paths
-        for (Path2D.Double stroke : strokes) {
-            g2D.draw(stroke);
-        }
+    private Graphics2D createCanvasGraphics() {
+        //set up graphics object
+        Graphics2D g2D = canvas.createGraphics();
+        g2D.setStroke(new BasicStroke(STROKE_WIDTH, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
+        g2D.setColor(Color.BLACK);
+        return g2D;
+    }
+
+    /**
+     * Renders the segment between the given points onto the canvas and repaints only the area it covers.
+     */
+    private void drawSegment(float x1, float y1, float x2, float y2) {
+        Graphics2D g2D = createCanvasGraphics();
+        g2D.draw(new Line2D.Float(x1, y1, x2, y2));
+        g2D.dispose();
+
+        int margin = (int) Math.ceil(STROKE_WIDTH / 2) + 1;
+        int x = (int) Math.floor(Math.min(x1, x2)) - margin;
+        int y = (int) Math.floor(Math.min(y1, y2)) - margin;
+        repaint(x, y, (int) Math.ceil(Math.abs(x2 - x1)) + 2 * margin + 1, (int) Math.ceil(Math.abs(y2 - y1)) + 2 * margin + 1);
     }
 
     @Override
@@ -135,34 +213,16 @@ public class DrawingPane extends JPanel implements MouseListener, MouseMotionLis
         if (e.getButton() == MouseEvent.BUTTON1) {
             leftClickPressed = true;
 
-            Runnable drawingRunnable = () -> {
-                if(mousePositionEvent == null) {
-                    mousePositionEvent = e;
-                }
-
-                //save initial mouse position and add it to current stroke
-                int mouseX = mousePositionEvent.getX();
-                int mouseY = mousePositionEvent.getY();
-                DRAWN_STROKES.add(new LinkedList<>(List.of(new Point2D.Double(mousePositionEvent.getX(), mousePositionEvent.getY()))));
-
-                //when holding add new point to current stroke whenever mouse moves by drawing resolution
-                while (leftClickPressed) {
-                    if (Point.distance(mousePositionEvent.getX(), mousePositionEvent.getY(), mouseX, mouseY) > DRAWING_RESOLUTION) {
-                        mouseX = mousePositionEvent.getX();
-                        mouseY = mousePositionEvent.getY();
-
-                        DRAWN_STROKES.getLast().add(new Point2D.Double(mousePositionEvent.getX(), mousePositionEvent.getY()));
-                    }
-                    repaint();
-                }
-            };
-            Thread drawingThread = new Thread(drawingRunnable, "drawing thread");
-            drawingThread.start();
+            //start a new stroke at the initial mouse position
+            DRAWN_STROKES.add(new DrawnStroke(e.getX(), e.getY(), SIMPLIFICATION_TOLERANCE));
+            getCanvas();
+            drawSegment(e.getX(), e.getY(), e.getX(), e.getY());
         } else if (e.getButton() == MouseEvent.BUTTON3) {
             if(!DRAWN_STROKES.isEmpty()) {
-                DRAWN_STROKES.removeLast();
+                DRAWN_STROKES.remove(DRAWN_STROKES.size() - 1);
             }
-            mousePositionEvent = null;
+            //render the remaining strokes again
+            canvas = null;
             repaint();
         }
     }
@@ -173,8 +233,6 @@ public class DrawingPane extends JPanel implements MouseListener, MouseMotionLis
             leftClickPressed = false;
         }
 
-        mousePositionEvent = null;
-
         //update GUI whenever input changes
         Main.GUI.updatePrediction();
     }
@@ -191,7 +249,20 @@ public class DrawingPane extends JPanel implements MouseListener, MouseMotionLis
 
     @Override
     public void mouseDragged(MouseEvent e) {
-        mousePositionEvent = e;
+        if (!leftClickPressed || DRAWN_STROKES.isEmpty()) return;
+
+        //add new point to current stroke whenever mouse moves by drawing resolution
+        DrawnStroke stroke = DRAWN_STROKES.get(DRAWN_STROKES.size() - 1);
+        if (Point.distance(e.getX(), e.getY(), stroke.getLastX(), stroke.getLastY()) > DRAWING_RESOLUTION) {
+            //the last point is always the previous mouse position, even if the simplification moves it
+            float previousX = stroke.getLastX();
+            float previousY = stroke.getLastY();
+            stroke.add(e.getX(), e.getY());
+            drawSegment(previousX, previousY, e.getX(), e.getY());
+
+            //keep the prediction up to date while drawing
+            Main.GUI.updatePredictionWhileDrawing();
+        }
     }
 
     @Override
@@ -0,0 +1,141 @@
+package gui;
+
+import java.util.Arrays;
+
+/**
+ * The points of a single stroke drawn on the {@link gui.DrawingPane}, stored as packed coordinates in a growable array.
+ * Points are simplified while they are added: the last point is moved instead of adding a new one as long as every point added since the point before it
+ * lies within {@link gui.DrawnStroke#TOLERANCE} of the straight segment, so the number of points depends on the shape of the stroke rather than on the mouse event rate.
+ */
+public class DrawnStroke {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    /**
+     * Maximum number of added points that can be replaced by a single segment, which bounds the work per added point.
+     */
+    private static final int MAX_MERGED_POINTS = 64;
+
+    /**
+     * Maximum distance of an added point to the simplified stroke, 0 to keep every point.
+     */
+    private final float TOLERANCE;
+
+    /**
+     * x and y coordinate of every point one after another.
+     */
+    private float[] coordinates;
+    private int pointCount;
+
+    /**
+     * x and y coordinate of every point added since the second to last point, which all have to be close to the last segment.
+     */
+    private final float[] MERGED_COORDINATES;
+    private int mergedPointCount;
+    private int addedPointCount;
+
+    /**
+     * @param x The x coordinate of the first point.
+     * @param y The y coordinate of the first point.
+     * @param tolerance The maximum distance of an added point to the simplified stroke, 0 to keep every point.
+     */
+    public DrawnStroke(float x, float y, float tolerance) {
+        TOLERANCE = tolerance;
+        coordinates = new float[2 * INITIAL_CAPACITY];
+        MERGED_COORDINATES = new float[2 * MAX_MERGED_POINTS];
+        add(x, y);
+    }
+
+    public DrawnStroke(float x, float y) {
+        this(x, y, 0);
+    }
+
+    /**
+     * @param stroke The stroke to be copied.
+     */
+    public DrawnStroke(DrawnStroke stroke) {
+        TOLERANCE = stroke.TOLERANCE;
+        coordinates = Arrays.copyOf(stroke.coordinates, 2 * Math.max(stroke.pointCount, 1));
+        pointCount = stroke.pointCount;
+        MERGED_COORDINATES = stroke.MERGED_COORDINATES.clone();
+        mergedPointCount = stroke.mergedPointCount;
+        addedPointCount = stroke.addedPointCount;
+    }
+
+    /**
+     * Adds a point to the end of the stroke or moves the last point there if the stroke stays within {@link gui.DrawnStroke#TOLERANCE}.
+     * @param x The x coordinate of the point.
+     * @param y The y coordinate of the point.
+     */
+    public void add(float x, float y) {
+        addedPointCount++;
+
+        if (pointCount >= 2 && mergedPointCount < MAX_MERGED_POINTS && isWithinTolerance(getX(pointCount - 2), getY(pointCount - 2), x, y)) {
+            //move the last point instead of adding a new one
+            coordinates[2 * pointCount - 2] = x;
+            coordinates[2 * pointCount - 1] = y;
+        } else {
+            if (2 * pointCount == coordinates.length) {
+                coordinates = Arrays.copyOf(coordinates, 2 * coordinates.length);
+            }
+            coordinates[2 * pointCount] = x;
+            coordinates[2 * pointCount + 1] = y;
+            pointCount++;
+            mergedPointCount = 0;
+        }
+
+        MERGED_COORDINATES[2 * mergedPointCount] = x;
+        MERGED_COORDINATES[2 * mergedPointCount + 1] = y;
+        mergedPointCount++;
+    }
+
+    /**
+     * @return Whether every merged point lies within {@link gui.DrawnStroke#TOLERANCE} of the segment between the given points.
+     */
+    private boolean isWithinTolerance(float x1, float y1, float x2, float y2) {
+        if (TOLERANCE <= 0) return false;
+
+        float dx = x2 - x1;
+        float dy = y2 - y1;
+        float lengthSquared = dx * dx + dy * dy;
+        for (int p = 0; p < mergedPointCount; p++) {
+            float px = MERGED_COORDINATES[2 * p];
+            float py = MERGED_COORDINATES[2 * p + 1];
+            //closest point of the segment to the merged point
+            float t = lengthSquared == 0 ? 0 : Math.max(0, Math.min(1, ((px - x1) * dx + (py - y1) * dy) / lengthSquared));
+            float distanceX = px - (x1 + t * dx);
+            float distanceY = py - (y1 + t * dy);
+            if (distanceX * distanceX + distanceY * distanceY > TOLERANCE * TOLERANCE) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return The number of points that have been added to this stroke, including the ones removed by the simplification.
+     */
+    public int getAddedPointCount() {
+        return addedPointCount;
+    }
+
+    public float getX(int point) {
+        return coordinates[2 * point];
+    }
+
+    public float getY(int point) {
+        return coordinates[2 * point + 1];
+    }
+
+    public int getPointCount() {
+        return pointCount;
+    }
+
+    public float getLastX() {
+        return getX(pointCount - 1);
+    }
+
+    public float getLastY() {
+        return getY(pointCount - 1);
+    }
+}
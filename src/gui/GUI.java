@@ -1,14 +1,16 @@
 package gui;
 
-import filehandling.FileHandler;
+import network.Network;
 
 import javax.swing.*;
 import java.awt.*;
 import java.awt.image.BufferedImage;
+import java.util.List;
+import java.util.Map;
 
 import static gui.DrawingPane.MIN_MAX_NORMALIZATION;
-import static main.Main.FILE_HANDLER;
 import static main.Main.NETWORK;
+import static main.Main.ONLINE_TRAINER;
 
 public class GUI {
 
@@ -17,8 +19,39 @@ public class GUI {
 
     private JLabel regularizedImage;
     private JLabel detectedCharacterLabel;
+    private JTextField correctLabelField;
+    private JButton correctButton;
+
+    /**
+     * The image of every character of the prediction that is shown, empty if nothing has been drawn.
+     */
+    private List<double[]> shownImages = List.of();
+
+    /**
+     * Default time in milliseconds between two predictions while the user is drawing.
+     */
+    public static final int DEFAULT_PREDICTION_INTERVAL = 100;
+
+    /**
+     * Evaluates the drawings off the event dispatch thread, only the newest drawing is evaluated if it can't keep up.
+     */
+    private final CoalescingExecutor PREDICTION_EXECUTOR;
+    private final Timer PREDICTION_TIMER;
+    private long submittedPredictions;
+    private long shownPrediction;
 
     public GUI() {
+        this(DEFAULT_PREDICTION_INTERVAL);
+    }
+
+    /**
+     * @param predictionInterval The time in milliseconds between two predictions while the user is drawing.
+     */
+    public GUI(int predictionInterval) {
+        PREDICTION_EXECUTOR = new CoalescingExecutor("prediction thread");
+        PREDICTION_TIMER = new Timer(predictionInterval, e -> updatePrediction());
+        PREDICTION_TIMER.setRepeats(false);
+
         regularizedImage = new JLabel(new ImageIcon(new BufferedImage(1, 1, BufferedImage.TYPE_BYTE_GRAY)));
         detectedCharacterLabel = new JLabel("Recognized as", SwingConstants.CENTER);
 
@@ -74,6 +107,24 @@ public class GUI {
 
         frame.add(detectedCharacterLabel, constraints);
 
+        constraints.gridx = 0;
+        constraints.gridy = 2;
+        constraints.gridwidth = 2;
+        constraints.weighty = 0;
+
+        //let the user teach the network the correct label of the drawing
+        JPanel correctionPanel = new JPanel(new FlowLayout(FlowLayout.CENTER));
+        correctionPanel.setBackground(Color.WHITE);
+        correctLabelField = new JTextField(2);
+        correctLabelField.addActionListener(e -> correctPrediction());
+        correctButton = new JButton("Learn");
+        correctButton.addActionListener(e -> correctPrediction());
+        correctionPanel.add(new JLabel("Correct label:"));
+        correctionPanel.add(correctLabelField);
+        correctionPanel.add(correctButton);
+
+        frame.add(correctionPanel, constraints);
+
         drawingPane.setPreferredSize(new Dimension(480, 480));
         drawingPane.setSize(drawingPane.getPreferredSize());
         frame.pack();
@@ -81,20 +132,149 @@ public class GUI {
     }
 
     /**
-     * Updates the GUI to show the info for the current input on the drawing panel.
+     * Updates the GUI to show the info for the current input on the drawing panel once it has been evaluated in the background.
+     * Has to be called on the event dispatch thread.
      */
     public void updatePrediction() {
-        BufferedImage regularizedInputImage = drawingPane.getRegularizedImage(MIN_MAX_NORMALIZATION);
-        if(regularizedInputImage != null) {
-            regularizedImage.setIcon(new ImageIcon(regularizedInputImage.getScaledInstance(32, 32, Image.SCALE_SMOOTH).getScaledInstance(regularizedImage.getWidth(), regularizedImage.getHeight(), Image.SCALE_SMOOTH)));
+        PREDICTION_TIMER.stop();
+
+        //take everything needed from the panels here so the prediction thread doesn't touch any Swing component
+        List<DrawnStroke> drawnStrokes = drawingPane.getDrawnStrokes();
+        int savedPoints = drawingPane.getSavedPointCount();
+        int width = drawingPane.getWidth();
+        int height = drawingPane.getHeight();
+        int previewWidth = regularizedImage.getWidth();
+        int previewHeight = regularizedImage.getHeight();
+        long prediction = ++submittedPredictions;
 
-            char detectedCharacter = NETWORK.evaluate(FILE_HANDLER.getCompressedImage(regularizedInputImage, FileHandler.WEIGHTED_BILINEAR_INTERPOLATION)).getKey();
-            double certainty = NETWORK.evaluate(FILE_HANDLER.getCompressedImage(regularizedInputImage, FileHandler.WEIGHTED_BILINEAR_INTERPOLATION)).getValue();
+        PREDICTION_EXECUTOR.submit(() -> {
+            //use the same network for rasterizing and evaluating even if it is replaced in the meantime
+            Network network = NETWORK;
+            List<double[]> compressedImages = drawingPane.getRegularizedImages(drawnStrokes, width, height, MIN_MAX_NORMALIZATION, network.getImageResolution());
+            if (compressedImages.isEmpty()) {
+                SwingUtilities.invokeLater(() -> showPrediction(prediction, List.of(), null, List.of(), 0));
+                return;
+            }
 
-            detectedCharacterLabel.setText("Recognized as: " + detectedCharacter + " (" + Math.round(certainty * 10000) / 100 + "%)");
+            //a single character goes through the prediction cache, several characters are evaluated in a single pass
+            List<Map.Entry<Character, Double>> results = compressedImages.size() == 1 ? List.of(network.evaluate(compressedImages.get(0)))
+                    : network.evaluate(compressedImages.toArray(new double[0][]));
+            ImageIcon preview = new ImageIcon(getPreview(compressedImages, previewWidth, previewHeight));
+
+            SwingUtilities.invokeLater(() -> showPrediction(prediction, compressedImages, preview, results, savedPoints));
+        });
+    }
+
+    /**
+     * Schedules {@link gui.GUI#updatePrediction()} if it isn't already scheduled, so that the prediction is updated at most once per prediction interval while drawing.
+     * Has to be called on the event dispatch thread.
+     */
+    public void updatePredictionWhileDrawing() {
+        if (!PREDICTION_TIMER.isRunning()) {
+            PREDICTION_TIMER.start();
+        }
+    }
+
+    /**
+     * Shows the result of a prediction unless a newer one is already shown.
+     * @param prediction The number of the prediction.
+     * @param compressedImages The image of every character the network has evaluated, empty if nothing has been drawn.
+     * @param preview The scaled images or null if nothing has been drawn.
+     * @param results The label and certainty computed by the network for every character, empty if nothing has been drawn.
+     * @param savedPoints The number of points the simplification of the strokes has removed.
+     */
+    private void showPrediction(long prediction, List<double[]> compressedImages, ImageIcon preview, List<Map.Entry<Character, Double>> results, int savedPoints) {
+        if (prediction < shownPrediction) return;
+        shownPrediction = prediction;
+        shownImages = compressedImages;
+
+        if (!results.isEmpty()) {
+            regularizedImage.setIcon(preview);
+            StringBuilder text = new StringBuilder();
+            double lowestCertainty = 1;
+            for (Map.Entry<Character, Double> result : results) {
+                text.append(result.getKey());
+                lowestCertainty = Math.min(lowestCertainty, result.getValue());
+            }
+            //a word is only as certain as its least certain character
+            detectedCharacterLabel.setText("Recognized as: " + text + " (" + Math.round(lowestCertainty * 10000) / 100 + "%), " + savedPoints + " points saved");
         } else {
             regularizedImage.setIcon(null);
             detectedCharacterLabel.setText(null);
         }
     }
+
+    /**
+     * Disables the corrections and shows why, e.g. when {@link main.Main#ONLINE_TRAINER} can't fine-tune the network.
+     * Has to be called on the event dispatch thread.
+     * @param reason Why the network can't learn from corrections.
+     */
+    public void disableCorrections(String reason) {
+        correctLabelField.setEnabled(false);
+        correctButton.setEnabled(false);
+        correctLabelField.setToolTipText(reason);
+        correctButton.setToolTipText(reason);
+        detectedCharacterLabel.setText("Corrections are disabled: " + reason);
+    }
+
+    /**
+     * Queues the shown images with the labels entered by the user for fine-tuning the network, one label per character.
+     */
+    private void correctPrediction() {
+        String text = correctLabelField.getText().strip();
+        correctLabelField.setText("");
+        if (shownImages.isEmpty() || ONLINE_TRAINER == null) return;
+        if (ONLINE_TRAINER.getFailure() != null) {
+            disableCorrections(ONLINE_TRAINER.getFailure());
+            return;
+        }
+        if (text.length() != shownImages.size()) {
+            detectedCharacterLabel.setText("Enter " + shownImages.size() + " characters.");
+            return;
+        }
+
+        String labels = new String(NETWORK.getLabels());
+        for (char label : text.toCharArray()) {
+            if (labels.indexOf(label) == -1) {
+                detectedCharacterLabel.setText("'" + label + "' cannot be recognized.");
+                return;
+            }
+        }
+        for (int i = 0; i < text.length(); i++) {
+            ONLINE_TRAINER.addCorrection(shownImages.get(i), text.charAt(i));
+        }
+        detectedCharacterLabel.setText("Learning '" + text + "'...");
+    }
+
+    /**
+     * @param compressedImages The image of every character as given to the network.
+     * @param width The width of the preview.
+     * @param height The height of the preview.
+     * @return The compressed images side by side, scaled to the given size.
+     */
+    private static BufferedImage getPreview(List<double[]> compressedImages, int width, int height) {
+        int resolution = (int) Math.sqrt(compressedImages.get(0).length);
+        BufferedImage image = new BufferedImage(resolution * compressedImages.size(), resolution, BufferedImage.TYPE_BYTE_GRAY);
+        for (int i = 0; i < compressedImages.size(); i++) {
+            double[] compressedImage = compressedImages.get(i);
+            for (int y = 0; y < resolution; y++) {
+                for (int x = 0; x < resolution; x++) {
+                    int grey = (int) Math.round(255 * (1 - Math.min(Math.max(compressedImage[y * resolution + x], 0), 1)));
+                    image.getRaster().setSample(i * resolution + x, y, 0, grey);
+                }
+            }
+        }
+
+        //keep the characters square and centered
+        BufferedImage preview = new BufferedImage(Math.max(width, 1), Math.max(height, 1), BufferedImage.TYPE_BYTE_GRAY);
+        int scaledHeight = Math.max(Math.min(preview.getHeight(), preview.getWidth() / compressedImages.size()), 1);
+        int scaledWidth = scaledHeight * compressedImages.size();
+        Graphics2D g = preview.createGraphics();
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, preview.getWidth(), preview.getHeight());
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g.drawImage(image, (preview.getWidth() - scaledWidth) / 2, (preview.getHeight() - scaledHeight) / 2, scaledWidth, scaledHeight, null);
+        g.dispose();
+        return preview;
+    }
 }
@@ -0,0 +1,92 @@
+package gui;
+
+import java.util.List;
+
+/**
+ * Rasterizes strokes straight into the small greyscale grid given to the network, without rendering them at the size of the panel first.
+ * Every cell is split into {@link gui.StrokeRasterizer#SUBSAMPLES} x {@link gui.StrokeRasterizer#SUBSAMPLES} samples, so its value is the share of it covered by a stroke
+ * times the value of a completely covered cell.
+ */
+public final class StrokeRasterizer {
+
+    private static final int SUBSAMPLES = 4;
+
+    private StrokeRasterizer() {
+    }
+
+    /**
+     * Maps every point (x, y) to (x * scaleX + offsetX, y * scaleY + offsetY) in the coordinates of the grid, where a cell is 1 wide.
+     * @param drawnStrokes The strokes to be rasterized, they are only read.
+     * @param scaleX The factor all x coordinates are multiplied with.
+     * @param scaleY The factor all y coordinates are multiplied with.
+     * @param offsetX The value added to all x coordinates after scaling.
+     * @param offsetY The value added to all y coordinates after scaling.
+     * @param strokeWidth The width of the strokes in cells.
+     * @param resolution The width and height of the grid.
+     * @param blackValue The value of a completely covered cell, see {@link filehandling.FileHandler#getBlackValue(int)}.
+     * @return The coverage of every cell between 0 and the black value, row by row.
+     */
+    public static double[] rasterize(List<DrawnStroke> drawnStrokes, double scaleX, double scaleY, double offsetX, double offsetY, double strokeWidth, int resolution, double blackValue) {
+        int sampleResolution = resolution * SUBSAMPLES;
+        boolean[] covered = new boolean[sampleResolution * sampleResolution];
+        double radius = strokeWidth * SUBSAMPLES / 2;
+
+        for (DrawnStroke stroke : drawnStrokes) {
+            //a single point is rasterized as a dot
+            double previousX = (stroke.getX(0) * scaleX + offsetX) * SUBSAMPLES;
+            double previousY = (stroke.getY(0) * scaleY + offsetY) * SUBSAMPLES;
+            coverSegment(covered, sampleResolution, previousX, previousY, previousX, previousY, radius);
+            for (int p = 1; p < stroke.getPointCount(); p++) {
+                double x = (stroke.getX(p) * scaleX + offsetX) * SUBSAMPLES;
+                double y = (stroke.getY(p) * scaleY + offsetY) * SUBSAMPLES;
+                coverSegment(covered, sampleResolution, previousX, previousY, x, y, radius);
+                previousX = x;
+                previousY = y;
+            }
+        }
+
+        //average the samples of every cell
+        double sampleValue = blackValue / (SUBSAMPLES * SUBSAMPLES);
+        double[] grid = new double[resolution * resolution];
+        for (int sy = 0; sy < sampleResolution; sy++) {
+            int rowOffset = (sy / SUBSAMPLES) * resolution;
+            for (int sx = 0; sx < sampleResolution; sx++) {
+                if (covered[sy * sampleResolution + sx]) {
+                    grid[rowOffset + sx / SUBSAMPLES] += sampleValue;
+                }
+            }
+        }
+        return grid;
+    }
+
+    /**
+     * Marks every sample whose center is within the radius of the segment.
+     */
+    private static void coverSegment(boolean[] covered, int sampleResolution, double x1, double y1, double x2, double y2, double radius) {
+        int minX = Math.max((int) Math.floor(Math.min(x1, x2) - radius), 0);
+        int maxX = Math.min((int) Math.ceil(Math.max(x1, x2) + radius), sampleResolution - 1);
+        int minY = Math.max((int) Math.floor(Math.min(y1, y2) - radius), 0);
+        int maxY = Math.min((int) Math.ceil(Math.max(y1, y2) + radius), sampleResolution - 1);
+
+        double dx = x2 - x1;
+        double dy = y2 - y1;
+        double lengthSquared = dx * dx + dy * dy;
+        double inverseLengthSquared = lengthSquared == 0 ? 0 : 1 / lengthSquared;
+        double radiusSquared = radius * radius;
+
+        for (int sy = minY; sy <= maxY; sy++) {
+            double py = sy + 0.5d;
+            for (int sx = minX; sx <= maxX; sx++) {
+                double px = sx + 0.5d;
+                //closest point of the segment to the center of the sample
+                double t = ((px - x1) * dx + (py - y1) * dy) * inverseLengthSquared;
+                t = t < 0 ? 0 : (t > 1 ? 1 : t);
+                double distanceX = px - (x1 + t * dx);
+                double distanceY = py - (y1 + t * dy);
+                if (distanceX * distanceX + distanceY * distanceY <= radiusSquared) {
+                    covered[sy * sampleResolution + sx] = true;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package gui;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Splits the strokes on the {@link gui.DrawingPane} into characters written from left to right.
+ * Strokes whose horizontal extents overlap or are closer than a gap belong to the same character, so e.g. the dot of an i or the bar of a t stays with its character
+ * while characters written next to each other are separated. Characters that touch each other aren't separated.
+ */
+public final class StrokeSegmenter {
+
+    private StrokeSegmenter() {
+    }
+
+    /**
+     * @param drawnStrokes The strokes to be split, they are only read.
+     * @param minGap The smallest horizontal distance between two characters in the coordinates of the strokes.
+     * @return The strokes of every character, ordered from left to right.
+     */
+    public static List<List<DrawnStroke>> segment(List<DrawnStroke> drawnStrokes, double minGap) {
+        //horizontal extent of every stroke, sorted by its left edge
+        List<double[]> extents = new ArrayList<>(drawnStrokes.size());
+        for (int i = 0; i < drawnStrokes.size(); i++) {
+            DrawnStroke stroke = drawnStrokes.get(i);
+            double minX = Double.POSITIVE_INFINITY;
+            double maxX = Double.NEGATIVE_INFINITY;
+            for (int p = 0; p < stroke.getPointCount(); p++) {
+                minX = Math.min(minX, stroke.getX(p));
+                maxX = Math.max(maxX, stroke.getX(p));
+            }
+            extents.add(new double[]{minX, maxX, i});
+        }
+        extents.sort(Comparator.comparingDouble(extent -> extent[0]));
+
+        //sweep from left to right, starting a new character whenever the next stroke begins after the gap
+        List<List<DrawnStroke>> segments = new ArrayList<>();
+        List<DrawnStroke> segment = null;
+        double segmentMaxX = Double.NEGATIVE_INFINITY;
+        for (double[] extent : extents) {
+            if (segment == null || extent[0] > segmentMaxX + minGap) {
+                segment = new ArrayList<>();
+                segments.add(segment);
+                segmentMaxX = Double.NEGATIVE_INFINITY;
+            }
+            segment.add(drawnStrokes.get((int) extent[2]));
+            segmentMaxX = Math.max(segmentMaxX, extent[1]);
+        }
+        return segments;
+    }
+}
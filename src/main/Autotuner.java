@@ -0,0 +1,256 @@
+package main;
+
+import filehandling.Configuration;
+import filehandling.FileHandler;
+import network.Augmentation;
+import network.BatchProducer;
+import network.Network;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Measures which settings train and evaluate fastest on this machine and stores them in the tuning profile, see {@link filehandling.Configuration#TUNING_PROFILE},
+ * which {@link network.Network#train()}, {@link main.Main} and {@link main.BatchRecognizer} read at startup.
+ * <p>
+ * Every combination of batch size, training kernel and number of batch producer threads trains a new network for a fixed time. The fastest combination whose validation accuracy
+ * is at most {@code --max-accuracy-loss} below the most accurate one is chosen, since larger batches are faster but learn less in the same time.
+ * Afterwards the latency of single images with and without {@link network.Network#enableParallelCompute(ForkJoinPool, long)} and the throughput of
+ * {@link main.BatchRecognizer} with different numbers of threads are measured with the model, or the network of the chosen combination if there is none.
+ * All results are written to "Autotune Report.txt".
+ * <p>
+ * Usage: {@code Autotuner [training data] [--model file] [--batch-sizes 50,100,200] [--producer-threads 1,n] [--recognizer-threads 1,2,4,n] [--trial-seconds 5]
+ * [--max-accuracy-loss 0.01] [--hidden-layers none] [--learning-rate 0.01] [--validation share] [--seed s]}.
+ * The training data defaults to {@code training.data} from {@link filehandling.Configuration}.
+ */
+public class Autotuner {
+
+    /**
+     * Share of the time of every trial spent before measuring so that the measurement isn't skewed by the JIT compiler.
+     */
+    private static final double WARM_UP_SHARE = 0.2;
+
+    public static void main(String[] args) throws InterruptedException {
+        int processors = Runtime.getRuntime().availableProcessors();
+        int[] batchSizes = {50, 100, 200};
+        int[] producerThreads = IntStream.of(1, BatchProducer.getDefaultProducerThreads()).distinct().toArray();
+        int[] recognizerThreads = IntStream.of(1, 2, 4, processors).filter(threads -> threads <= processors).distinct().toArray();
+        double trialSeconds = 5;
+        double maxAccuracyLoss = 0.01;
+        int[] hiddenLayerSizes = {};
+        double learningRate = 0.01;
+        double validationShare = 0.1;
+        long seed = 0;
+        File modelFile = null;
+        File data = null;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--model" -> modelFile = new File(args[++i]);
+                case "--batch-sizes" -> batchSizes = Arrays.stream(args[++i].split(",")).mapToInt(Integer::parseInt).toArray();
+                case "--producer-threads" -> producerThreads = Arrays.stream(args[++i].split(",")).mapToInt(Integer::parseInt).toArray();
+                case "--recognizer-threads" -> recognizerThreads = Arrays.stream(args[++i].split(",")).mapToInt(Integer::parseInt).toArray();
+                case "--trial-seconds" -> trialSeconds = Double.parseDouble(args[++i]);
+                case "--max-accuracy-loss" -> maxAccuracyLoss = Double.parseDouble(args[++i]);
+                case "--hidden-layers" -> hiddenLayerSizes = args[++i].equals("none") ? new int[0] : Arrays.stream(args[i].split(",")).mapToInt(Integer::parseInt).toArray();
+                case "--learning-rate" -> learningRate = Double.parseDouble(args[++i]);
+                case "--validation" -> validationShare = Double.parseDouble(args[++i]);
+                case "--seed" -> seed = Long.parseLong(args[++i]);
+                default -> {
+                    if (args[i].startsWith("--")) {
+                        System.out.println("Usage: Autotuner [training data] [--model file] [--batch-sizes 50,100,200] [--producer-threads 1,n] [--recognizer-threads 1,2,4,n] [--trial-seconds 5] "
+                                + "[--max-accuracy-loss 0.01] [--hidden-layers none] [--learning-rate 0.01] [--validation share] [--seed s]");
+                        return;
+                    }
+                    data = new File(args[i]);
+                }
+            }
+        }
+        if (data == null) data = Configuration.getFile(Configuration.TRAINING_DATA);
+
+        //split the data into training and validation data
+        Network model = modelFile != null ? Network.load(modelFile) : null;
+        int imageResolution = model != null ? model.getImageResolution() : FileHandler.DEFAULT_IMAGE_RESOLUTION;
+        FileHandler fileHandler = new FileHandler(imageResolution);
+        fileHandler.loadFiles(data);
+        List<Map.Entry<double[], Character>> pairs = new ArrayList<>(fileHandler.getTrainingData().entrySet());
+        Collections.shuffle(pairs, new Random(seed));
+        int validationSize = (int) (pairs.size() * validationShare);
+        if (validationSize == 0 || validationSize == pairs.size()) throw new IllegalArgumentException("Neither the validation nor the training data may be empty.");
+        LinkedHashMap<double[], Character> trainingData = new LinkedHashMap<>();
+        LinkedHashMap<double[], Character> validationData = new LinkedHashMap<>();
+        for (int i = 0; i < pairs.size(); i++) {
+            (i < validationSize ? validationData : trainingData).put(pairs.get(i).getKey(), pairs.get(i).getValue());
+        }
+
+        StringBuilder report = new StringBuilder("Autotune Report:\nProcessors: " + processors + "\nTrial time: " + trialSeconds + "s\n\nTraining:\nBatch size | Kernel | Producer threads | Throughput | Accuracy\n");
+
+        //time every training combination
+        List<Trial> trials = new ArrayList<>();
+        for (int batchSize : batchSizes) {
+            for (String kernel : new String[]{Configuration.NEURON_KERNEL, Configuration.MATRIX_KERNEL}) {
+                for (int threads : producerThreads) {
+                    Network network = new Network(learningRate, batchSize, imageResolution * imageResolution, 62, hiddenLayerSizes);
+                    network.setMatrixTraining(kernel.equals(Configuration.MATRIX_KERNEL));
+                    Trial trial = new Trial(batchSize, kernel, threads, network);
+                    trial.run(trainingData, validationData, trialSeconds, seed);
+                    String line = String.format("%d | %s | %d | %.0f images/s | %.2f%%", batchSize, kernel, threads, trial.throughput, trial.accuracy * 100);
+                    System.out.println(line);
+                    report.append(line).append('\n');
+                    trials.add(trial);
+                }
+            }
+        }
+
+        //choose the fastest combination that is accurate enough
+        double highestAccuracy = trials.stream().mapToDouble(trial -> trial.accuracy).max().orElseThrow();
+        double minAccuracy = highestAccuracy - maxAccuracyLoss;
+        Trial best = trials.stream().filter(trial -> trial.accuracy >= minAccuracy).max(Comparator.comparingDouble(trial -> trial.throughput)).orElseThrow();
+        report.append(String.format("Chosen: batch size %d, %s kernel, %d producer threads (fastest with at least %.2f%% accuracy)\n", best.BATCH_SIZE, best.KERNEL, best.PRODUCER_THREADS, minAccuracy * 100));
+
+        //measure the latency of single images with and without splitting layers across threads
+        Network network = model != null ? model : best.NETWORK;
+        network.foldBatchNormalization();
+        double[][] images = validationData.keySet().toArray(new double[0][]);
+        network.disableParallelCompute();
+        double sequentialLatency = measureLatency(network, images, trialSeconds);
+        network.enableParallelCompute(ForkJoinPool.commonPool(), Network.DEFAULT_PARALLEL_OPERATION_THRESHOLD);
+        double parallelLatency = measureLatency(network, images, trialSeconds);
+        network.disableParallelCompute();
+        boolean parallelCompute = parallelLatency < sequentialLatency;
+        report.append(String.format("\nPredictions:\nSequential 99th percentile latency: %.1fµs\nParallel 99th percentile latency: %.1fµs\nChosen: %s\n",
+                sequentialLatency, parallelLatency, parallelCompute ? "parallel" : "sequential"));
+
+        //measure the throughput of the batch recognizer, where every thread evaluates its own copy of the network
+        report.append("\nBatch recognition:\nThreads | Throughput\n");
+        int bestRecognizerThreads = 1;
+        double highestRecognizerThroughput = 0;
+        for (int threads : recognizerThreads) {
+            double throughput = measureThroughput(network, images, threads, trialSeconds);
+            String line = String.format("%d | %.0f images/s", threads, throughput);
+            System.out.println(line);
+            report.append(line).append('\n');
+            if (throughput > highestRecognizerThroughput) {
+                highestRecognizerThroughput = throughput;
+                bestRecognizerThreads = threads;
+            }
+        }
+        report.append("Chosen: ").append(bestRecognizerThreads).append(" threads\n");
+        System.out.print(report);
+
+        Properties profile = new Properties();
+        profile.setProperty(Configuration.TRAINING_BATCH_SIZE, String.valueOf(best.BATCH_SIZE));
+        profile.setProperty(Configuration.TRAINING_KERNEL, best.KERNEL);
+        profile.setProperty(Configuration.TRAINING_PRODUCER_THREADS, String.valueOf(best.PRODUCER_THREADS));
+        profile.setProperty(Configuration.PARALLEL_COMPUTE, String.valueOf(parallelCompute));
+        profile.setProperty(Configuration.RECOGNIZER_THREADS, String.valueOf(bestRecognizerThreads));
+        try (FileWriter writer = new FileWriter(Configuration.TUNING_PROFILE)) {
+            profile.store(writer, "Measured by Autotuner on a machine with " + processors + " processors, delete this file to use config.properties only");
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        try (FileWriter writer = new FileWriter("Autotune Report.txt")) {
+            writer.write(report.toString());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        System.out.println("Saved the tuning profile to " + Configuration.TUNING_PROFILE.getAbsolutePath() + ".");
+    }
+
+    /**
+     * @return The 99th percentile latency of single images in microseconds.
+     */
+    private static double measureLatency(Network network, double[][] images, double seconds) {
+        List<Long> latencies = new ArrayList<>();
+        long warmUpEnd = System.nanoTime() + (long) (seconds * WARM_UP_SHARE * 1e9);
+        long end = warmUpEnd + (long) (seconds * (1 - WARM_UP_SHARE) * 1e9);
+        for (int i = 0; System.nanoTime() < end; i = (i + 1) % images.length) {
+            long start = System.nanoTime();
+            network.getProbabilities(images[i]);
+            if (start >= warmUpEnd) {
+                latencies.add(System.nanoTime() - start);
+            }
+        }
+        Collections.sort(latencies);
+        return latencies.get((int) Math.ceil(latencies.size() * 0.99) - 1) / 1000.0d;
+    }
+
+    /**
+     * @return The number of images per second the given number of threads evaluate together in batches like {@link main.BatchRecognizer}.
+     */
+    private static double measureThroughput(Network network, double[][] images, int threads, double seconds) throws InterruptedException {
+        long[] evaluatedImages = new long[threads];
+        long warmUpEnd = System.nanoTime() + (long) (seconds * WARM_UP_SHARE * 1e9);
+        long end = warmUpEnd + (long) (seconds * (1 - WARM_UP_SHARE) * 1e9);
+        List<Thread> workers = new ArrayList<>();
+        int batchSize = Math.min(BatchRecognizer.DEFAULT_BATCH_SIZE, images.length);
+        for (int t = 0; t < threads; t++) {
+            int worker = t;
+            Thread thread = new Thread(() -> {
+                double[][] batch = new double[batchSize][];
+                for (int i = worker * batchSize % images.length; System.nanoTime() < end; ) {
+                    for (int s = 0; s < batchSize; s++, i = (i + 1) % images.length) {
+                        batch[s] = images[i];
+                    }
+                    network.evaluate(batch, 1);
+                    if (System.nanoTime() >= warmUpEnd) {
+                        evaluatedImages[worker] += batchSize;
+                    }
+                }
+            }, "autotune worker " + t);
+            thread.start();
+            workers.add(thread);
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        return Arrays.stream(evaluatedImages).sum() / (seconds * (1 - WARM_UP_SHARE));
+    }
+
+    /**
+     * A combination of training settings and what has been measured for it.
+     */
+    private static class Trial {
+
+        private final int BATCH_SIZE;
+        private final String KERNEL;
+        private final int PRODUCER_THREADS;
+        private final Network NETWORK;
+
+        private double throughput;
+        private double accuracy;
+
+        private Trial(int batchSize, String kernel, int producerThreads, Network network) {
+            BATCH_SIZE = batchSize;
+            KERNEL = kernel;
+            PRODUCER_THREADS = producerThreads;
+            NETWORK = network;
+        }
+
+        /**
+         * Trains the network for the given time, going through as many epochs as it takes, and validates it afterwards.
+         */
+        private void run(LinkedHashMap<double[], Character> trainingData, LinkedHashMap<double[], Character> validationData, double seconds, long seed) {
+            long trainedImages = 0;
+            long warmUpEnd = System.nanoTime() + (long) (seconds * WARM_UP_SHARE * 1e9);
+            long end = warmUpEnd + (long) (seconds * (1 - WARM_UP_SHARE) * 1e9);
+            try (BatchProducer batchProducer = new BatchProducer(trainingData, BATCH_SIZE, Augmentation.DEFAULT, seed, PRODUCER_THREADS)) {
+                training:
+                for (int epoch = 0; ; epoch++) {
+                    for (BatchProducer.Batch batch : batchProducer.getEpoch(epoch)) {
+                        if (System.nanoTime() >= end) break training;
+                        NETWORK.fineTune(List.of(batch));
+                        if (System.nanoTime() >= warmUpEnd) {
+                            trainedImages += batch.size();
+                        }
+                    }
+                }
+            }
+            throughput = trainedImages / (seconds * (1 - WARM_UP_SHARE));
+            accuracy = Benchmark.run(image -> NETWORK.evaluate(image).getKey(), validationData).getAccuracy();
+        }
+    }
+}
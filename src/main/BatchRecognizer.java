@@ -0,0 +1,243 @@
+package main;
+
+import filehandling.Configuration;
+import filehandling.FileHandler;
+import network.Network;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.stream.Stream;
+
+/**
+ * Recognizes the characters of many image files without opening any window and streams the results to a CSV or JSON Lines file.
+ * <p>
+ * Usage: {@code BatchRecognizer <model file> <output file (.csv or .jsonl)> <image file, folder or @file list>... [--top k] [--threads n] [--batch n]}.
+ * Without {@code --threads} the number of threads measured by {@link main.Autotuner} is used, or all processors if there is no tuning profile.
+ * Folders are searched recursively. Files are decoded and compressed on several threads and the images of every batch are evaluated in a single pass
+ * through the network, see {@link network.Network#evaluate(double[][], int)},
+ * and only a bounded number of batches is in flight at any time, so memory usage does not depend on the number of files.
+ */
+public class BatchRecognizer {
+
+    private static final int DEFAULT_TOP_K = 3;
+    static final int DEFAULT_BATCH_SIZE = 64;
+
+    /**
+     * Marks the end of the paths for the worker threads.
+     */
+    private static final List<Path> END_OF_PATHS = new ArrayList<>();
+
+    /**
+     * Marks that a worker thread has finished for the writer.
+     */
+    private static final List<String> END_OF_RESULTS = new ArrayList<>();
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        System.setProperty("java.awt.headless", "true");
+
+        int topK = DEFAULT_TOP_K;
+        int threads = Configuration.getInt(Configuration.RECOGNIZER_THREADS, Runtime.getRuntime().availableProcessors());
+        int batchSize = DEFAULT_BATCH_SIZE;
+        List<String> positionalArguments = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--top" -> topK = Integer.parseInt(args[++i]);
+                case "--threads" -> threads = Integer.parseInt(args[++i]);
+                case "--batch" -> batchSize = Integer.parseInt(args[++i]);
+                default -> positionalArguments.add(args[i]);
+            }
+        }
+        if (positionalArguments.size() < 3) {
+            System.out.println("Usage: BatchRecognizer <model file> <output file (.csv or .jsonl)> <image file, folder or @file list>... [--top k] [--threads n] [--batch n]");
+            return;
+        }
+
+        Network network = Network.load(new File(positionalArguments.get(0)));
+        File outputFile = new File(positionalArguments.get(1));
+        boolean jsonLines = outputFile.getName().endsWith(".jsonl");
+        List<String> inputs = positionalArguments.subList(2, positionalArguments.size());
+
+        BlockingQueue<List<Path>> pathBatches = new ArrayBlockingQueue<>(2 * threads);
+        BlockingQueue<List<String>> resultBatches = new ArrayBlockingQueue<>(2 * threads);
+
+        //start the worker threads, they share the network since evaluating batches doesn't change it
+        FileHandler fileHandler = new FileHandler(network.getImageResolution());
+        for (int t = 0; t < threads; t++) {
+            int finalTopK = topK;
+            Thread worker = new Thread(() -> recognize(network, fileHandler, finalTopK, jsonLines, pathBatches, resultBatches), "recognizer " + t);
+            worker.setDaemon(true);
+            worker.start();
+        }
+
+        //list the files on a separate thread so that results can be written while files are still being found
+        int finalBatchSize = batchSize;
+        int finalThreads = threads;
+        Thread pathLister = new Thread(() -> listPaths(inputs, finalBatchSize, finalThreads, pathBatches), "path lister");
+        pathLister.setDaemon(true);
+        pathLister.start();
+
+        //write the results as they are finished
+        long start = System.nanoTime();
+        long recognizedFiles = 0;
+        try (BufferedWriter writer = Files.newBufferedWriter(outputFile.toPath(), StandardCharsets.UTF_8)) {
+            if (!jsonLines) {
+                StringBuilder header = new StringBuilder("path");
+                for (int k = 1; k <= topK; k++) {
+                    header.append(",label").append(k).append(",probability").append(k);
+                }
+                writer.write(header.append('\n').toString());
+            }
+
+            int finishedWorkers = 0;
+            while (finishedWorkers < threads) {
+                List<String> results = resultBatches.take();
+                if (results == END_OF_RESULTS) {
+                    finishedWorkers++;
+                    continue;
+                }
+                for (String result : results) {
+                    writer.write(result);
+                    writer.write('\n');
+                }
+                recognizedFiles += results.size();
+            }
+        }
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.println("Recognized " + recognizedFiles + " files in " + Math.round(seconds * 100) / 100.0 + "s (" + Math.round(recognizedFiles / seconds) + " files/s).");
+    }
+
+    /**
+     * Puts the paths of all files of the inputs into batches, followed by an end marker for every worker thread.
+     */
+    private static void listPaths(List<String> inputs, int batchSize, int threads, BlockingQueue<List<Path>> pathBatches) {
+        try {
+            List<Path> batch = new ArrayList<>(batchSize);
+            for (String input : inputs) {
+                //either a file listing one path per line or a file or folder
+                try (Stream<Path> paths = input.startsWith("@") ? Files.lines(Paths.get(input.substring(1))).filter(line -> !line.isBlank()).map(Paths::get) : Files.walk(Paths.get(input))) {
+                    for (Path path : (Iterable<Path>) paths.filter(Files::isRegularFile)::iterator) {
+                        batch.add(path);
+                        if (batch.size() == batchSize) {
+                            pathBatches.put(batch);
+                            batch = new ArrayList<>(batchSize);
+                        }
+                    }
+                } catch (IOException | UncheckedIOException e) {
+                    e.printStackTrace();
+                    System.out.println("Could not list the files of " + input + ", continuing with the other inputs...");
+                }
+            }
+            if (!batch.isEmpty()) {
+                pathBatches.put(batch);
+            }
+            for (int t = 0; t < threads; t++) {
+                pathBatches.put(END_OF_PATHS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Decodes, compresses and evaluates batches of files until the end marker is reached.
+     */
+    private static void recognize(Network network, FileHandler fileHandler, int topK, boolean jsonLines, BlockingQueue<List<Path>> pathBatches, BlockingQueue<List<String>> resultBatches) {
+        try {
+            while (true) {
+                List<Path> batch = pathBatches.take();
+                if (batch == END_OF_PATHS) break;
+
+                List<Path> decodedPaths = new ArrayList<>(batch.size());
+                List<double[]> compressedImages = new ArrayList<>(batch.size());
+                for (Path path : batch) {
+                    double[] compressedImage;
+                    try {
+                        compressedImage = fileHandler.getCompressedImage(path.toFile(), FileHandler.WEIGHTED_BILINEAR_INTERPOLATION);
+                    } catch (IOException e) {
+                        compressedImage = null;
+                    }
+                    if (compressedImage == null) {
+                        System.out.println("Thread " + Thread.currentThread().getName() + " could not read file " + path + ", continuing to recognize other files...");
+                        continue;
+                    }
+
+                    decodedPaths.add(path);
+                    compressedImages.add(compressedImage);
+                }
+
+                //evaluate all decoded files of the batch in a single pass through the network
+                List<List<Map.Entry<Character, Double>>> predictions = compressedImages.isEmpty() ? List.of() : network.evaluate(compressedImages.toArray(double[][]::new), topK);
+                List<String> results = new ArrayList<>(decodedPaths.size());
+                for (int i = 0; i < decodedPaths.size(); i++) {
+                    results.add(jsonLines ? toJsonLine(decodedPaths.get(i), predictions.get(i)) : toCsvLine(decodedPaths.get(i), predictions.get(i)));
+                }
+                resultBatches.put(results);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        } finally {
+            try {
+                resultBatches.put(END_OF_RESULTS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static String toCsvLine(Path path, List<Map.Entry<Character, Double>> predictions) {
+        StringBuilder line = new StringBuilder(toCsvValue(path.toString()));
+        for (Map.Entry<Character, Double> prediction : predictions) {
+            line.append(',').append(toCsvValue(String.valueOf(prediction.getKey()))).append(',').append(prediction.getValue());
+        }
+        return line.toString();
+    }
+
+    private static String toCsvValue(String value) {
+        if (value.contains(",") || value.contains("\"") || value.contains("\n")) {
+            return '"' + value.replace("\"", "\"\"") + '"';
+        }
+        return value;
+    }
+
+    private static String toJsonLine(Path path, List<Map.Entry<Character, Double>> predictions) {
+        StringBuilder line = new StringBuilder("{\"path\":").append(toJsonString(path.toString())).append(",\"predictions\":[");
+        for (int i = 0; i < predictions.size(); i++) {
+            if (i > 0) line.append(',');
+            line.append("{\"label\":").append(toJsonString(String.valueOf(predictions.get(i).getKey())))
+                    .append(",\"probability\":").append(predictions.get(i).getValue()).append('}');
+        }
+        return line.append("]}").toString();
+    }
+
+    private static String toJsonString(String value) {
+        StringBuilder string = new StringBuilder("\"");
+        for (char c : value.toCharArray()) {
+            switch (c) {
+                case '"' -> string.append("\\\"");
+                case '\\' -> string.append("\\\\");
+                case '\n' -> string.append("\\n");
+                case '\r' -> string.append("\\r");
+                case '\t' -> string.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        string.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        string.append(c);
+                    }
+                }
+            }
+        }
+        return string.append('"').toString();
+    }
+}
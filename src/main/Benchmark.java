@@ -0,0 +1,68 @@
+package main;
+
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Accuracy and average latency of a classifier on labelled images.
+ */
+public class Benchmark {
+
+    /**
+     * Number of images classified before measuring so that the measurement isn't skewed by the JIT compiler.
+     */
+    private static final int WARM_UP_IMAGES = 1000;
+
+    private final double ACCURACY;
+    private final double AVERAGE_LATENCY;
+
+    private Benchmark(double accuracy, double averageLatency) {
+        ACCURACY = accuracy;
+        AVERAGE_LATENCY = averageLatency;
+    }
+
+    /**
+     * @param classifier Returns the recognized character for an image.
+     * @param testData The images and their correct labels.
+     * @return The accuracy and average latency of the classifier on the given data.
+     */
+    public static Benchmark run(Function<double[], Character> classifier, Map<double[], Character> testData) {
+        if (testData.isEmpty()) throw new IllegalArgumentException("There is no data to run the benchmark on.");
+
+        int warmUpImages = 0;
+        for (double[] image : testData.keySet()) {
+            if (warmUpImages++ == WARM_UP_IMAGES) break;
+            classifier.apply(image);
+        }
+
+        int successfulPairs = 0;
+        long start = System.nanoTime();
+        for (Map.Entry<double[], Character> testPair : testData.entrySet()) {
+            if (classifier.apply(testPair.getKey()) == testPair.getValue().charValue()) {
+                successfulPairs++;
+            }
+        }
+        long duration = System.nanoTime() - start;
+
+        return new Benchmark((double) successfulPairs / testData.size(), duration / 1000.0d / testData.size());
+    }
+
+    /**
+     * @return The share of correctly recognized images.
+     */
+    public double getAccuracy() {
+        return ACCURACY;
+    }
+
+    /**
+     * @return The average time needed for a single image in microseconds.
+     */
+    public double getAverageLatency() {
+        return AVERAGE_LATENCY;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%.2f%% accuracy, %.1fµs per image", ACCURACY * 100, AVERAGE_LATENCY);
+    }
+}
@@ -0,0 +1,103 @@
+package main;
+
+import filehandling.FileHandler;
+import network.Cascade;
+import network.Network;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Finds the lowest threshold for a {@link network.Cascade} of a fast and a full network whose accuracy is at most the given amount below the full network's,
+ * and reports the escalation rate, accuracy and latency of the cascade for it and a few fixed thresholds.
+ * <p>
+ * Usage: {@code CascadeCalibrator <fast model file> <full model file> <validation data folder> [maximum accuracy loss, default 0.005]},
+ * e.g. {@code CascadeCalibrator "network pruned 90.ser" network.ser validation 0.01} with a model written by {@link main.Pruner}.
+ */
+public class CascadeCalibrator {
+
+    private static final double DEFAULT_MAX_ACCURACY_LOSS = 0.005;
+    private static final double[] REPORTED_THRESHOLDS = {0.5, 0.7, 0.8, 0.9, 0.95, 0.99};
+
+    public static void main(String[] args) throws InterruptedException {
+        if (args.length < 3) {
+            System.out.println("Usage: CascadeCalibrator <fast model file> <full model file> <validation data folder> [maximum accuracy loss]");
+            return;
+        }
+
+        Network fastNetwork = Network.load(new File(args[0]));
+        Network fullNetwork = Network.load(new File(args[1]));
+        double maxAccuracyLoss = args.length > 3 ? Double.parseDouble(args[3]) : DEFAULT_MAX_ACCURACY_LOSS;
+        FileHandler fileHandler = new FileHandler(fullNetwork.getImageResolution());
+        fileHandler.loadFiles(new File(args[2]));
+        LinkedHashMap<double[], Character> validationData = fileHandler.getTrainingData();
+
+        //evaluate every image with both networks once
+        int size = validationData.size();
+        double[] fastCertainties = new double[size];
+        boolean[] fastCorrect = new boolean[size];
+        boolean[] fullCorrect = new boolean[size];
+        int fullSuccessfulPairs = 0;
+        int i = 0;
+        for (Map.Entry<double[], Character> validationPair : validationData.entrySet()) {
+            Map.Entry<Character, Double> fastPrediction = fastNetwork.evaluate(validationPair.getKey());
+            fastCertainties[i] = fastPrediction.getValue();
+            fastCorrect[i] = fastPrediction.getKey().equals(validationPair.getValue());
+            fullCorrect[i] = fullNetwork.evaluate(validationPair.getKey()).getKey().equals(validationPair.getValue());
+            if (fullCorrect[i]) fullSuccessfulPairs++;
+            i++;
+        }
+        double fullAccuracy = (double) fullSuccessfulPairs / size;
+
+        //go through the images by increasing certainty, escalating one more of them at every step
+        Integer[] order = new Integer[size];
+        Arrays.setAll(order, index -> index);
+        Arrays.sort(order, Comparator.comparingDouble(index -> fastCertainties[index]));
+        int successfulPairs = 0;
+        for (boolean correct : fastCorrect) {
+            if (correct) successfulPairs++;
+        }
+        double threshold = 0;
+        int escalatedImages = 0;
+        for (int escalated = 0; escalated <= size; escalated++) {
+            //only thresholds between different certainties can be told apart
+            boolean tied = escalated > 0 && escalated < size && fastCertainties[order[escalated]] == fastCertainties[order[escalated - 1]];
+            if (!tied && (double) successfulPairs / size >= fullAccuracy - maxAccuracyLoss) {
+                threshold = escalated == 0 ? 0 : (escalated == size ? Math.nextUp(fastCertainties[order[size - 1]]) : fastCertainties[order[escalated]]);
+                escalatedImages = escalated;
+                break;
+            }
+            if (escalated < size) {
+                int index = order[escalated];
+                successfulPairs += (fullCorrect[index] ? 1 : 0) - (fastCorrect[index] ? 1 : 0);
+            }
+        }
+        System.out.println("Calibrated threshold: " + threshold + " (" + Math.round(10000.0 * escalatedImages / size) / 100.0 + "% escalated)");
+
+        //measure the networks and the cascade
+        StringBuilder report = new StringBuilder("Cascade Report:\nMaximum accuracy loss: " + maxAccuracyLoss * 100 + "%\nCalibrated threshold: " + threshold + "\n");
+        report.append("Classifier | Escalation rate | Accuracy | Latency\n");
+        Benchmark fullBenchmark = Benchmark.run(image -> fullNetwork.evaluate(image).getKey(), validationData);
+        report.append(String.format("full network | 100.00%% | %.2f%% | %.1fµs\n", fullBenchmark.getAccuracy() * 100, fullBenchmark.getAverageLatency()));
+        Benchmark fastBenchmark = Benchmark.run(image -> fastNetwork.evaluate(image).getKey(), validationData);
+        report.append(String.format("fast network | 0.00%% | %.2f%% | %.1fµs\n", fastBenchmark.getAccuracy() * 100, fastBenchmark.getAverageLatency()));
+
+        double[] thresholds = Arrays.copyOf(REPORTED_THRESHOLDS, REPORTED_THRESHOLDS.length + 1);
+        thresholds[REPORTED_THRESHOLDS.length] = threshold;
+        for (double reportedThreshold : thresholds) {
+            Cascade cascade = new Cascade(fastNetwork, fullNetwork, reportedThreshold);
+            Benchmark benchmark = Benchmark.run(image -> cascade.evaluate(image).getKey(), validationData);
+            report.append(String.format("cascade (threshold %s)%s | %.2f%% | %.2f%% | %.1fµs\n", reportedThreshold, reportedThreshold == threshold ? " (calibrated)" : "",
+                    cascade.getEscalationRate() * 100, benchmark.getAccuracy() * 100, benchmark.getAverageLatency()));
+        }
+        System.out.print(report);
+
+        try (FileWriter writer = new FileWriter("Cascade Report.txt")) {
+            writer.write(report.toString());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package main;
+
+import filehandling.Configuration;
+import filehandling.FileHandler;
+import network.GradientCompression;
+import network.Network;
+import network.ParameterServer;
+import network.ParameterWorker;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Trains a network with several worker processes, each holding only its shard of the data, see {@link network.ParameterServer}.
+ * <p>
+ * Usage:
+ * <ul>
+ *     <li>{@code DistributedTraining coordinator [options]} waits for the workers on {@code --port} and saves the trained network.</li>
+ *     <li>{@code DistributedTraining worker [data] [--host localhost] [--port 7070]} trains on a shard of the data, by default {@code training.data} from {@link filehandling.Configuration}.</li>
+ *     <li>{@code DistributedTraining local [data] [--workers 1,2,4] [options]} trains once for every number of workers, each started as its own JVM on this machine,
+ *     and writes the throughput of every run to "Distributed Training Report.txt".</li>
+ * </ul>
+ * Options: {@code [--port 7070] [--workers n] [--rounds 50] [--batches-per-round 5] [--async] [--compression none|float|top_k] [--top-k 0.01]
+ * [--hidden-layers 128,64] [--learning-rate 0.01] [--batch-size 100] [--test data] [--seed s]}.
+ * Every worker trains on {@code --batches-per-round} batches per round, so more workers train on more images in the same number of rounds.
+ */
+public class DistributedTraining {
+
+    private static final String USAGE = "Usage: DistributedTraining coordinator|worker|local [data] [--host localhost] [--port 7070] [--workers n] [--rounds 50] [--batches-per-round 5] [--async] "
+            + "[--compression none|float|top_k] [--top-k 0.01] [--hidden-layers 128,64] [--learning-rate 0.01] [--batch-size 100] [--test data] [--seed s]";
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length == 0) {
+            System.out.println(USAGE);
+            return;
+        }
+
+        String host = "localhost";
+        int port = 7070;
+        int[] workerCounts = {1};
+        int rounds = 50;
+        int batchesPerRound = 5;
+        boolean asynchronous = false;
+        GradientCompression compression = GradientCompression.NONE;
+        double topKShare = 0.01;
+        int[] hiddenLayerSizes = {128, 64};
+        double learningRate = 0.01;
+        int batchSize = 100;
+        File testData = null;
+        long seed = 0;
+        File data = null;
+        for (int i = 1; i < args.length; i++) {
+            switch (args[i]) {
+                case "--host" -> host = args[++i];
+                case "--port" -> port = Integer.parseInt(args[++i]);
+                case "--workers" -> workerCounts = Arrays.stream(args[++i].split(",")).mapToInt(Integer::parseInt).toArray();
+                case "--rounds" -> rounds = Integer.parseInt(args[++i]);
+                case "--batches-per-round" -> batchesPerRound = Integer.parseInt(args[++i]);
+                case "--async" -> asynchronous = true;
+                case "--compression" -> compression = GradientCompression.valueOf(args[++i].toUpperCase());
+                case "--top-k" -> topKShare = Double.parseDouble(args[++i]);
+                case "--hidden-layers" -> hiddenLayerSizes = args[++i].equals("none") ? new int[0] : Arrays.stream(args[i].split(",")).mapToInt(Integer::parseInt).toArray();
+                case "--learning-rate" -> learningRate = Double.parseDouble(args[++i]);
+                case "--batch-size" -> batchSize = Integer.parseInt(args[++i]);
+                case "--test" -> testData = new File(args[++i]);
+                case "--seed" -> seed = Long.parseLong(args[++i]);
+                default -> data = new File(args[i]);
+            }
+        }
+
+        int imageSize = FileHandler.DEFAULT_IMAGE_RESOLUTION * FileHandler.DEFAULT_IMAGE_RESOLUTION;
+        switch (args[0]) {
+            case "worker" -> new ParameterWorker(host, port, data != null ? data : Configuration.getFile(Configuration.TRAINING_DATA)).run();
+            case "coordinator" -> {
+                Network network = new Network(learningRate, batchSize, imageSize, 62, hiddenLayerSizes);
+                try (ParameterServer server = new ParameterServer(network, port, workerCounts[0], rounds, batchesPerRound, asynchronous, compression, topKShare, seed)) {
+                    System.out.println("Waiting for " + workerCounts[0] + " workers on port " + server.getPort() + ".");
+                    server.run();
+                    String result = describe(server, workerCounts[0], testData, network);
+                    System.out.println(result);
+                }
+                network.foldBatchNormalization();
+                network.save(new File("network distributed.ser"));
+            }
+            case "local" -> {
+                if (data == null) data = Configuration.getFile(Configuration.TRAINING_DATA);
+                //every run starts from the same parameters
+                Network initialNetwork = new Network(learningRate, batchSize, imageSize, 62, hiddenLayerSizes);
+                StringBuilder report = new StringBuilder("Distributed Training Report:\nRounds: " + rounds + "\nBatches per round: " + batchesPerRound
+                        + "\nMode: " + (asynchronous ? "asynchronous" : "synchronous") + "\nCompression: " + compression + (compression == GradientCompression.TOP_K ? " (" + topKShare + ")" : "")
+                        + "\nWorkers | Images | Time | Throughput | Speedup | Received | Accuracy\n");
+                double singleWorkerThroughput = 0;
+                Network network = null;
+                for (int workers : workerCounts) {
+                    network = initialNetwork.copy();
+                    try (ParameterServer server = new ParameterServer(network, 0, workers, rounds, batchesPerRound, asynchronous, compression, topKShare, seed)) {
+                        List<Process> processes = startWorkers(workers, server.getPort(), data);
+                        try {
+                            server.run();
+                        } finally {
+                            for (Process process : processes) {
+                                if (!process.waitFor(10, TimeUnit.SECONDS)) process.destroy();
+                            }
+                        }
+                        double throughput = server.getTrainedImages() / (server.getTrainingTime() / 1e9d);
+                        if (singleWorkerThroughput == 0) singleWorkerThroughput = throughput;
+                        String line = String.format("%d | %d | %.2fs | %.0f images/s | %.2f | %.2fMB | %s", workers, server.getTrainedImages(), server.getTrainingTime() / 1e9d,
+                                throughput, throughput / singleWorkerThroughput, server.getReceivedBytes() / 1e6d, getAccuracy(network, testData != null ? testData : data));
+                        System.out.println(line);
+                        report.append(line).append('\n');
+                    }
+                }
+                if (testData == null) report.append("The accuracy is measured on the training data.\n");
+
+                try (FileWriter writer = new FileWriter("Distributed Training Report.txt")) {
+                    writer.write(report.toString());
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+                network.foldBatchNormalization();
+                network.save(new File("network distributed.ser"));
+            }
+            default -> System.out.println(USAGE);
+        }
+    }
+
+    /**
+     * Starts the given number of workers as separate JVMs with the class path of this one.
+     */
+    private static List<Process> startWorkers(int workers, int port, File data) throws IOException {
+        String java = new File(System.getProperty("java.home"), "bin" + File.separator + "java").getPath();
+        List<Process> processes = new ArrayList<>();
+        for (int w = 0; w < workers; w++) {
+            ProcessBuilder processBuilder = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), DistributedTraining.class.getName(),
+                    "worker", data.getPath(), "--port", String.valueOf(port));
+            //the server reports the progress, the workers only report failures
+            processBuilder.redirectOutput(ProcessBuilder.Redirect.DISCARD);
+            processBuilder.redirectError(ProcessBuilder.Redirect.INHERIT);
+            processes.add(processBuilder.start());
+        }
+        return processes;
+    }
+
+    private static String describe(ParameterServer server, int workers, File testData, Network network) throws InterruptedException {
+        return String.format("%d workers trained on %d images in %.2fs (%.0f images/s), receiving %.2fMB. Accuracy: %s", workers, server.getTrainedImages(), server.getTrainingTime() / 1e9d,
+                server.getTrainedImages() / (server.getTrainingTime() / 1e9d), server.getReceivedBytes() / 1e6d, testData != null ? getAccuracy(network, testData) : "not tested");
+    }
+
+    private static String getAccuracy(Network network, File testData) throws InterruptedException {
+        FileHandler fileHandler = new FileHandler(network.getImageResolution());
+        fileHandler.loadFiles(testData);
+        LinkedHashMap<double[], Character> data = fileHandler.getTrainingData();
+        return String.format("%.2f%%", Benchmark.run(image -> network.evaluate(image).getKey(), data).getAccuracy() * 100);
+    }
+}
@@ -0,0 +1,63 @@
+package main;
+
+import filehandling.FileHandler;
+import network.Ensemble;
+import network.Network;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Reports accuracy and latency of ensembles of the first 1 to N of the given models, combined by averaging and by voting, against the first model alone.
+ * <p>
+ * Usage: {@code EnsembleBenchmark <test data folder> <model file>...}, e.g. {@code EnsembleBenchmark test network.ser "network 1.ser" "network 2.ser"}.
+ */
+public class EnsembleBenchmark {
+
+    public static void main(String[] args) throws InterruptedException {
+        if (args.length < 2) {
+            System.out.println("Usage: EnsembleBenchmark <test data folder> <model file>...");
+            return;
+        }
+
+        List<Network> networks = new ArrayList<>();
+        for (int i = 1; i < args.length; i++) {
+            networks.add(Network.load(new File(args[i])));
+        }
+
+        FileHandler fileHandler = new FileHandler(networks.get(0).getImageResolution());
+        fileHandler.loadFiles(new File(args[0]));
+        LinkedHashMap<double[], Character> testData = fileHandler.getTrainingData();
+
+        Network singleNetwork = networks.get(0);
+        Benchmark singleBenchmark = Benchmark.run(image -> singleNetwork.evaluate(image).getKey(), testData);
+
+        StringBuilder report = new StringBuilder("Ensemble Report:\nModels | Combination | Threads | Accuracy | Latency | Latency cost\n");
+        report.append(String.format("1 | none | 1 | %.2f%% | %.1fµs | 1.00x\n", singleBenchmark.getAccuracy() * 100, singleBenchmark.getAverageLatency()));
+        System.out.print(report);
+
+        for (int size = 2; size <= networks.size(); size++) {
+            for (Ensemble.CombinationMethod combinationMethod : Ensemble.CombinationMethod.values()) {
+                for (boolean parallel : new boolean[]{false, true}) {
+                    try (Ensemble ensemble = new Ensemble(networks.subList(0, size), combinationMethod, parallel)) {
+                        Benchmark benchmark = Benchmark.run(image -> ensemble.evaluate(image).getKey(), testData);
+                        String line = String.format("%d | %s | %d | %.2f%% | %.1fµs | %.2fx", size, combinationMethod.name().toLowerCase(), parallel ? size : 1,
+                                benchmark.getAccuracy() * 100, benchmark.getAverageLatency(), benchmark.getAverageLatency() / singleBenchmark.getAverageLatency());
+                        System.out.println(line);
+                        report.append(line).append('\n');
+                    }
+                }
+            }
+        }
+
+        try (FileWriter writer = new FileWriter("Ensemble Report.txt")) {
+            writer.write(report.toString());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
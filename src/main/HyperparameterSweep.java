@@ -0,0 +1,266 @@
+package main;
+
+import filehandling.FileHandler;
+import network.BatchProducer;
+import network.Network;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Trains networks with different hyperparameters concurrently on one shared copy of the data and writes a leaderboard of their validation accuracy.
+ * <p>
+ * Usage: {@code HyperparameterSweep <training data folder> [--learning-rates 0.001,0.01,0.1] [--batch-sizes 50,100] [--hidden-layers none;64;128,64]
+ * [--resolutions 16,32] [--batch-normalization false,true] [--random n] [--epochs n] [--threads n] [--validation share] [--patience n] [--seed s]}.
+ * Without {@code --random} every combination is trained, otherwise n random ones, with learning rates drawn log-uniformly between the smallest and largest given one.
+ * At most {@code --threads} networks train at the same time. A network stops early once its validation accuracy hasn't improved for {@code --patience} epochs
+ * or its best validation accuracy is below the median of the other networks after the same number of epochs.
+ * The data is loaded once for every image resolution, and the leaderboard lists the latency of every network next to its accuracy to weigh smaller inputs against their accuracy.
+ */
+public class HyperparameterSweep {
+
+    /**
+     * Number of networks that have to reach an epoch before the median of their validation accuracies is used to stop others.
+     */
+    private static final int MIN_CURVES_FOR_MEDIAN = 3;
+
+    /**
+     * Number of epochs a network trains before it can be stopped for being below the median.
+     */
+    private static final int MIN_EPOCHS = 2;
+
+    /**
+     * Validation accuracy of every network after every epoch, shared by all training threads.
+     */
+    private static final Map<Integer, List<Double>> VALIDATION_CURVES = new HashMap<>();
+
+    public static void main(String[] args) throws InterruptedException {
+        double[] learningRates = {0.001, 0.01, 0.1};
+        int[] batchSizes = {100};
+        List<int[]> hiddenLayers = List.of(new int[0]);
+        int[] resolutions = {FileHandler.DEFAULT_IMAGE_RESOLUTION};
+        boolean[] batchNormalizations = {false};
+        int randomCandidates = 0;
+        int epochs = 10;
+        int threads = Runtime.getRuntime().availableProcessors();
+        double validationShare = 0.1;
+        int patience = 2;
+        long seed = 0;
+        String folder = null;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--learning-rates" -> learningRates = Arrays.stream(args[++i].split(",")).mapToDouble(Double::parseDouble).toArray();
+                case "--batch-sizes" -> batchSizes = Arrays.stream(args[++i].split(",")).mapToInt(Integer::parseInt).toArray();
+                case "--hidden-layers" -> hiddenLayers = Arrays.stream(args[++i].split(";"))
+                        .map(sizes -> sizes.equals("none") ? new int[0] : Arrays.stream(sizes.split(",")).mapToInt(Integer::parseInt).toArray())
+                        .toList();
+                case "--resolutions" -> resolutions = Arrays.stream(args[++i].split(",")).mapToInt(Integer::parseInt).toArray();
+                case "--batch-normalization" -> {
+                    String[] values = args[++i].split(",");
+                    batchNormalizations = new boolean[values.length];
+                    for (int v = 0; v < values.length; v++) {
+                        batchNormalizations[v] = Boolean.parseBoolean(values[v]);
+                    }
+                }
+                case "--random" -> randomCandidates = Integer.parseInt(args[++i]);
+                case "--epochs" -> epochs = Integer.parseInt(args[++i]);
+                case "--threads" -> threads = Integer.parseInt(args[++i]);
+                case "--validation" -> validationShare = Double.parseDouble(args[++i]);
+                case "--patience" -> patience = Integer.parseInt(args[++i]);
+                case "--seed" -> seed = Long.parseLong(args[++i]);
+                default -> folder = args[i];
+            }
+        }
+        if (folder == null) {
+            System.out.println("Usage: HyperparameterSweep <training data folder> [--learning-rates 0.001,0.01,0.1] [--batch-sizes 50,100] [--hidden-layers none;64;128,64] [--resolutions 16,32] [--batch-normalization false,true] [--random n] [--epochs n] [--threads n] [--validation share] [--patience n] [--seed s]");
+            return;
+        }
+
+        //load the data once per resolution, all networks only read it
+        Map<Integer, LinkedHashMap<double[], Character>> trainingData = new HashMap<>();
+        Map<Integer, LinkedHashMap<double[], Character>> validationData = new HashMap<>();
+        for (int resolution : resolutions) {
+            if (trainingData.containsKey(resolution)) continue;
+            FileHandler fileHandler = new FileHandler(resolution);
+            fileHandler.loadFiles(new File(folder));
+            List<Map.Entry<double[], Character>> data = new ArrayList<>(fileHandler.getTrainingData().entrySet());
+            Collections.shuffle(data, new Random(seed));
+            int validationSize = (int) (data.size() * validationShare);
+            if (validationSize == 0 || validationSize == data.size()) throw new IllegalArgumentException("Neither the validation nor the training data may be empty.");
+            trainingData.put(resolution, new LinkedHashMap<>());
+            validationData.put(resolution, new LinkedHashMap<>());
+            for (int i = 0; i < data.size(); i++) {
+                (i < validationSize ? validationData : trainingData).get(resolution).put(data.get(i).getKey(), data.get(i).getValue());
+            }
+        }
+
+        //create the candidates
+        List<Candidate> candidates = new ArrayList<>();
+        if (randomCandidates > 0) {
+            Random random = new Random(seed);
+            double minLearningRate = Arrays.stream(learningRates).min().orElseThrow();
+            double maxLearningRate = Arrays.stream(learningRates).max().orElseThrow();
+            for (int i = 0; i < randomCandidates; i++) {
+                double learningRate = Math.exp(Math.log(minLearningRate) + random.nextDouble() * (Math.log(maxLearningRate) - Math.log(minLearningRate)));
+                candidates.add(new Candidate(learningRate, batchSizes[random.nextInt(batchSizes.length)], hiddenLayers.get(random.nextInt(hiddenLayers.size())),
+                        resolutions[random.nextInt(resolutions.length)], batchNormalizations[random.nextInt(batchNormalizations.length)]));
+            }
+        } else {
+            for (double learningRate : learningRates) {
+                for (int batchSize : batchSizes) {
+                    for (int[] hiddenLayerSizes : hiddenLayers) {
+                        for (int resolution : resolutions) {
+                            for (boolean batchNormalization : batchNormalizations) {
+                                candidates.add(new Candidate(learningRate, batchSize, hiddenLayerSizes, resolution, batchNormalization));
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        System.out.println("Training " + candidates.size() + " networks on " + trainingData.get(resolutions[0]).size() + " images, " + threads + " at a time, validating on " + validationData.get(resolutions[0]).size() + " images.");
+
+        //train the candidates, at most one per thread at a time
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        for (int i = 0; i < candidates.size(); i++) {
+            Candidate candidate = candidates.get(i);
+            long candidateSeed = seed + i;
+            int finalEpochs = epochs;
+            int finalPatience = patience;
+            executor.submit(() -> {
+                try {
+                    candidate.train(trainingData.get(candidate.IMAGE_RESOLUTION), validationData.get(candidate.IMAGE_RESOLUTION), finalEpochs, finalPatience, candidateSeed);
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                    candidate.stopReason = "failed: " + e;
+                }
+            });
+        }
+        executor.shutdown();
+        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+
+        //write the leaderboard and keep the best network
+        candidates.sort(Comparator.comparingDouble((Candidate candidate) -> candidate.bestAccuracy).reversed());
+        StringBuilder leaderboard = new StringBuilder("Sweep Leaderboard:\nRank | Learning rate | Batch size | Hidden layers | Resolution | Batch normalization | Best validation accuracy | Latency | Best epoch | Epochs trained | Stopped because | Training time\n");
+        for (int i = 0; i < candidates.size(); i++) {
+            Candidate candidate = candidates.get(i);
+            leaderboard.append(String.format("%d | %.5f | %d | %s | %dx%d | %s | %.2f%% | %.1fµs | %d | %d | %s | %.1fs\n", i + 1, candidate.LEARNING_RATE, candidate.BATCH_SIZE,
+                    candidate.HIDDEN_LAYER_SIZES.length == 0 ? "none" : Arrays.toString(candidate.HIDDEN_LAYER_SIZES), candidate.IMAGE_RESOLUTION, candidate.IMAGE_RESOLUTION, candidate.BATCH_NORMALIZATION ? "yes" : "no",
+                    candidate.bestAccuracy * 100, candidate.latency, candidate.bestEpoch, candidate.trainedEpochs, candidate.stopReason, candidate.trainingTime / 1e9));
+        }
+        System.out.print(leaderboard);
+
+        try (FileWriter writer = new FileWriter("Sweep Leaderboard.txt")) {
+            writer.write(leaderboard.toString());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        if (candidates.get(0).network != null) {
+            candidates.get(0).network.foldBatchNormalization();
+            candidates.get(0).network.save(new File("network sweep best.ser"));
+        }
+    }
+
+    /**
+     * @return Whether the accuracy is below the median of the other networks after the epoch, which makes it unlikely to end up among the best ones.
+     */
+    private static boolean isBelowMedian(int epoch, double bestAccuracy, double accuracy) {
+        synchronized (VALIDATION_CURVES) {
+            List<Double> accuracies = VALIDATION_CURVES.computeIfAbsent(epoch, e -> new ArrayList<>());
+            accuracies.add(accuracy);
+            if (epoch < MIN_EPOCHS || accuracies.size() < MIN_CURVES_FOR_MEDIAN) return false;
+
+            List<Double> sortedAccuracies = new ArrayList<>(accuracies);
+            Collections.sort(sortedAccuracies);
+            return bestAccuracy < sortedAccuracies.get(sortedAccuracies.size() / 2);
+        }
+    }
+
+    /**
+     * A combination of hyperparameters and the results of training a network with it.
+     */
+    private static class Candidate {
+
+        private final double LEARNING_RATE;
+        private final int BATCH_SIZE;
+        private final int[] HIDDEN_LAYER_SIZES;
+        private final int IMAGE_RESOLUTION;
+        private final boolean BATCH_NORMALIZATION;
+
+        private Network network;
+        private double bestAccuracy;
+        private int bestEpoch;
+
+        /**
+         * Average time in microseconds to evaluate a validation image with the best network.
+         */
+        private double latency;
+        private int trainedEpochs;
+        private String stopReason = "not trained";
+        private long trainingTime;
+
+        private Candidate(double learningRate, int batchSize, int[] hiddenLayerSizes, int imageResolution, boolean batchNormalization) {
+            LEARNING_RATE = learningRate;
+            BATCH_SIZE = batchSize;
+            HIDDEN_LAYER_SIZES = hiddenLayerSizes;
+            IMAGE_RESOLUTION = imageResolution;
+            BATCH_NORMALIZATION = batchNormalization;
+        }
+
+        private void train(LinkedHashMap<double[], Character> trainingData, LinkedHashMap<double[], Character> validationData, int epochs, int patience, long seed) {
+            long start = System.nanoTime();
+            Network network = new Network(LEARNING_RATE, BATCH_SIZE, IMAGE_RESOLUTION * IMAGE_RESOLUTION, 62, HIDDEN_LAYER_SIZES);
+            if (BATCH_NORMALIZATION) {
+                network.enableBatchNormalization();
+            }
+            stopReason = "finished";
+
+            //a single producer thread is enough without augmentation and keeps the sweep within its thread budget
+            try (BatchProducer batchProducer = new BatchProducer(trainingData, BATCH_SIZE, null, seed, 1)) {
+                for (int epoch = 1; epoch <= epochs; epoch++) {
+                    network.fineTune(batchProducer.getEpoch(epoch));
+                    trainedEpochs = epoch;
+
+                    int successfulPairs = 0;
+                    long validationStart = System.nanoTime();
+                    for (Map.Entry<double[], Character> validationPair : validationData.entrySet()) {
+                        if (network.evaluate(validationPair.getKey()).getKey().equals(validationPair.getValue())) {
+                            successfulPairs++;
+                        }
+                    }
+                    double accuracy = (double) successfulPairs / validationData.size();
+                    double epochLatency = (System.nanoTime() - validationStart) / 1000.0 / validationData.size();
+                    if (accuracy > bestAccuracy) {
+                        bestAccuracy = accuracy;
+                        latency = epochLatency;
+                        bestEpoch = epoch;
+                        this.network = network.copy();
+                    }
+                    System.out.println(this + " epoch " + epoch + ": " + Math.round(accuracy * 10000) / 100.0 + "% validation accuracy");
+
+                    //stop early if the network has stopped improving or is unlikely to catch up
+                    boolean belowMedian = isBelowMedian(epoch, bestAccuracy, accuracy);
+                    if (epoch - bestEpoch >= patience) {
+                        stopReason = "no improvement";
+                        break;
+                    }
+                    if (belowMedian) {
+                        stopReason = "below median";
+                        break;
+                    }
+                }
+            }
+            trainingTime = System.nanoTime() - start;
+        }
+
+        @Override
+        public String toString() {
+            return "Network (learning rate " + LEARNING_RATE + ", batch size " + BATCH_SIZE + ", hidden layers " + Arrays.toString(HIDDEN_LAYER_SIZES) + ", resolution " + IMAGE_RESOLUTION + (BATCH_NORMALIZATION ? ", batch normalization" : "") + ")";
+        }
+    }
+}
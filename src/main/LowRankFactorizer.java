@@ -0,0 +1,81 @@
+package main;
+
+import filehandling.FileHandler;
+import network.Network;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+
+/**
+ * Factorizes a layer of a trained network to decreasing ranks and reports accuracy and latency for each of them, see {@link network.Network#factorize(int, int)}.
+ * <p>
+ * Usage: {@code LowRankFactorizer <model file> <test data folder> [training data folder] [--layer 1] [--ranks 64,32,16,8] [--epochs 1]}.
+ * If a training data folder is given, every factorized network is fine-tuned for the given number of epochs before it is tested.
+ * Every factorized network is saved as "network rank r.ser".
+ */
+public class LowRankFactorizer {
+
+    public static void main(String[] args) throws InterruptedException {
+        int layer = 1;
+        int[] ranks = {64, 32, 16, 8};
+        int epochs = 1;
+        String[] files = new String[3];
+        int fileCount = 0;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--layer" -> layer = Integer.parseInt(args[++i]);
+                case "--ranks" -> ranks = Arrays.stream(args[++i].split(",")).mapToInt(Integer::parseInt).toArray();
+                case "--epochs" -> epochs = Integer.parseInt(args[++i]);
+                default -> {
+                    if (fileCount < files.length) files[fileCount] = args[i];
+                    fileCount++;
+                }
+            }
+        }
+        if (fileCount < 2 || fileCount > 3) {
+            System.out.println("Usage: LowRankFactorizer <model file> <test data folder> [training data folder] [--layer 1] [--ranks 64,32,16,8] [--epochs 1]");
+            return;
+        }
+
+        Network network = Network.load(new File(files[0]));
+        LinkedHashMap<double[], Character> testData = loadData(new File(files[1]), network.getImageResolution());
+        LinkedHashMap<double[], Character> trainingData = files[2] != null ? loadData(new File(files[2]), network.getImageResolution()) : null;
+
+        StringBuilder report = new StringBuilder("Low Rank Factorization Report:\nLayer: " + layer + (trainingData != null ? "\nFine-tuning epochs: " + epochs : "")
+                + "\nRank | Operations | Accuracy | Latency\n");
+        Benchmark original = Benchmark.run(image -> network.evaluate(image).getKey(), testData);
+        String originalLine = String.format("full | %d | %.2f%% | %.1fµs", network.getOperationCount(), original.getAccuracy() * 100, original.getAverageLatency());
+        System.out.println(originalLine);
+        report.append(originalLine).append('\n');
+
+        for (int rank : ranks) {
+            //every rank starts from the original weights
+            Network factorizedNetwork = Network.load(new File(files[0]));
+            factorizedNetwork.factorize(layer, rank);
+            if (trainingData != null) {
+                factorizedNetwork.fineTune(trainingData, epochs);
+            }
+            Benchmark benchmark = Benchmark.run(image -> factorizedNetwork.evaluate(image).getKey(), testData);
+
+            String line = String.format("%d | %d | %.2f%% | %.1fµs", rank, factorizedNetwork.getOperationCount(), benchmark.getAccuracy() * 100, benchmark.getAverageLatency());
+            System.out.println(line);
+            report.append(line).append('\n');
+            factorizedNetwork.save(new File("network rank " + rank + ".ser"));
+        }
+
+        try (FileWriter writer = new FileWriter("Low Rank Factorization Report.txt")) {
+            writer.write(report.toString());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static LinkedHashMap<double[], Character> loadData(File folder, int imageResolution) throws InterruptedException {
+        FileHandler fileHandler = new FileHandler(imageResolution);
+        fileHandler.loadFiles(folder);
+        return fileHandler.getTrainingData();
+    }
+}
@@ -11,33 +11,67 @@ https://en.wikipedia.org/wiki/Backtracking
 
 package main;
 
+import filehandling.Configuration;
 import filehandling.FileHandler;
 import gui.GUI;
 import network.Network;
+import network.OnlineTrainer;
 
+import javax.swing.*;
 import java.io.*;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.concurrent.ForkJoinPool;
 
 public class Main {
 
-    public static Network NETWORK = new Network(0.01, 100, 1024, 62);
-    public static final FileHandler FILE_HANDLER = new FileHandler();
+    /**
+     * The network used for predictions, it is never changed while in use but replaced by a fine-tuned copy whenever {@link main.Main#ONLINE_TRAINER} has learned from corrections.
+     */
+    public static volatile Network NETWORK = new Network(0.01, Configuration.getInt(Configuration.TRAINING_BATCH_SIZE, 100), FileHandler.DEFAULT_IMAGE_RESOLUTION * FileHandler.DEFAULT_IMAGE_RESOLUTION, 62);
+    public static final FileHandler FILE_HANDLER = FileHandler.getInstance(FileHandler.DEFAULT_IMAGE_RESOLUTION);
     public static final GUI GUI = new GUI();
+
+    /**
+     * Maximum heap usage of the cached predictions in bytes.
+     */
+    private static final long PREDICTION_CACHE_SIZE = 16 * 1024 * 1024;
+
+    /**
+     * Learns from the labels the user corrects in the {@link gui.GUI}, null until the network has been loaded or trained.
+     */
+    public static volatile OnlineTrainer ONLINE_TRAINER;
+
     public static void main(String[] args) {
         //load the network from a file if it has been saved before otherwise train it
+        Network network;
         if(Files.exists(Paths.get("network.ser"))) {
-            try (FileInputStream fileInputStream = new FileInputStream("network.ser")) {
-                ObjectInputStream inputStream = new ObjectInputStream(fileInputStream);
-                NETWORK = (Network) inputStream.readObject();
-                inputStream.close();
-            } catch (IOException | ClassNotFoundException e) {
-                throw new RuntimeException(e);
-            }
+            network = Network.load(new File("network.ser"));
+            //evaluating single images doesn't need the batch statistics
+            network.foldBatchNormalization();
         } else {
-            NETWORK.train();
+            network = NETWORK;
+            network.train();
         }
 
+        //copy the network for fine-tuning before it is used for predictions
+        ONLINE_TRAINER = new OnlineTrainer(network, Main::publishNetwork, failure -> SwingUtilities.invokeLater(() -> GUI.disableCorrections(failure)));
+        publishNetwork(network);
+
         //NETWORK.test();
     }
+
+    /**
+     * Replaces the network used for predictions and updates the prediction.
+     * @param network The network to be used from now on, it must not be changed afterwards.
+     */
+    private static void publishNetwork(Network network) {
+        //undoing strokes often brings back drawings that have already been evaluated
+        network.enablePredictionCache(PREDICTION_CACHE_SIZE, 5);
+        if (Boolean.parseBoolean(Configuration.get(Configuration.PARALLEL_COMPUTE))) {
+            network.enableParallelCompute(ForkJoinPool.commonPool(), Network.DEFAULT_PARALLEL_OPERATION_THRESHOLD);
+        }
+        NETWORK = network;
+        SwingUtilities.invokeLater(GUI::updatePrediction);
+    }
 }
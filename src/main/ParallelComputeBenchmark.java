@@ -0,0 +1,101 @@
+package main;
+
+import filehandling.FileHandler;
+import network.Network;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Measures the median and 99th percentile latency of single images for networks with two hidden layers of different widths,
+ * computed on the calling thread, with every layer split across threads and with only the layers above {@link network.Network#DEFAULT_PARALLEL_OPERATION_THRESHOLD} split,
+ * and writes them to "Parallel Compute Report.txt" to show from which layer size {@link network.Network#enableParallelCompute(ForkJoinPool, long)} pays off.
+ * The networks are untrained and the images random, since neither changes the number of operations.
+ * <p>
+ * Usage: {@code ParallelComputeBenchmark [--widths 64,256,1024,4096] [--images 2000] [--threads n] [--density 0.2]}
+ */
+public class ParallelComputeBenchmark {
+
+    /**
+     * Number of images computed before measuring so that the measurement isn't skewed by the JIT compiler.
+     */
+    private static final int WARM_UP_IMAGES = 500;
+
+    public static void main(String[] args) {
+        int[] widths = {64, 256, 1024, 4096};
+        int images = 2000;
+        int threads = Runtime.getRuntime().availableProcessors();
+        double density = 0.2;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--widths" -> widths = Arrays.stream(args[++i].split(",")).mapToInt(Integer::parseInt).toArray();
+                case "--images" -> images = Integer.parseInt(args[++i]);
+                case "--threads" -> threads = Integer.parseInt(args[++i]);
+                case "--density" -> density = Double.parseDouble(args[++i]);
+                default -> {
+                    System.out.println("Usage: ParallelComputeBenchmark [--widths 64,256,1024,4096] [--images 2000] [--threads n] [--density 0.2]");
+                    return;
+                }
+            }
+        }
+
+        //random images with about as many black pixels as handwritten characters
+        int imageSize = FileHandler.DEFAULT_IMAGE_RESOLUTION * FileHandler.DEFAULT_IMAGE_RESOLUTION;
+        Random random = new Random(0);
+        double[][] testImages = new double[images][imageSize];
+        for (double[] image : testImages) {
+            for (int p = 0; p < imageSize; p++) {
+                image[p] = random.nextDouble() < density ? random.nextDouble() : 0;
+            }
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        StringBuilder report = new StringBuilder("Parallel Compute Report:\nThreads: " + threads + "\nDefault threshold: " + Network.DEFAULT_PARALLEL_OPERATION_THRESHOLD + " operations\n");
+        report.append("Hidden layers | Largest layer | Mode | Median latency | 99th percentile latency | Speedup (99th percentile)\n");
+        for (int width : widths) {
+            Network network = new Network(0.01, 100, imageSize, 62, width, width);
+            long largestLayer = Math.max((long) width * imageSize, (long) width * width);
+
+            network.disableParallelCompute();
+            double[] sequential = measure(network, testImages);
+            network.enableParallelCompute(pool, 0);
+            double[] allLayers = measure(network, testImages);
+            network.enableParallelCompute(pool, Network.DEFAULT_PARALLEL_OPERATION_THRESHOLD);
+            double[] largeLayers = measure(network, testImages);
+
+            String layers = "[" + width + ", " + width + "]";
+            report.append(String.format("%s | %d | sequential | %.1fµs | %.1fµs | 1.00\n", layers, largestLayer, sequential[0], sequential[1]));
+            report.append(String.format("%s | %d | all layers parallel | %.1fµs | %.1fµs | %.2f\n", layers, largestLayer, allLayers[0], allLayers[1], sequential[1] / allLayers[1]));
+            report.append(String.format("%s | %d | layers above threshold parallel | %.1fµs | %.1fµs | %.2f\n", layers, largestLayer, largeLayers[0], largeLayers[1], sequential[1] / largeLayers[1]));
+        }
+        pool.shutdown();
+        System.out.print(report);
+
+        try (FileWriter writer = new FileWriter("Parallel Compute Report.txt")) {
+            writer.write(report.toString());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @return The median and 99th percentile latency in microseconds.
+     */
+    private static double[] measure(Network network, double[][] images) {
+        for (int i = 0; i < Math.min(WARM_UP_IMAGES, images.length); i++) {
+            network.getProbabilities(images[i]);
+        }
+
+        long[] latencies = new long[images.length];
+        for (int i = 0; i < images.length; i++) {
+            long start = System.nanoTime();
+            network.getProbabilities(images[i]);
+            latencies[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(latencies);
+        return new double[]{latencies[latencies.length / 2] / 1000.0d, latencies[(int) Math.ceil(latencies.length * 0.99) - 1] / 1000.0d};
+    }
+}
@@ -0,0 +1,62 @@
+package main;
+
+import filehandling.FileHandler;
+import network.Network;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+
+/**
+ * Prunes a trained network to increasing sparsities and reports accuracy and latency for each of them.
+ * <p>
+ * Usage: {@code Pruner <model file> <test data folder> [training data folder]}. If a training data folder is given, the
+ * network is pruned iteratively and fine-tuned for an epoch after every step, otherwise every sparsity is pruned at once.
+ */
+public class Pruner {
+
+    private static final double[] SPARSITIES = {0, 0.5, 0.7, 0.8, 0.9, 0.95, 0.98};
+
+    public static void main(String[] args) throws InterruptedException {
+        if (args.length < 2) {
+            System.out.println("Usage: Pruner <model file> <test data folder> [training data folder]");
+            return;
+        }
+
+        Network network = Network.load(new File(args[0]));
+        LinkedHashMap<double[], Character> testData = loadData(new File(args[1]), network.getImageResolution());
+        LinkedHashMap<double[], Character> trainingData = args.length > 2 ? loadData(new File(args[2]), network.getImageResolution()) : null;
+
+        StringBuilder report = new StringBuilder("Pruning Report:\nSparsity | Weight density | Accuracy | Latency\n");
+        for (double sparsity : SPARSITIES) {
+            if (trainingData != null) {
+                //prune the network further and let it recover before the next step
+                network.prune(sparsity, false);
+                network.fineTune(trainingData, 1);
+            }
+
+            //compress a copy so the network can still be fine-tuned in the next step
+            Network prunedNetwork = trainingData != null ? network.copy() : Network.load(new File(args[0]));
+            prunedNetwork.prune(sparsity, true);
+            Benchmark benchmark = Benchmark.run(image -> prunedNetwork.evaluate(image).getKey(), testData);
+
+            String line = String.format("%.0f%% | %.2f%% | %.2f%% | %.1fµs", sparsity * 100, prunedNetwork.getWeightDensity() * 100, benchmark.getAccuracy() * 100, benchmark.getAverageLatency());
+            System.out.println(line);
+            report.append(line).append('\n');
+            prunedNetwork.save(new File("network pruned " + Math.round(sparsity * 100) + ".ser"));
+        }
+
+        try (FileWriter writer = new FileWriter("Pruning Report.txt")) {
+            writer.write(report.toString());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static LinkedHashMap<double[], Character> loadData(File folder, int imageResolution) throws InterruptedException {
+        FileHandler fileHandler = new FileHandler(imageResolution);
+        fileHandler.loadFiles(folder);
+        return fileHandler.getTrainingData();
+    }
+}
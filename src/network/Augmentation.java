@@ -0,0 +1,106 @@
+package network;
+
+import java.util.Random;
+
+/**
+ * Random small distortions of square greyscale images (shift, rotation, scaling and thicker or thinner strokes) so that the network sees a slightly different image in every epoch.
+ */
+public class Augmentation {
+
+    /**
+     * Distortions that keep a 32x32 character recognizable.
+     */
+    public static final Augmentation DEFAULT = new Augmentation(2, 10, 0.1, 0.5);
+
+    private static final int[][] NEIGHBOURS = {{1, 0}, {-1, 0}, {0, 1}, {0, -1}};
+
+    private final double MAX_SHIFT;
+    private final double MAX_ROTATION;
+    private final double MAX_SCALE_CHANGE;
+    private final double MAX_STROKE_CHANGE;
+
+    /**
+     * @param maxShift The maximum shift in pixels along each axis.
+     * @param maxRotation The maximum rotation in degrees in either direction.
+     * @param maxScaleChange The maximum relative change of the size, e.g. 0.1 for 90% to 110%.
+     * @param maxStrokeChange The maximum strength between 0 and 1 with which strokes are thickened or thinned.
+     */
+    public Augmentation(double maxShift, double maxRotation, double maxScaleChange, double maxStrokeChange) {
+        if (maxScaleChange < 0 || maxScaleChange >= 1) throw new IllegalArgumentException("The maximum scale change has to be between 0 (inclusive) & 1 (exclusive).");
+        if (maxStrokeChange < 0 || maxStrokeChange > 1) throw new IllegalArgumentException("The maximum stroke change has to be between 0 & 1.");
+        MAX_SHIFT = maxShift;
+        MAX_ROTATION = Math.toRadians(maxRotation);
+        MAX_SCALE_CHANGE = maxScaleChange;
+        MAX_STROKE_CHANGE = maxStrokeChange;
+    }
+
+    /**
+     * @param image The square image to be distorted, it is not changed.
+     * @param random The source of the distortions, the same state always gives the same distortion.
+     * @return A distorted copy of the image.
+     */
+    public double[] apply(double[] image, Random random) {
+        int resolution = (int) Math.sqrt(image.length);
+        double shiftX = (2 * random.nextDouble() - 1) * MAX_SHIFT;
+        double shiftY = (2 * random.nextDouble() - 1) * MAX_SHIFT;
+        double rotation = (2 * random.nextDouble() - 1) * MAX_ROTATION;
+        double scale = 1 + (2 * random.nextDouble() - 1) * MAX_SCALE_CHANGE;
+        double strokeChange = (2 * random.nextDouble() - 1) * MAX_STROKE_CHANGE;
+
+        double[] transformed = transform(image, resolution, shiftX, shiftY, rotation, scale);
+        return strokeChange == 0 ? transformed : changeStrokes(transformed, resolution, strokeChange);
+    }
+
+    /**
+     * Rotates and scales the image around its center and shifts it, sampling the original image bilinearly at the inverse position of every pixel.
+     */
+    private static double[] transform(double[] image, int resolution, double shiftX, double shiftY, double rotation, double scale) {
+        double center = (resolution - 1) / 2.0d;
+        double cos = Math.cos(-rotation) / scale;
+        double sin = Math.sin(-rotation) / scale;
+        double[] transformed = new double[image.length];
+
+        for (int y = 0; y < resolution; y++) {
+            for (int x = 0; x < resolution; x++) {
+                double dx = x - center - shiftX;
+                double dy = y - center - shiftY;
+                double sourceX = cos * dx - sin * dy + center;
+                double sourceY = sin * dx + cos * dy + center;
+
+                int x0 = (int) Math.floor(sourceX);
+                int y0 = (int) Math.floor(sourceY);
+                double fx = sourceX - x0;
+                double fy = sourceY - y0;
+                transformed[y * resolution + x] = (1 - fx) * (1 - fy) * getPixel(image, resolution, x0, y0)
+                        + fx * (1 - fy) * getPixel(image, resolution, x0 + 1, y0)
+                        + (1 - fx) * fy * getPixel(image, resolution, x0, y0 + 1)
+                        + fx * fy * getPixel(image, resolution, x0 + 1, y0 + 1);
+            }
+        }
+        return transformed;
+    }
+
+    /**
+     * Blends the image with its dilation (strength > 0) or erosion (strength < 0) over the four direct neighbours of every pixel.
+     */
+    private static double[] changeStrokes(double[] image, int resolution, double strength) {
+        double[] changed = new double[image.length];
+        for (int y = 0; y < resolution; y++) {
+            for (int x = 0; x < resolution; x++) {
+                double value = getPixel(image, resolution, x, y);
+                double extreme = value;
+                for (int[] neighbour : NEIGHBOURS) {
+                    double neighbourValue = getPixel(image, resolution, x + neighbour[0], y + neighbour[1]);
+                    extreme = strength > 0 ? Math.max(extreme, neighbourValue) : Math.min(extreme, neighbourValue);
+                }
+                changed[y * resolution + x] = value + Math.abs(strength) * (extreme - value);
+            }
+        }
+        return changed;
+    }
+
+    private static double getPixel(double[] image, int resolution, int x, int y) {
+        if (x < 0 || y < 0 || x >= resolution || y >= resolution) return 0;
+        return image[y * resolution + x];
+    }
+}
@@ -0,0 +1,238 @@
+package network;
+
+import java.io.Serial;
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Batch normalization of the weighted input sums of a fully connected hidden layer, applied before its activation function.
+ * During training every sum is normalized with the mean and variance of its batch, which also updates running averages of both.
+ * Evaluating single images uses the running averages instead, which makes the normalization a fixed scale and shift per neuron
+ * that {@link network.Network#foldBatchNormalization()} can fold into the weights and bias of the layer.
+ * All batches are row-major (images x neurons).
+ */
+public class BatchNormLayer implements Serializable {
+
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Added to the variance so that neurons whose sum doesn't change within a batch don't divide by 0.
+     */
+    private static final double EPSILON = 1e-5;
+
+    /**
+     * Weight of the current batch in the running averages.
+     */
+    private static final double MOMENTUM = 0.1;
+
+    private final int SIZE;
+    private final double[] GAMMAS;
+    private final double[] BETAS;
+    private final double[] RUNNING_MEANS;
+    private final double[] RUNNING_VARIANCES;
+
+    /**
+     * Normalized sums and inverse standard deviations of the last batch, needed by {@link network.BatchNormLayer#backward(double[], int)}.
+     */
+    private transient double[] lastNormalizedSums;
+    private transient double[] lastInverseStandardDeviations;
+
+    private transient double[] gammaGradients;
+    private transient double[] betaGradients;
+    private transient int accumulatedImages;
+
+    /**
+     * @param size The number of neurons of the normalized layer.
+     */
+    public BatchNormLayer(int size) {
+        SIZE = size;
+        GAMMAS = new double[size];
+        BETAS = new double[size];
+        RUNNING_MEANS = new double[size];
+        RUNNING_VARIANCES = new double[size];
+        Arrays.fill(GAMMAS, 1);
+        Arrays.fill(RUNNING_VARIANCES, 1);
+    }
+
+    /**
+     * Normalizes every sum with the mean and variance of its neuron over the batch and updates the running averages.
+     * @param weightedSums The weighted input sums of every image of the batch.
+     * @param batchSize The number of images of the batch.
+     * @return The scaled and shifted normalized sums.
+     */
+    public double[] forward(double[] weightedSums, int batchSize) {
+        double[] means = new double[SIZE];
+        double[] variances = new double[SIZE];
+        for (int s = 0; s < batchSize; s++) {
+            int offset = s * SIZE;
+            for (int j = 0; j < SIZE; j++) {
+                means[j] += weightedSums[offset + j];
+            }
+        }
+        for (int j = 0; j < SIZE; j++) {
+            means[j] /= batchSize;
+        }
+        for (int s = 0; s < batchSize; s++) {
+            int offset = s * SIZE;
+            for (int j = 0; j < SIZE; j++) {
+                double deviation = weightedSums[offset + j] - means[j];
+                variances[j] += deviation * deviation;
+            }
+        }
+
+        lastInverseStandardDeviations = new double[SIZE];
+        for (int j = 0; j < SIZE; j++) {
+            variances[j] /= batchSize;
+            lastInverseStandardDeviations[j] = 1 / Math.sqrt(variances[j] + EPSILON);
+            RUNNING_MEANS[j] += MOMENTUM * (means[j] - RUNNING_MEANS[j]);
+            //the running variance is unbiased like the one used for evaluating later
+            double unbiasedVariance = batchSize > 1 ? variances[j] * batchSize / (batchSize - 1) : variances[j];
+            RUNNING_VARIANCES[j] += MOMENTUM * (unbiasedVariance - RUNNING_VARIANCES[j]);
+        }
+
+        lastNormalizedSums = new double[batchSize * SIZE];
+        double[] outputs = new double[batchSize * SIZE];
+        for (int s = 0; s < batchSize; s++) {
+            int offset = s * SIZE;
+            for (int j = 0; j < SIZE; j++) {
+                double normalizedSum = (weightedSums[offset + j] - means[j]) * lastInverseStandardDeviations[j];
+                lastNormalizedSums[offset + j] = normalizedSum;
+                outputs[offset + j] = GAMMAS[j] * normalizedSum + BETAS[j];
+            }
+        }
+        return outputs;
+    }
+
+    /**
+     * Adds the gradients of the scales and shifts and propagates the gradients through the normalization of the last batch.
+     * @param outputGradients ∂C/∂y for every output of {@link network.BatchNormLayer#forward(double[], int)}.
+     * @param batchSize The number of images of the batch.
+     * @return ∂C/∂z for every weighted input sum of the batch.
+     */
+    public double[] backward(double[] outputGradients, int batchSize) {
+        if (lastNormalizedSums == null) throw new IllegalStateException("The layer has to normalize a batch before propagating backwards.");
+        if (gammaGradients == null) {
+            gammaGradients = new double[SIZE];
+            betaGradients = new double[SIZE];
+        }
+
+        //sums over the batch of ∂C/∂x̂ and ∂C/∂x̂ * x̂, which every gradient depends on through the mean and variance
+        double[] normalizedGradientSums = new double[SIZE];
+        double[] weightedNormalizedGradientSums = new double[SIZE];
+        for (int s = 0; s < batchSize; s++) {
+            int offset = s * SIZE;
+            for (int j = 0; j < SIZE; j++) {
+                double outputGradient = outputGradients[offset + j];
+                double normalizedGradient = outputGradient * GAMMAS[j];
+                gammaGradients[j] += outputGradient * lastNormalizedSums[offset + j];
+                betaGradients[j] += outputGradient;
+                normalizedGradientSums[j] += normalizedGradient;
+                weightedNormalizedGradientSums[j] += normalizedGradient * lastNormalizedSums[offset + j];
+            }
+        }
+        accumulatedImages += batchSize;
+
+        //∂C/∂z = (N * ∂C/∂x̂ - Σ∂C/∂x̂ - x̂ * Σ(∂C/∂x̂ * x̂)) / (N * σ)
+        double[] inputGradients = new double[batchSize * SIZE];
+        for (int s = 0; s < batchSize; s++) {
+            int offset = s * SIZE;
+            for (int j = 0; j < SIZE; j++) {
+                double normalizedGradient = outputGradients[offset + j] * GAMMAS[j];
+                inputGradients[offset + j] = (batchSize * normalizedGradient - normalizedGradientSums[j] - lastNormalizedSums[offset + j] * weightedNormalizedGradientSums[j])
+                        * lastInverseStandardDeviations[j] / batchSize;
+            }
+        }
+        return inputGradients;
+    }
+
+    /**
+     * @param index The index of the neuron.
+     * @param weightedSum The weighted input sum of the neuron for a single image.
+     * @return The sum normalized with the running averages, scaled and shifted.
+     */
+    public double normalize(int index, double weightedSum) {
+        return getScale(index) * weightedSum + getShift(index);
+    }
+
+    /**
+     * @param index The index of the neuron.
+     * @return The factor {@link network.BatchNormLayer#normalize(int, double)} multiplies the sum of the neuron with.
+     */
+    public double getScale(int index) {
+        return GAMMAS[index] / Math.sqrt(RUNNING_VARIANCES[index] + EPSILON);
+    }
+
+    /**
+     * @param index The index of the neuron.
+     * @return The value {@link network.BatchNormLayer#normalize(int, double)} adds to the scaled sum of the neuron.
+     */
+    public double getShift(int index) {
+        return BETAS[index] - RUNNING_MEANS[index] * getScale(index);
+    }
+
+    /**
+     * Nudges the scales and shifts based on the averages of the gradients per image.
+     * @param learningRate The learning rate of the network used to scale the gradients.
+     */
+    public void nudgeParameters(double learningRate) {
+        if (accumulatedImages == 0) return;
+        //subtract averaged gradient multiplied by learning rate from each parameter to nudge it towards local minimum
+        for (int j = 0; j < SIZE; j++) {
+            GAMMAS[j] -= gammaGradients[j] / accumulatedImages * learningRate;
+            BETAS[j] -= betaGradients[j] / accumulatedImages * learningRate;
+        }
+    }
+
+    /**
+     * Clears all gradients and the cached batch.
+     */
+    public void clearGradients() {
+        if (gammaGradients != null) {
+            Arrays.fill(gammaGradients, 0);
+            Arrays.fill(betaGradients, 0);
+        }
+        accumulatedImages = 0;
+        lastNormalizedSums = null;
+        lastInverseStandardDeviations = null;
+    }
+
+    public int getSize() {
+        return SIZE;
+    }
+
+    /**
+     * @return The number of values copied by {@link network.BatchNormLayer#getParameters(double[], int)}, the scales, shifts and both running averages of every neuron.
+     */
+    public int getParameterCount() {
+        return 4 * SIZE;
+    }
+
+    /**
+     * Copies the scales, shifts, running means and running variances into the given array.
+     * @param parameters The array the parameters are copied into.
+     * @param offset The index of the first scale.
+     * @return The index after the last running variance.
+     */
+    public int getParameters(double[] parameters, int offset) {
+        for (double[] values : new double[][]{GAMMAS, BETAS, RUNNING_MEANS, RUNNING_VARIANCES}) {
+            System.arraycopy(values, 0, parameters, offset, SIZE);
+            offset += SIZE;
+        }
+        return offset;
+    }
+
+    /**
+     * Replaces the scales, shifts, running means and running variances with the given ones, in the order of {@link network.BatchNormLayer#getParameters(double[], int)}.
+     * @param parameters The array the parameters are copied from.
+     * @param offset The index of the first scale.
+     * @return The index after the last running variance.
+     */
+    public int setParameters(double[] parameters, int offset) {
+        for (double[] values : new double[][]{GAMMAS, BETAS, RUNNING_MEANS, RUNNING_VARIANCES}) {
+            System.arraycopy(parameters, offset, values, 0, SIZE);
+            offset += SIZE;
+        }
+        return offset;
+    }
+}
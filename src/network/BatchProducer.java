@@ -0,0 +1,191 @@
+package network;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Shuffles, augments and groups training data into batches on background threads, several batches ahead of the thread training the network.
+ * Every epoch is shuffled and every batch is augmented with its own random generator derived from the seed, epoch and batch index,
+ * so the same seed always gives the same batches in the same order no matter how many threads produce them.
+ */
+public class BatchProducer implements AutoCloseable {
+
+    private final double[][] IMAGES;
+    private final char[] LABELS;
+    private final int BATCH_SIZE;
+    private final Augmentation AUGMENTATION;
+    private final long SEED;
+
+    private final ExecutorService PRODUCERS;
+
+    /**
+     * Number of batches produced ahead of the one being trained on, two per thread so that every thread always has its next batch waiting.
+     */
+    private final int LOOK_AHEAD;
+
+    /**
+     * @param trainingData The images and their labels, they are only read.
+     * @param batchSize The number of images per batch.
+     * @param augmentation The distortions applied to every image, null to use the images unchanged.
+     * @param seed The seed of the shuffling and augmentation.
+     * @param producerThreads The number of threads producing batches.
+     */
+    public BatchProducer(Map<double[], Character> trainingData, int batchSize, Augmentation augmentation, long seed, int producerThreads) {
+        if (trainingData.isEmpty()) throw new IllegalArgumentException("There is no training data.");
+        if (batchSize < 1) throw new IllegalArgumentException("A batch has to contain at least one image.");
+        if (producerThreads < 1) throw new IllegalArgumentException("At least one thread has to produce batches.");
+
+        IMAGES = new double[trainingData.size()][];
+        LABELS = new char[trainingData.size()];
+        int i = 0;
+        for (Map.Entry<double[], Character> trainingPair : trainingData.entrySet()) {
+            IMAGES[i] = trainingPair.getKey();
+            LABELS[i] = trainingPair.getValue();
+            i++;
+        }
+        BATCH_SIZE = batchSize;
+        AUGMENTATION = augmentation;
+        SEED = seed;
+
+        PRODUCERS = Executors.newFixedThreadPool(producerThreads, runnable -> {
+            Thread thread = new Thread(runnable, "batch producer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        LOOK_AHEAD = 2 * producerThreads;
+    }
+
+    /**
+     * Uses all processors but the one training the network.
+     */
+    public BatchProducer(Map<double[], Character> trainingData, int batchSize, Augmentation augmentation, long seed) {
+        this(trainingData, batchSize, augmentation, seed, getDefaultProducerThreads());
+    }
+
+    /**
+     * @return The number of processors but the one training the network, at least 1.
+     */
+    public static int getDefaultProducerThreads() {
+        return Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+    }
+
+    /**
+     * @return The number of batches per epoch, the last one may be smaller than the batch size.
+     */
+    public int getBatchCount() {
+        return (IMAGES.length + BATCH_SIZE - 1) / BATCH_SIZE;
+    }
+
+    /**
+     * @param epoch The index of the epoch, which determines its order and augmentation.
+     * @return The batches of the epoch, produced while they are iterated over.
+     */
+    public Iterable<Batch> getEpoch(int epoch) {
+        //shuffle the order of the images
+        int[] order = new int[IMAGES.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Random random = new Random(mix(SEED, epoch, -1));
+        for (int i = order.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int temp = order[i];
+            order[i] = order[j];
+            order[j] = temp;
+        }
+
+        return () -> new Iterator<>() {
+            private final ArrayDeque<Future<Batch>> PENDING_BATCHES = new ArrayDeque<>();
+            private int submittedBatches;
+
+            {
+                fill();
+            }
+
+            private void fill() {
+                while (PENDING_BATCHES.size() < LOOK_AHEAD && submittedBatches < getBatchCount()) {
+                    int batch = submittedBatches++;
+                    PENDING_BATCHES.add(PRODUCERS.submit(() -> produce(order, epoch, batch)));
+                }
+            }
+
+            @Override
+            public boolean hasNext() {
+                return !PENDING_BATCHES.isEmpty();
+            }
+
+            @Override
+            public Batch next() {
+                if (PENDING_BATCHES.isEmpty()) throw new NoSuchElementException();
+                try {
+                    Batch batch = PENDING_BATCHES.poll().get();
+                    fill();
+                    return batch;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException(e);
+                } catch (ExecutionException e) {
+                    throw new RuntimeException(e.getCause());
+                }
+            }
+        };
+    }
+
+    private Batch produce(int[] order, int epoch, int batch) {
+        int start = batch * BATCH_SIZE;
+        int size = Math.min(BATCH_SIZE, order.length - start);
+        Random random = new Random(mix(SEED, epoch, batch));
+
+        double[][] images = new double[size][];
+        char[] labels = new char[size];
+        for (int i = 0; i < size; i++) {
+            double[] image = IMAGES[order[start + i]];
+            images[i] = AUGMENTATION == null ? image : AUGMENTATION.apply(image, random);
+            labels[i] = LABELS[order[start + i]];
+        }
+        return new Batch(images, labels);
+    }
+
+    /**
+     * @return A seed for the given epoch and batch that differs from all other ones of the same seed.
+     */
+    private static long mix(long seed, int epoch, int batch) {
+        long mixed = seed ^ (((long) epoch << 32) | (batch & 0xffffffffL)) * 0x9e3779b97f4a7c15L;
+        mixed = (mixed ^ (mixed >>> 30)) * 0xbf58476d1ce4e5b9L;
+        return mixed ^ (mixed >>> 31);
+    }
+
+    /**
+     * Stops the producer threads, batches that are still being produced are discarded.
+     */
+    @Override
+    public void close() {
+        PRODUCERS.shutdownNow();
+    }
+
+    /**
+     * The images and labels of a single batch.
+     */
+    public static class Batch {
+
+        private final double[][] IMAGES;
+        private final char[] LABELS;
+
+        private Batch(double[][] images, char[] labels) {
+            IMAGES = images;
+            LABELS = labels;
+        }
+
+        public int size() {
+            return IMAGES.length;
+        }
+
+        public double[] getImage(int index) {
+            return IMAGES[index];
+        }
+
+        public char getLabel(int index) {
+            return LABELS[index];
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package network;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Evaluates images with a small fast network first and only escalates them to the full network if the fast network's certainty is below a threshold,
+ * see {@link main.CascadeCalibrator} for finding the threshold. Like a single network, a cascade must not be used by several threads at once.
+ */
+public class Cascade {
+
+    private final Network FAST_NETWORK;
+    private final Network FULL_NETWORK;
+    private final double THRESHOLD;
+
+    private long evaluations;
+    private long escalations;
+
+    /**
+     * @param fastNetwork The network evaluating every image, e.g. a pruned and compressed copy of the full network.
+     * @param fullNetwork The network evaluating the images the fast network is uncertain about, it needs the same labels and image resolution.
+     * @param threshold The lowest certainty of the fast network that is accepted without escalating.
+     */
+    public Cascade(Network fastNetwork, Network fullNetwork, double threshold) {
+        if (!Arrays.equals(fastNetwork.getLabels(), fullNetwork.getLabels())) throw new IllegalArgumentException("Both networks of a cascade need the same labels.");
+        if (fastNetwork.getImageResolution() != fullNetwork.getImageResolution()) throw new IllegalArgumentException("Both networks of a cascade need the same image resolution.");
+        FAST_NETWORK = fastNetwork;
+        FULL_NETWORK = fullNetwork;
+        THRESHOLD = threshold;
+    }
+
+    /**
+     * @param image The image to be evaluated.
+     * @return The label and the certainty of the fast network or, if that is below the threshold, of the full network.
+     */
+    public Map.Entry<Character, Double> evaluate(double[] image) {
+        return evaluate(image, 1).get(0);
+    }
+
+    /**
+     * @param image The image to be evaluated.
+     * @param k The number of labels to be returned.
+     * @return The k labels with the highest certainty of the fast network or, if its highest certainty is below the threshold, of the full network.
+     */
+    public List<Map.Entry<Character, Double>> evaluate(double[] image, int k) {
+        evaluations++;
+        List<Map.Entry<Character, Double>> predictions = FAST_NETWORK.evaluate(image, k);
+        if (predictions.get(0).getValue() >= THRESHOLD) {
+            return predictions;
+        }
+        escalations++;
+        return FULL_NETWORK.evaluate(image, k);
+    }
+
+    public double getThreshold() {
+        return THRESHOLD;
+    }
+
+    /**
+     * @return The share of evaluated images that have been escalated to the full network.
+     */
+    public double getEscalationRate() {
+        return evaluations == 0 ? 0 : (double) escalations / evaluations;
+    }
+}
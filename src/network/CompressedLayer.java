@@ -0,0 +1,86 @@
+package network;
+
+import java.io.Serializable;
+
+/**
+ * The weights of a pruned layer of {@link network.Neuron}s in compressed sparse row format.
+ * Every row holds the non-zero weights of one input node, so rows of inputs that are 0 (most of an image) can be skipped entirely.
+ */
+public class CompressedLayer implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Index of the first entry of each row in {@link network.CompressedLayer#COLUMN_INDICES} and {@link network.CompressedLayer#VALUES}, followed by the number of entries.
+     */
+    private final int[] ROW_POINTERS;
+
+    /**
+     * Position of the neuron each entry belongs to.
+     */
+    private final int[] COLUMN_INDICES;
+    private final double[] VALUES;
+    private final int COLUMNS;
+
+    /**
+     * @param layer The neurons whose non-zero weights are stored.
+     */
+    public CompressedLayer(Neuron[] layer) {
+        int rows = layer.length == 0 ? 0 : layer[0].getWeights().length;
+        COLUMNS = layer.length;
+
+        //count the non-zero weights of every input
+        ROW_POINTERS = new int[rows + 1];
+        for (Neuron neuron : layer) {
+            double[] weights = neuron.getWeights();
+            for (int row = 0; row < rows; row++) {
+                if (weights[row] != 0) ROW_POINTERS[row + 1]++;
+            }
+        }
+        for (int row = 0; row < rows; row++) {
+            ROW_POINTERS[row + 1] += ROW_POINTERS[row];
+        }
+
+        COLUMN_INDICES = new int[ROW_POINTERS[rows]];
+        VALUES = new double[ROW_POINTERS[rows]];
+        int[] nextEntry = ROW_POINTERS.clone();
+        for (int column = 0; column < layer.length; column++) {
+            double[] weights = layer[column].getWeights();
+            for (int row = 0; row < rows; row++) {
+                if (weights[row] != 0) {
+                    COLUMN_INDICES[nextEntry[row]] = column;
+                    VALUES[nextEntry[row]] = weights[row];
+                    nextEntry[row]++;
+                }
+            }
+        }
+    }
+
+    /**
+     * @param input The outputs of the previous layer.
+     * @return The weighted sum of the inputs for every neuron.
+     */
+    public double[] multiply(double[] input) {
+        if (input.length != ROW_POINTERS.length - 1) throw new IllegalArgumentException("Expected " + (ROW_POINTERS.length - 1) + " inputs but got " + input.length + ".");
+        double[] weightedSums = new double[COLUMNS];
+        for (int row = 0; row < input.length; row++) {
+            double value = input[row];
+            if (value == 0) continue;
+            for (int entry = ROW_POINTERS[row]; entry < ROW_POINTERS[row + 1]; entry++) {
+                weightedSums[COLUMN_INDICES[entry]] += VALUES[entry] * value;
+            }
+        }
+        return weightedSums;
+    }
+
+    /**
+     * @return The share of weights that are stored.
+     */
+    public double getDensity() {
+        return (double) VALUES.length / ((long) (ROW_POINTERS.length - 1) * COLUMNS);
+    }
+
+    public int getNonZeroWeightCount() {
+        return VALUES.length;
+    }
+}
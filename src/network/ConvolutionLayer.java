@@ -0,0 +1,139 @@
+package network;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Convolution with square kernels followed by {@link network.Function.FunctionTag#RELU}, computed as a single {@link network.Matrix#multiply(double[], double[], double[], int, int, int)} over the {@link network.Matrix#im2col(double[], int, int, int, int, int)} of the input.
+ */
+public class ConvolutionLayer extends FeatureLayer {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int KERNEL_SIZE;
+    private final int STRIDE;
+    private final int PADDING;
+
+    /**
+     * Filters x (input channels * kernel size * kernel size) weight matrix.
+     */
+    private final double[] WEIGHTS;
+    private final double[] BIASES;
+    private final Function ACTIVATION_FUNCTION;
+
+    private transient double[] weightGradients;
+    private transient double[] biasGradients;
+    private transient int accumulatedGradients;
+
+    private transient double[] lastColumns;
+    private transient double[] lastWeightedInputSums;
+
+    /**
+     * @param inputChannels The number of channels of the input (1 for a greyscale image).
+     * @param inputSize The width and height of the input.
+     * @param filters The number of output channels.
+     * @param kernelSize The width and height of every filter.
+     * @param stride The distance between two kernel positions.
+     * @param padding The number of zero pixels added on each side of the input.
+     */
+    public ConvolutionLayer(int inputChannels, int inputSize, int filters, int kernelSize, int stride, int padding) {
+        super(inputChannels, inputSize, filters, Matrix.outputSize(inputSize, kernelSize, stride, padding));
+        KERNEL_SIZE = kernelSize;
+        STRIDE = stride;
+        PADDING = padding;
+        WEIGHTS = new double[filters * getKernelLength()];
+        BIASES = new double[filters];
+        ACTIVATION_FUNCTION = new Function(Function.FunctionTag.RELU);
+
+        Random random = new Random();
+        for (int i = 0; i < WEIGHTS.length; i++) {
+            WEIGHTS[i] = random.nextGaussian(0, Math.sqrt(1.0d / getKernelLength()));
+        }
+
+        System.out.println("Convolution layer created with " + filters + " " + kernelSize + "x" + kernelSize + " filters and an output of " + OUTPUT_SIZE + "x" + OUTPUT_SIZE + "x" + filters + ".");
+    }
+
+    private int getKernelLength() {
+        return INPUT_CHANNELS * KERNEL_SIZE * KERNEL_SIZE;
+    }
+
+    @Override
+    public double[] forward(double[] input, boolean training) {
+        int positions = OUTPUT_SIZE * OUTPUT_SIZE;
+        double[] columns = Matrix.im2col(input, INPUT_CHANNELS, INPUT_SIZE, KERNEL_SIZE, STRIDE, PADDING);
+
+        //start with the bias of the respective filter
+        double[] weightedInputSums = new double[OUTPUT_CHANNELS * positions];
+        for (int f = 0; f < OUTPUT_CHANNELS; f++) {
+            Arrays.fill(weightedInputSums, f * positions, (f + 1) * positions, BIASES[f]);
+        }
+        Matrix.multiply(WEIGHTS, columns, weightedInputSums, OUTPUT_CHANNELS, getKernelLength(), positions);
+        if (training) {
+            lastColumns = columns;
+            lastWeightedInputSums = weightedInputSums;
+        }
+
+        double[] output = new double[weightedInputSums.length];
+        for (int i = 0; i < output.length; i++) {
+            output[i] = ACTIVATION_FUNCTION.compute(weightedInputSums[i]);
+        }
+        return output;
+    }
+
+    @Override
+    public double[] backward(double[] outputGradient) {
+        if (lastColumns == null) throw new IllegalStateException("The layer has to compute an output before propagating backwards.");
+        int positions = OUTPUT_SIZE * OUTPUT_SIZE;
+        int kernelLength = getKernelLength();
+        if (weightGradients == null) {
+            weightGradients = new double[WEIGHTS.length];
+            biasGradients = new double[BIASES.length];
+        }
+
+        //∂C/∂z for every output
+        double[] gradientFactors = new double[outputGradient.length];
+        for (int i = 0; i < gradientFactors.length; i++) {
+            gradientFactors[i] = outputGradient[i] * ACTIVATION_FUNCTION.computeDerivative(lastWeightedInputSums[i]);
+        }
+
+        //∂C/∂w = ∂C/∂z * columns^T
+        Matrix.multiply(gradientFactors, Matrix.transpose(lastColumns, kernelLength, positions), weightGradients, OUTPUT_CHANNELS, positions, kernelLength);
+        for (int f = 0; f < OUTPUT_CHANNELS; f++) {
+            for (int p = 0; p < positions; p++) {
+                biasGradients[f] += gradientFactors[f * positions + p];
+            }
+        }
+        accumulatedGradients++;
+
+        //∂C/∂x = col2im(w^T * ∂C/∂z)
+        double[] columnGradients = new double[lastColumns.length];
+        Matrix.multiply(Matrix.transpose(WEIGHTS, OUTPUT_CHANNELS, kernelLength), gradientFactors, columnGradients, kernelLength, OUTPUT_CHANNELS, positions);
+        return Matrix.col2im(columnGradients, INPUT_CHANNELS, INPUT_SIZE, KERNEL_SIZE, STRIDE, PADDING);
+    }
+
+    @Override
+    public void nudgeParameters(double learningRate) {
+        if (accumulatedGradients == 0) return;
+        //subtract averaged gradient multiplied by learning rate from each parameter to nudge it towards local minimum
+        for (int i = 0; i < WEIGHTS.length; i++) {
+            WEIGHTS[i] -= weightGradients[i] / accumulatedGradients * learningRate;
+        }
+        for (int f = 0; f < BIASES.length; f++) {
+            BIASES[f] -= biasGradients[f] / accumulatedGradients * learningRate;
+        }
+    }
+
+    @Override
+    public void clearGradients() {
+        if (weightGradients != null) {
+            Arrays.fill(weightGradients, 0);
+            Arrays.fill(biasGradients, 0);
+        }
+        accumulatedGradients = 0;
+    }
+
+    @Override
+    public long getOperationCount() {
+        return (long) WEIGHTS.length * OUTPUT_SIZE * OUTPUT_SIZE;
+    }
+}
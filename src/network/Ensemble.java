@@ -0,0 +1,146 @@
+package network;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Several networks with the same labels that evaluate the same image and combine their results.
+ * The members are evaluated concurrently, one of them on the calling thread, so an ensemble must not be used by several threads at once.
+ */
+public class Ensemble implements AutoCloseable {
+
+    public enum CombinationMethod {
+        /**
+         * The certainty of a label is its average certainty over all members.
+         */
+        AVERAGE,
+        /**
+         * The certainty of a label is the share of members that recognized it.
+         */
+        VOTE
+    }
+
+    private final Network[] MEMBERS;
+    private final char[] LABELS;
+    private final CombinationMethod COMBINATION_METHOD;
+
+    /**
+     * Evaluates all members but the first, null if the members are evaluated one after another.
+     */
+    private final ExecutorService EXECUTOR;
+
+    /**
+     * @param members The networks to be combined, they all need the same labels in the same order and the same image resolution.
+     * @param combinationMethod How the results of the members are combined.
+     * @param parallel Whether the members are evaluated concurrently.
+     */
+    public Ensemble(List<Network> members, CombinationMethod combinationMethod, boolean parallel) {
+        if (members.isEmpty()) throw new IllegalArgumentException("An ensemble needs at least one network.");
+        MEMBERS = members.toArray(new Network[0]);
+        LABELS = MEMBERS[0].getLabels();
+        for (Network member : MEMBERS) {
+            if (!Arrays.equals(member.getLabels(), LABELS)) throw new IllegalArgumentException("All networks of an ensemble need the same labels.");
+            if (member.getImageResolution() != MEMBERS[0].getImageResolution()) throw new IllegalArgumentException("All networks of an ensemble need the same image resolution.");
+        }
+        COMBINATION_METHOD = combinationMethod;
+
+        if (parallel && MEMBERS.length > 1) {
+            EXECUTOR = Executors.newFixedThreadPool(MEMBERS.length - 1, runnable -> {
+                Thread thread = new Thread(runnable, "ensemble member");
+                thread.setDaemon(true);
+                return thread;
+            });
+        } else {
+            EXECUTOR = null;
+        }
+    }
+
+    /**
+     * @param image The image to be evaluated, it is shared by all members.
+     * @return The combined certainty of every label in the order of {@link network.Network#getLabels()}.
+     */
+    public double[] getProbabilities(double[] image) {
+        double[][] memberProbabilities = new double[MEMBERS.length][];
+        if (EXECUTOR != null) {
+            List<Future<double[]>> futures = new ArrayList<>(MEMBERS.length - 1);
+            for (int m = 1; m < MEMBERS.length; m++) {
+                Network member = MEMBERS[m];
+                futures.add(EXECUTOR.submit(() -> member.getProbabilities(image)));
+            }
+            memberProbabilities[0] = MEMBERS[0].getProbabilities(image);
+            try {
+                for (int m = 1; m < MEMBERS.length; m++) {
+                    memberProbabilities[m] = futures.get(m - 1).get();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            } catch (ExecutionException e) {
+                throw new RuntimeException(e.getCause());
+            }
+        } else {
+            for (int m = 0; m < MEMBERS.length; m++) {
+                memberProbabilities[m] = MEMBERS[m].getProbabilities(image);
+            }
+        }
+
+        double[] probabilities = new double[LABELS.length];
+        for (double[] member : memberProbabilities) {
+            if (COMBINATION_METHOD == CombinationMethod.AVERAGE) {
+                for (int i = 0; i < probabilities.length; i++) {
+                    probabilities[i] += member[i] / MEMBERS.length;
+                }
+            } else {
+                int vote = 0;
+                for (int i = 1; i < member.length; i++) {
+                    if (member[i] > member[vote]) vote = i;
+                }
+                probabilities[vote] += 1.0d / MEMBERS.length;
+            }
+        }
+        return probabilities;
+    }
+
+    /**
+     * @param image The image to be evaluated.
+     * @return The label with the highest combined certainty and its certainty.
+     */
+    public Map.Entry<Character, Double> evaluate(double[] image) {
+        return evaluate(image, 1).get(0);
+    }
+
+    /**
+     * @param image The image to be evaluated.
+     * @param k The number of labels to be returned.
+     * @return The k labels with the highest combined certainty, ordered by certainty.
+     */
+    public List<Map.Entry<Character, Double>> evaluate(double[] image, int k) {
+        double[] probabilities = getProbabilities(image);
+        Integer[] order = new Integer[probabilities.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        //the stable sort keeps ties in label order, e.g. when votes are split evenly
+        Arrays.sort(order, Comparator.comparingDouble((Integer i) -> probabilities[i]).reversed());
+
+        List<Map.Entry<Character, Double>> predictions = new ArrayList<>(Math.min(k, order.length));
+        for (int i = 0; i < Math.min(k, order.length); i++) {
+            predictions.add(new AbstractMap.SimpleImmutableEntry<>(LABELS[order[i]], probabilities[order[i]]));
+        }
+        return predictions;
+    }
+
+    public int size() {
+        return MEMBERS.length;
+    }
+
+    /**
+     * Stops the threads evaluating the members.
+     */
+    @Override
+    public void close() {
+        if (EXECUTOR != null) {
+            EXECUTOR.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package network;
+
+import java.io.Serializable;
+
+/**
+ * A layer working on square multi-channel feature maps that is placed in front of the fully connected {@link network.Neuron} layers of a {@link network.Network}.
+ */
+public abstract class FeatureLayer implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    protected final int INPUT_CHANNELS;
+    protected final int INPUT_SIZE;
+    protected final int OUTPUT_CHANNELS;
+    protected final int OUTPUT_SIZE;
+
+    protected FeatureLayer(int inputChannels, int inputSize, int outputChannels, int outputSize) {
+        if (outputSize < 1) throw new IllegalArgumentException("A feature layer with an input of " + inputSize + "x" + inputSize + " has no outputs.");
+        INPUT_CHANNELS = inputChannels;
+        INPUT_SIZE = inputSize;
+        OUTPUT_CHANNELS = outputChannels;
+        OUTPUT_SIZE = outputSize;
+    }
+
+    /**
+     * Computes the output of this layer and remembers everything needed for {@link network.FeatureLayer#backward(double[])}.
+     * @param input The input in channel-major order.
+     * @return The output in channel-major order.
+     */
+    public double[] forward(double[] input) {
+        return forward(input, true);
+    }
+
+    /**
+     * @param input The input in channel-major order.
+     * @param training Whether everything needed for {@link network.FeatureLayer#backward(double[])} is remembered.
+     *                 If not, the layer isn't changed, so it can be called by several threads at the same time.
+     * @return The output in channel-major order.
+     */
+    public abstract double[] forward(double[] input, boolean training);
+
+    /**
+     * Adds the parameter gradients for the last input given to {@link network.FeatureLayer#forward(double[])}.
+     * @param outputGradient The derivative of the cost with respect to every output of this layer.
+     * @return The derivative of the cost with respect to every input of this layer.
+     */
+    public abstract double[] backward(double[] outputGradient);
+
+    /**
+     * Nudges the parameters based on the averages of the gradients per batch.
+     * @param learningRate The learning rate of the network used to scale the gradients.
+     */
+    public void nudgeParameters(double learningRate) {
+    }
+
+    /**
+     * Clears all gradients accumulated for respective batch.
+     */
+    public void clearGradients() {
+    }
+
+    /**
+     * @return The number of multiply-add operations needed for a single input.
+     */
+    public abstract long getOperationCount();
+
+    public int getInputLength() {
+        return INPUT_CHANNELS * INPUT_SIZE * INPUT_SIZE;
+    }
+
+    public int getOutputLength() {
+        return OUTPUT_CHANNELS * OUTPUT_SIZE * OUTPUT_SIZE;
+    }
+
+    public int getOutputChannels() {
+        return OUTPUT_CHANNELS;
+    }
+
+    public int getOutputSize() {
+        return OUTPUT_SIZE;
+    }
+}
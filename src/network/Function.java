@@ -7,6 +7,11 @@ import java.io.Serializable;
  */
 public class Function implements Serializable {
 
+    /**
+     * Kept at the value computed for the first saved models so that they can still be loaded.
+     */
+    private static final long serialVersionUID = 6772212697529508496L;
+
     /**
      * Represents the possible functions that an instance of this class can compute.
      */
@@ -0,0 +1,111 @@
+package network;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * How a {@link network.ParameterWorker} encodes the change of its parameters for the {@link network.ParameterServer}.
+ * Whatever is lost by the encoding is kept in a residual that is added to the changes of the next round, so it only delays small changes instead of dropping them.
+ */
+public enum GradientCompression {
+    /**
+     * Every change as a double.
+     */
+    NONE,
+    /**
+     * Every change as a float, which halves the size.
+     */
+    FLOAT,
+    /**
+     * Only the given share of changes with the largest magnitude as a float together with its index.
+     */
+    TOP_K;
+
+    /**
+     * @param outputStream The stream the changes are written to.
+     * @param changes The change of every parameter.
+     * @param residuals What has been lost by encoding earlier changes, it is added to the changes and replaced by what is lost this time.
+     * @param topKShare The share of changes written by {@link network.GradientCompression#TOP_K}.
+     * @throws IOException if the stream cannot be written.
+     */
+    public void write(DataOutputStream outputStream, double[] changes, double[] residuals, double topKShare) throws IOException {
+        outputStream.writeByte(ordinal());
+        switch (this) {
+            case NONE -> {
+                for (double change : changes) {
+                    outputStream.writeDouble(change);
+                }
+            }
+            case FLOAT -> {
+                for (int i = 0; i < changes.length; i++) {
+                    double change = changes[i] + residuals[i];
+                    float encodedChange = (float) change;
+                    outputStream.writeFloat(encodedChange);
+                    residuals[i] = change - encodedChange;
+                }
+            }
+            case TOP_K -> {
+                double[] totalChanges = new double[changes.length];
+                double[] magnitudes = new double[changes.length];
+                for (int i = 0; i < changes.length; i++) {
+                    totalChanges[i] = changes[i] + residuals[i];
+                    magnitudes[i] = Math.abs(totalChanges[i]);
+                }
+                int k = (int) Math.max(1, Math.min(changes.length, Math.ceil(changes.length * topKShare)));
+                Arrays.sort(magnitudes);
+                double threshold = magnitudes[changes.length - k];
+
+                //ties at the threshold may exceed k, so only the first k are written
+                outputStream.writeInt(k);
+                int written = 0;
+                for (int i = 0; i < changes.length; i++) {
+                    if (written < k && Math.abs(totalChanges[i]) >= threshold) {
+                        float encodedChange = (float) totalChanges[i];
+                        outputStream.writeInt(i);
+                        outputStream.writeFloat(encodedChange);
+                        residuals[i] = totalChanges[i] - encodedChange;
+                        written++;
+                    } else {
+                        residuals[i] = totalChanges[i];
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @param inputStream The stream the changes are read from, starting with the compression they have been written with.
+     * @param length The number of parameters.
+     * @return The change of every parameter.
+     * @throws IOException if the stream cannot be read or holds an unknown compression.
+     */
+    public static double[] read(DataInputStream inputStream, int length) throws IOException {
+        int compression = inputStream.readByte();
+        if (compression < 0 || compression >= values().length) throw new IOException("Unknown gradient compression " + compression + ".");
+
+        double[] changes = new double[length];
+        switch (values()[compression]) {
+            case NONE -> {
+                for (int i = 0; i < length; i++) {
+                    changes[i] = inputStream.readDouble();
+                }
+            }
+            case FLOAT -> {
+                for (int i = 0; i < length; i++) {
+                    changes[i] = inputStream.readFloat();
+                }
+            }
+            case TOP_K -> {
+                int count = inputStream.readInt();
+                for (int i = 0; i < count; i++) {
+                    int index = inputStream.readInt();
+                    if (index < 0 || index >= length) throw new IOException("Parameter index " + index + " is out of range.");
+                    changes[index] = inputStream.readFloat();
+                }
+            }
+        }
+        return changes;
+    }
+}
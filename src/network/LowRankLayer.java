@@ -0,0 +1,262 @@
+package network;
+
+import java.io.Serial;
+import java.io.Serializable;
+
+/**
+ * The weights of a fully connected layer of {@link network.Neuron}s factorized into two thin matrices with a truncated singular value decomposition,
+ * so that a layer with n inputs and m neurons needs rank * (n + m) instead of n * m weights and multiply-add operations.
+ * The inputs are first projected onto the rank directions that carry most of the weights and the neurons combine the projections.
+ * Like in a {@link network.CompressedLayer} every row of the projection holds the weights of one input node, so inputs that are 0 are skipped.
+ */
+public class LowRankLayer implements Serializable {
+
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    private final int INPUTS;
+    private final int NEURONS;
+    private final int RANK;
+
+    /**
+     * Weights of every input for every projection (inputs x rank).
+     */
+    private final double[] PROJECTIONS;
+
+    /**
+     * Weights of every projection for every neuron (neurons x rank).
+     */
+    private final double[] COMBINATIONS;
+
+    /**
+     * Share of the squared weights of the original layer (the sum of the squared singular values) kept by the factorization.
+     */
+    private final double RETAINED_ENERGY;
+
+    private transient double[] projectionGradientSums;
+    private transient double[] combinationGradientSums;
+    private transient int gradientCount;
+
+    /**
+     * @param layer The neurons whose weights are factorized.
+     * @param rank The number of singular values that are kept.
+     */
+    public LowRankLayer(Neuron[] layer, int rank) {
+        INPUTS = layer.length == 0 ? 0 : layer[0].getWeights().length;
+        NEURONS = layer.length;
+        if (rank < 1 || rank > Math.min(INPUTS, NEURONS)) throw new IllegalArgumentException("The rank has to be between 1 & " + Math.min(INPUTS, NEURONS) + ".");
+        RANK = rank;
+        PROJECTIONS = new double[INPUTS * RANK];
+        COMBINATIONS = new double[NEURONS * RANK];
+
+        double[] weights = new double[NEURONS * INPUTS];
+        for (int j = 0; j < NEURONS; j++) {
+            System.arraycopy(layer[j].getWeights(), 0, weights, j * INPUTS, INPUTS);
+        }
+
+        //the singular vectors of the smaller side are the eigenvectors of its Gram matrix, the singular values the roots of its eigenvalues
+        boolean neuronSide = NEURONS <= INPUTS;
+        int size = neuronSide ? NEURONS : INPUTS;
+        double[] gram = new double[size * size];
+        if (neuronSide) {
+            Matrix.multiply(weights, Matrix.transpose(weights, NEURONS, INPUTS), gram, NEURONS, INPUTS, NEURONS);
+        } else {
+            Matrix.multiply(Matrix.transpose(weights, NEURONS, INPUTS), weights, gram, INPUTS, NEURONS, INPUTS);
+        }
+        double[] eigenvalues = new double[size];
+        double[] eigenvectors = Matrix.symmetricEigenvectors(gram, size, eigenvalues);
+
+        if (neuronSide) {
+            //W ≈ U_r * (U_r^T * W), the neurons combine the projections onto the left singular vectors
+            for (int j = 0; j < NEURONS; j++) {
+                for (int k = 0; k < RANK; k++) {
+                    COMBINATIONS[j * RANK + k] = eigenvectors[k * size + j];
+                }
+            }
+            for (int k = 0; k < RANK; k++) {
+                for (int j = 0; j < NEURONS; j++) {
+                    double u = eigenvectors[k * size + j];
+                    if (u == 0) continue;
+                    for (int i = 0; i < INPUTS; i++) {
+                        PROJECTIONS[i * RANK + k] += u * weights[j * INPUTS + i];
+                    }
+                }
+            }
+        } else {
+            //W ≈ (W * V_r) * V_r^T, the inputs are projected onto the right singular vectors
+            for (int i = 0; i < INPUTS; i++) {
+                for (int k = 0; k < RANK; k++) {
+                    PROJECTIONS[i * RANK + k] = eigenvectors[k * size + i];
+                }
+            }
+            for (int j = 0; j < NEURONS; j++) {
+                for (int k = 0; k < RANK; k++) {
+                    double sum = 0;
+                    for (int i = 0; i < INPUTS; i++) {
+                        sum += weights[j * INPUTS + i] * eigenvectors[k * size + i];
+                    }
+                    COMBINATIONS[j * RANK + k] = sum;
+                }
+            }
+        }
+
+        //split every singular value evenly between both matrices, otherwise the gradients of the unit vectors are scaled by it and fine-tuning diverges
+        for (int k = 0; k < RANK; k++) {
+            double scale = Math.sqrt(Math.sqrt(Math.max(eigenvalues[k], 0)));
+            double unitScale = scale;
+            double otherScale = scale > 0 ? 1 / scale : 0;
+            for (int i = 0; i < INPUTS; i++) {
+                PROJECTIONS[i * RANK + k] *= neuronSide ? otherScale : unitScale;
+            }
+            for (int j = 0; j < NEURONS; j++) {
+                COMBINATIONS[j * RANK + k] *= neuronSide ? unitScale : otherScale;
+            }
+        }
+
+        double totalEnergy = 0;
+        double retainedEnergy = 0;
+        for (int k = 0; k < size; k++) {
+            double energy = Math.max(eigenvalues[k], 0);
+            totalEnergy += energy;
+            if (k < RANK) retainedEnergy += energy;
+        }
+        RETAINED_ENERGY = totalEnergy > 0 ? retainedEnergy / totalEnergy : 1;
+    }
+
+    /**
+     * @param input The outputs of the previous layer.
+     * @return The projections of the input onto every direction.
+     */
+    private double[] project(double[] input) {
+        double[] projections = new double[RANK];
+        for (int i = 0; i < INPUTS; i++) {
+            double value = input[i];
+            if (value == 0) continue;
+            int rowOffset = i * RANK;
+            for (int k = 0; k < RANK; k++) {
+                projections[k] += PROJECTIONS[rowOffset + k] * value;
+            }
+        }
+        return projections;
+    }
+
+    /**
+     * @param input The outputs of the previous layer.
+     * @return The weighted sum of the inputs for every neuron.
+     */
+    public double[] multiply(double[] input) {
+        if (input.length != INPUTS) throw new IllegalArgumentException("Expected " + INPUTS + " inputs but got " + input.length + ".");
+        double[] projections = project(input);
+        double[] weightedSums = new double[NEURONS];
+        for (int j = 0; j < NEURONS; j++) {
+            int rowOffset = j * RANK;
+            double sum = 0;
+            for (int k = 0; k < RANK; k++) {
+                sum += COMBINATIONS[rowOffset + k] * projections[k];
+            }
+            weightedSums[j] = sum;
+        }
+        return weightedSums;
+    }
+
+    /**
+     * @param gradientFactors The derivative of the cost with respect to the weighted input sum of every neuron (∂C/∂z).
+     * @return The derivative of the cost with respect to every projection.
+     */
+    private double[] getProjectionGradients(double[] gradientFactors) {
+        double[] projectionGradients = new double[RANK];
+        for (int j = 0; j < NEURONS; j++) {
+            double gradientFactor = gradientFactors[j];
+            if (gradientFactor == 0) continue;
+            int rowOffset = j * RANK;
+            for (int k = 0; k < RANK; k++) {
+                projectionGradients[k] += gradientFactor * COMBINATIONS[rowOffset + k];
+            }
+        }
+        return projectionGradients;
+    }
+
+    /**
+     * Adds the gradients of both matrices for a single image.
+     * @param gradientFactors The derivative of the cost with respect to the weighted input sum of every neuron (∂C/∂z).
+     * @param input The outputs of the previous layer.
+     */
+    public void addGradients(double[] gradientFactors, double[] input) {
+        if (projectionGradientSums == null) {
+            projectionGradientSums = new double[PROJECTIONS.length];
+            combinationGradientSums = new double[COMBINATIONS.length];
+        }
+
+        double[] projections = project(input);
+        for (int j = 0; j < NEURONS; j++) {
+            int rowOffset = j * RANK;
+            for (int k = 0; k < RANK; k++) {
+                combinationGradientSums[rowOffset + k] += gradientFactors[j] * projections[k];
+            }
+        }
+        double[] projectionGradients = getProjectionGradients(gradientFactors);
+        for (int i = 0; i < INPUTS; i++) {
+            double value = input[i];
+            if (value == 0) continue;
+            int rowOffset = i * RANK;
+            for (int k = 0; k < RANK; k++) {
+                projectionGradientSums[rowOffset + k] += value * projectionGradients[k];
+            }
+        }
+        gradientCount++;
+    }
+
+    /**
+     * @param gradientFactors The derivative of the cost with respect to the weighted input sum of every neuron (∂C/∂z).
+     * @return The derivative of the cost with respect to every input (∂C/∂a).
+     */
+    public double[] getActivationGradients(double[] gradientFactors) {
+        double[] projectionGradients = getProjectionGradients(gradientFactors);
+        double[] activationGradients = new double[INPUTS];
+        for (int i = 0; i < INPUTS; i++) {
+            int rowOffset = i * RANK;
+            double sum = 0;
+            for (int k = 0; k < RANK; k++) {
+                sum += PROJECTIONS[rowOffset + k] * projectionGradients[k];
+            }
+            activationGradients[i] = sum;
+        }
+        return activationGradients;
+    }
+
+    /**
+     * Nudges both matrices based on the averages of the gradients of the batch and clears them for the next one.
+     * @param learningRate The learning rate of the network used to scale the gradients.
+     */
+    public void nudgeWeights(double learningRate) {
+        if (gradientCount == 0) return;
+
+        for (int i = 0; i < PROJECTIONS.length; i++) {
+            PROJECTIONS[i] -= projectionGradientSums[i] / gradientCount * learningRate;
+            projectionGradientSums[i] = 0;
+        }
+        for (int i = 0; i < COMBINATIONS.length; i++) {
+            COMBINATIONS[i] -= combinationGradientSums[i] / gradientCount * learningRate;
+            combinationGradientSums[i] = 0;
+        }
+        gradientCount = 0;
+    }
+
+    public int getRank() {
+        return RANK;
+    }
+
+    /**
+     * @return The number of weights of both matrices.
+     */
+    public int getWeightCount() {
+        return PROJECTIONS.length + COMBINATIONS.length;
+    }
+
+    /**
+     * @return The share of the squared weights of the original layer kept by the factorization, 1 if nothing has been lost.
+     */
+    public double getRetainedEnergy() {
+        return RETAINED_ENERGY;
+    }
+}
@@ -0,0 +1,241 @@
+package network;
+
+import java.util.Arrays;
+
+/**
+ * Row-major matrix kernels used by the {@link network.FeatureLayer}s ({@link network.Matrix#im2col(double[], int, int, int, int, int)} and a blocked {@link network.Matrix#multiply(double[], double[], double[], int, int, int)})
+ * and by {@link network.LowRankLayer} ({@link network.Matrix#symmetricEigenvectors(double[], int, double[])}).
+ */
+public final class Matrix {
+
+    /**
+     * Edge length of the square tiles used by {@link network.Matrix#multiply(double[], double[], double[], int, int, int)}, chosen so that three tiles of doubles fit into a typical L1 cache.
+     */
+    private static final int BLOCK_SIZE = 32;
+
+    /**
+     * The Jacobi rotations stop once the off-diagonal entries are this small relative to the whole matrix, or after {@link network.Matrix#MAX_JACOBI_SWEEPS} sweeps.
+     */
+    private static final double JACOBI_TOLERANCE = 1e-12;
+    private static final int MAX_JACOBI_SWEEPS = 50;
+
+    private Matrix() {
+    }
+
+    /**
+     * @param inputSize The width and height of the square input.
+     * @param kernelSize The width and height of the square kernel.
+     * @param stride The distance between two kernel positions.
+     * @param padding The number of zero pixels added on each side of the input.
+     * @return The width and height of the square output.
+     */
+    public static int outputSize(int inputSize, int kernelSize, int stride, int padding) {
+        return (inputSize + 2 * padding - kernelSize) / stride + 1;
+    }
+
+    /**
+     * Unfolds every kernel position of the input into a column so that a convolution becomes a single matrix product.
+     * @param input The input in channel-major order (channels x size x size).
+     * @param channels The number of channels of the input.
+     * @param size The width and height of the input.
+     * @param kernelSize The width and height of the kernel.
+     * @param stride The distance between two kernel positions.
+     * @param padding The number of zero pixels added on each side of the input.
+     * @return A (channels * kernelSize * kernelSize) x (outputSize * outputSize) matrix.
+     */
+    public static double[] im2col(double[] input, int channels, int size, int kernelSize, int stride, int padding) {
+        int outputSize = outputSize(size, kernelSize, stride, padding);
+        int columns = outputSize * outputSize;
+        double[] col = new double[channels * kernelSize * kernelSize * columns];
+
+        int row = 0;
+        for (int c = 0; c < channels; c++) {
+            for (int ky = 0; ky < kernelSize; ky++) {
+                for (int kx = 0; kx < kernelSize; kx++) {
+                    int rowOffset = row * columns;
+                    for (int oy = 0; oy < outputSize; oy++) {
+                        int y = oy * stride + ky - padding;
+                        if (y < 0 || y >= size) continue;
+                        int inputOffset = (c * size + y) * size;
+                        for (int ox = 0; ox < outputSize; ox++) {
+                            int x = ox * stride + kx - padding;
+                            if (x < 0 || x >= size) continue;
+                            col[rowOffset + oy * outputSize + ox] = input[inputOffset + x];
+                        }
+                    }
+                    row++;
+                }
+            }
+        }
+
+        return col;
+    }
+
+    /**
+     * Inverse of {@link network.Matrix#im2col(double[], int, int, int, int, int)}: sums every column entry back into the position of the input it was taken from.
+     * @param col The unfolded matrix.
+     * @param channels The number of channels of the input.
+     * @param size The width and height of the input.
+     * @param kernelSize The width and height of the kernel.
+     * @param stride The distance between two kernel positions.
+     * @param padding The number of zero pixels added on each side of the input.
+     * @return The folded input in channel-major order.
+     */
+    public static double[] col2im(double[] col, int channels, int size, int kernelSize, int stride, int padding) {
+        int outputSize = outputSize(size, kernelSize, stride, padding);
+        int columns = outputSize * outputSize;
+        double[] image = new double[channels * size * size];
+
+        int row = 0;
+        for (int c = 0; c < channels; c++) {
+            for (int ky = 0; ky < kernelSize; ky++) {
+                for (int kx = 0; kx < kernelSize; kx++) {
+                    int rowOffset = row * columns;
+                    for (int oy = 0; oy < outputSize; oy++) {
+                        int y = oy * stride + ky - padding;
+                        if (y < 0 || y >= size) continue;
+                        int imageOffset = (c * size + y) * size;
+                        for (int ox = 0; ox < outputSize; ox++) {
+                            int x = ox * stride + kx - padding;
+                            if (x < 0 || x >= size) continue;
+                            image[imageOffset + x] += col[rowOffset + oy * outputSize + ox];
+                        }
+                    }
+                    row++;
+                }
+            }
+        }
+
+        return image;
+    }
+
+    /**
+     * Blocked matrix product c += a * b.
+     * @param a The left matrix (m x k).
+     * @param b The right matrix (k x n).
+     * @param c The matrix the product is added to (m x n).
+     * @param m The number of rows of a and c.
+     * @param k The number of columns of a and rows of b.
+     * @param n The number of columns of b and c.
+     */
+    public static void multiply(double[] a, double[] b, double[] c, int m, int k, int n) {
+        for (int i0 = 0; i0 < m; i0 += BLOCK_SIZE) {
+            int iMax = Math.min(i0 + BLOCK_SIZE, m);
+            for (int p0 = 0; p0 < k; p0 += BLOCK_SIZE) {
+                int pMax = Math.min(p0 + BLOCK_SIZE, k);
+                for (int j0 = 0; j0 < n; j0 += BLOCK_SIZE) {
+                    int jMax = Math.min(j0 + BLOCK_SIZE, n);
+                    for (int i = i0; i < iMax; i++) {
+                        int aOffset = i * k;
+                        int cOffset = i * n;
+                        for (int p = p0; p < pMax; p++) {
+                            double aValue = a[aOffset + p];
+                            if (aValue == 0) continue;
+                            int bOffset = p * n;
+                            //innermost loop runs over contiguous memory of b and c so the JIT can vectorize it
+                            for (int j = j0; j < jMax; j++) {
+                                c[cOffset + j] += aValue * b[bOffset + j];
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @param a The matrix to be transposed (rows x columns).
+     * @param rows The number of rows of a.
+     * @param columns The number of columns of a.
+     * @return The transposed matrix (columns x rows).
+     */
+    public static double[] transpose(double[] a, int rows, int columns) {
+        double[] transposed = new double[a.length];
+        for (int i0 = 0; i0 < rows; i0 += BLOCK_SIZE) {
+            int iMax = Math.min(i0 + BLOCK_SIZE, rows);
+            for (int j0 = 0; j0 < columns; j0 += BLOCK_SIZE) {
+                int jMax = Math.min(j0 + BLOCK_SIZE, columns);
+                for (int i = i0; i < iMax; i++) {
+                    for (int j = j0; j < jMax; j++) {
+                        transposed[j * rows + i] = a[i * columns + j];
+                    }
+                }
+            }
+        }
+        return transposed;
+    }
+
+    /**
+     * Computes all eigenvalues and eigenvectors of a symmetric matrix with cyclic Jacobi rotations, which is exact up to rounding and fast enough for the size of a layer.
+     * @param a The symmetric matrix (n x n), it is not changed.
+     * @param n The number of rows and columns of a.
+     * @param eigenvalues The array the n eigenvalues are written to, in descending order.
+     * @return The eigenvectors as rows (n x n), in the order of the eigenvalues.
+     */
+    public static double[] symmetricEigenvectors(double[] a, int n, double[] eigenvalues) {
+        double[] d = a.clone();
+        double[] v = new double[n * n];
+        for (int i = 0; i < n; i++) {
+            v[i * n + i] = 1;
+        }
+
+        double norm = 0;
+        for (double value : d) {
+            norm += value * value;
+        }
+        for (int sweep = 0; sweep < MAX_JACOBI_SWEEPS; sweep++) {
+            double offDiagonal = 0;
+            for (int p = 0; p < n; p++) {
+                for (int q = p + 1; q < n; q++) {
+                    offDiagonal += d[p * n + q] * d[p * n + q];
+                }
+            }
+            if (offDiagonal <= JACOBI_TOLERANCE * JACOBI_TOLERANCE * norm) break;
+
+            for (int p = 0; p < n; p++) {
+                for (int q = p + 1; q < n; q++) {
+                    double apq = d[p * n + q];
+                    if (apq == 0) continue;
+                    //rotation that sets the entry at (p, q) to 0
+                    double theta = (d[q * n + q] - d[p * n + p]) / (2 * apq);
+                    double t = Math.signum(theta) / (Math.abs(theta) + Math.sqrt(theta * theta + 1));
+                    if (theta == 0) t = 1;
+                    double c = 1 / Math.sqrt(t * t + 1);
+                    double s = t * c;
+                    for (int k = 0; k < n; k++) {
+                        double dkp = d[k * n + p];
+                        double dkq = d[k * n + q];
+                        d[k * n + p] = c * dkp - s * dkq;
+                        d[k * n + q] = s * dkp + c * dkq;
+                    }
+                    for (int k = 0; k < n; k++) {
+                        double dpk = d[p * n + k];
+                        double dqk = d[q * n + k];
+                        d[p * n + k] = c * dpk - s * dqk;
+                        d[q * n + k] = s * dpk + c * dqk;
+                    }
+                    //the eigenvectors are the rows of v
+                    for (int k = 0; k < n; k++) {
+                        double vpk = v[p * n + k];
+                        double vqk = v[q * n + k];
+                        v[p * n + k] = c * vpk - s * vqk;
+                        v[q * n + k] = s * vpk + c * vqk;
+                    }
+                }
+            }
+        }
+
+        //sort by descending eigenvalue
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (i, j) -> Double.compare(d[j * n + j], d[i * n + i]));
+        double[] eigenvectors = new double[n * n];
+        for (int i = 0; i < n; i++) {
+            eigenvalues[i] = d[order[i] * n + order[i]];
+            System.arraycopy(v, order[i] * n, eigenvectors, i * n, n);
+        }
+        return eigenvectors;
+    }
+}
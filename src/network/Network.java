@@ -1,19 +1,124 @@
 package network;
 
+import filehandling.Configuration;
+import filehandling.FileHandler;
+
 import java.io.*;
 import java.util.*;
-
-import static main.Main.FILE_HANDLER;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 public class Network implements Serializable {
+
+    /**
+     * Kept at the value computed for the first saved models so that they can still be loaded.
+     */
+    private static final long serialVersionUID = 1764855777049144698L;
+
     private final double LEARNING_RATE;
     private final int BATCH_SIZE;
     private final Neuron[][] LAYERS;
 
+    /**
+     * Width and height of the images the network evaluates (not final since models saved before its introduction don't contain it).
+     */
+    private int imageResolution;
+
+    /**
+     * Convolution and pooling layers applied to the image before it is given to the input layer (not final since models saved before their introduction don't contain them).
+     */
+    private FeatureLayer[] featureLayers;
+
+    /**
+     * Highest share of non-zero inputs for which the first layer only reads the non-zero inputs, above it the index lookups cost more than the skipped multiplications.
+     */
+    private static final double SPARSE_INPUT_DENSITY_THRESHOLD = 0.5;
+
+    /**
+     * Highest share of non-zero weights for which a pruned layer is stored as a {@link network.CompressedLayer}.
+     */
+    private static final double COMPRESSED_WEIGHT_DENSITY_THRESHOLD = 0.5;
+
+    /**
+     * The compressed weights of every pruned layer, null for layers that are stored in their {@link network.Neuron}s (not final since models saved before their introduction don't contain them).
+     */
+    private CompressedLayer[] compressedLayers;
+
+    /**
+     * The weights of every layer that has been moved off the heap, null for layers that are stored in their {@link network.Neuron}s (not final since models saved before their introduction don't contain them).
+     */
+    private OffHeapLayer[] offHeapLayers;
+
+    /**
+     * The batch normalization of every hidden layer it has been enabled for, null for other layers (not final since models saved before its introduction don't contain it).
+     */
+    private BatchNormLayer[] batchNormLayers;
+
+    /**
+     * The factorized weights of every layer that has been factorized, null for other layers (not final since models saved before their introduction don't contain them).
+     */
+    private LowRankLayer[] lowRankLayers;
+
+    /**
+     * Ascending indices of the non-zero input nodes for the last computed image or null if the image was too dense.
+     */
+    private transient int[] activeInputs;
+
+    private transient PredictionCache predictionCache;
+
+    /**
+     * Smallest number of multiply-add operations of a layer for which {@link network.Network#enableParallelCompute(ForkJoinPool, long)} splits its neurons across threads by default.
+     */
+    public static final long DEFAULT_PARALLEL_OPERATION_THRESHOLD = 1 << 18;
+
+    /**
+     * Smallest number of multiply-add operations computed by a single task when a layer is split across threads.
+     */
+    private static final long MIN_TASK_OPERATIONS = 1 << 15;
+
+    /**
+     * The pool computing the neurons of large layers in parallel, null if every layer is computed on the calling thread.
+     */
+    private transient ForkJoinPool parallelPool;
+    private transient long parallelOperationThreshold;
+
+    /**
+     * Whether batches are trained as matrices even without batch normalization, see {@link network.Network#setMatrixTraining(boolean)}.
+     */
+    private transient boolean matrixTraining;
+
     public Network(double learningRate, int batchSize, int inputLayerSize, int outputLayerSize, int... hiddenLayerSizes) {
+        this(learningRate, batchSize, inputLayerSize, outputLayerSize, new FeatureLayer[0], hiddenLayerSizes);
+    }
+
+    /**
+     * @param learningRate The learning rate used to scale the gradients.
+     * @param batchSize The number of images after which the parameters are nudged.
+     * @param imageSize The number of pixels of an input image, which has to be square.
+     * @param outputLayerSize The number of nodes in the output layer.
+     * @param featureLayers The convolution and pooling layers applied to the image in the given order, the input layer is sized to the output of the last one.
+     * @param hiddenLayerSizes The number of nodes of every fully connected hidden layer.
+     */
+    public Network(double learningRate, int batchSize, int imageSize, int outputLayerSize, FeatureLayer[] featureLayers, int... hiddenLayerSizes) {
         LEARNING_RATE = learningRate;
         BATCH_SIZE = batchSize;
+        this.featureLayers = featureLayers.clone();
+        imageResolution = getResolution(imageSize);
+
+        //check that the feature layers fit together
+        int inputLayerSize = imageSize;
+        for (FeatureLayer featureLayer : featureLayers) {
+            if (featureLayer.getInputLength() != inputLayerSize) {
+                throw new IllegalArgumentException("A feature layer expecting " + featureLayer.getInputLength() + " inputs cannot follow a layer with " + inputLayerSize + " outputs.");
+            }
+            inputLayerSize = featureLayer.getOutputLength();
+        }
+
         LAYERS = new Neuron[1 + hiddenLayerSizes.length + 1][];
+        compressedLayers = new CompressedLayer[LAYERS.length];
+        offHeapLayers = new OffHeapLayer[LAYERS.length];
+        batchNormLayers = new BatchNormLayer[LAYERS.length];
+        lowRankLayers = new LowRankLayer[LAYERS.length];
         for (int l = 0; l < LAYERS.length; l++) {
             if (l == 0) {
                 //creating input layer
@@ -63,9 +168,9 @@ public class Network implements Serializable {
             Neuron[] layer = LAYERS[l];
             for (Neuron neuron : layer) {
                 Neuron[] previousLayer = LAYERS[l - 1];
-                for (Neuron previousNeuron : previousLayer) {
-                    neuron.addInputNode(previousNeuron, random.nextGaussian(0, Math.sqrt(1.0d / previousLayer.length)));
-                }
+                double[] weights = new double[previousLayer.length];
+                Arrays.setAll(weights, w -> random.nextGaussian(0, Math.sqrt(1.0d / previousLayer.length)));
+                neuron.setInputNodes(previousLayer, weights);
             }
         }
         System.out.println("All nodes connected.");
@@ -93,17 +198,42 @@ public class Network implements Serializable {
     }
 
     /**
-     * Train the network.
+     * Train the network on augmented images of the {@link filehandling.Configuration#TRAINING_DATA} with a random seed, which is printed so that the run can be repeated.
      */
     public void train() {
         //load files
+        FileHandler fileHandler = FileHandler.getInstance(imageResolution);
         try {
-            FILE_HANDLER.loadFiles(new File("C:\\Users\\Friiiz\\Documents\\NIST Handwritten Forms and Characters Database Training Images"));
+            fileHandler.loadFiles(Configuration.getFile(Configuration.TRAINING_DATA));
         } catch (InterruptedException e) {
             e.printStackTrace();
         }
-        LinkedHashMap<double[], Character> trainingData = FILE_HANDLER.getTrainingData();
+        long seed = new Random().nextLong();
+        System.out.println("Training seed: " + seed);
+        //use the settings of the tuning profile if there is one
+        setMatrixTraining(Configuration.MATRIX_KERNEL.equals(Configuration.get(Configuration.TRAINING_KERNEL)));
+        train(fileHandler.getTrainingData(), Augmentation.DEFAULT, seed, Configuration.getInt(Configuration.TRAINING_PRODUCER_THREADS, BatchProducer.getDefaultProducerThreads()));
+    }
+
+    /**
+     * Train the network and save it once it classifies more than half of the images correctly.
+     * Batches are shuffled and augmented on background threads while the network trains on the previous ones.
+     * @param trainingData The images and their labels.
+     * @param augmentation The distortions applied to every image, null to train on the images unchanged.
+     * @param seed The seed of the shuffling and augmentation, the same seed gives the same batches.
+     */
+    public void train(LinkedHashMap<double[], Character> trainingData, Augmentation augmentation, long seed) {
+        train(trainingData, augmentation, seed, BatchProducer.getDefaultProducerThreads());
+    }
 
+    /**
+     * Like {@link network.Network#train(LinkedHashMap, Augmentation, long)} with the given number of threads shuffling and augmenting the batches.
+     * @param trainingData The images and their labels.
+     * @param augmentation The distortions applied to every image, null to train on the images unchanged.
+     * @param seed The seed of the shuffling and augmentation, the same seed gives the same batches.
+     * @param producerThreads The number of threads producing batches.
+     */
+    public void train(LinkedHashMap<double[], Character> trainingData, Augmentation augmentation, long seed, int producerThreads) {
         //training network
         System.out.println("Training network.");
         int totalPairs = 0;
@@ -111,40 +241,17 @@ public class Network implements Serializable {
         double successRate;
         double highestSuccessRate = 0;
 
-        //looping through epochs
-        for (int i = 0; i < 10; i++) {
-            LinkedHashMap<double[], Character> shuffledTrainingData = shuffleTrainingData(trainingData);
-            //looping through shuffled training data
-            for (Map.Entry<double[], Character> trainingPair : shuffledTrainingData.entrySet()) {
-                //System.out.println("Evaluating image of character '" + trainingPair.getValue() + "'");
-                //computing output for each pair
-                compute(trainingPair.getKey());
-                backPropagate(trainingPair.getValue());
-
-                //finding the highest value in output layer
-                Neuron maxValue = Arrays.stream(LAYERS[LAYERS.length - 1]).max(Comparator.comparing(Neuron::getActivation)).orElseThrow();
-
-                //track success
-                totalPairs++;
-                if (maxValue.getNodeLabel() == trainingPair.getValue()) {
-                    successfulPairs++;
-                }
-
-                //adjusting parameters after every batch
-                if (totalPairs % BATCH_SIZE == 0) {
-                    System.out.println("Adjusting parameters for batch " + totalPairs / BATCH_SIZE + " in epoch " + (i + 1));
-                    for (Neuron[] layer : LAYERS) {
-                        for (Neuron neuron : layer) {
-                            //nudge parameters
-                            neuron.nudgeWeights(LEARNING_RATE);
-                            neuron.nudgeBias(LEARNING_RATE);
-                            //neuron.nudgeBeta(LEARNING_RATE);
-                            //neuron.nudgeGamma(LEARNING_RATE);
-
-                            //clear gradients for next batch
-                            neuron.clearGradients();
-                        }
-                    }
+        try (BatchProducer batchProducer = new BatchProducer(trainingData, BATCH_SIZE, augmentation, seed, producerThreads)) {
+            int batches = 0;
+            //looping through epochs
+            for (int i = 0; i < 10; i++) {
+                //looping through shuffled batches
+                for (BatchProducer.Batch batch : batchProducer.getEpoch(i)) {
+                    //computing the output for each pair and adjusting parameters after every batch
+                    batches++;
+                    System.out.println("Adjusting parameters for batch " + batches + " in epoch " + (i + 1));
+                    successfulPairs += trainBatch(batch);
+                    totalPairs += batch.size();
 
                     //calculating success rate
                     successRate = (double) successfulPairs / (double) totalPairs;
@@ -154,7 +261,7 @@ public class Network implements Serializable {
 
                     //save prematurely to avoid  unlearning
                     if (successRate > 0.5) {
-                        save(successRate, totalPairs / BATCH_SIZE, i + 1);
+                        save(successRate, batches, i + 1);
                         return;
                     }
 
@@ -164,6 +271,485 @@ public class Network implements Serializable {
         }
     }
 
+    /**
+     * Trains the network on the given data without saving it, e.g. to recover accuracy after {@link network.Network#prune(double, boolean)}.
+     * @param trainingData The images and their labels.
+     * @param epochs The number of times the data is gone through.
+     */
+    public void fineTune(LinkedHashMap<double[], Character> trainingData, int epochs) {
+        for (int i = 0; i < epochs; i++) {
+            List<Map.Entry<double[], Character>> trainingPairs = new ArrayList<>(shuffleTrainingData(trainingData).entrySet());
+            //the last batch of an epoch may be incomplete
+            for (int start = 0; start < trainingPairs.size(); start += BATCH_SIZE) {
+                int size = Math.min(BATCH_SIZE, trainingPairs.size() - start);
+                double[][] images = new double[size][];
+                char[] labels = new char[size];
+                for (int j = 0; j < size; j++) {
+                    images[j] = trainingPairs.get(start + j).getKey();
+                    labels[j] = trainingPairs.get(start + j).getValue();
+                }
+                trainBatch(images, labels);
+            }
+        }
+    }
+
+    /**
+     * Trains the network on the given batches without saving it. Unlike {@link network.Network#fineTune(LinkedHashMap, int)} the data isn't changed, so it can be shared by several networks.
+     * @param batches The batches of an epoch, e.g. from {@link network.BatchProducer#getEpoch(int)}.
+     */
+    public void fineTune(Iterable<BatchProducer.Batch> batches) {
+        for (BatchProducer.Batch batch : batches) {
+            trainBatch(batch);
+        }
+    }
+
+    /**
+     * @param batch The batch to be trained on.
+     * @return The number of images of the batch that have been classified correctly before nudging the parameters.
+     */
+    private int trainBatch(BatchProducer.Batch batch) {
+        double[][] images = new double[batch.size()][];
+        char[] labels = new char[batch.size()];
+        for (int i = 0; i < batch.size(); i++) {
+            images[i] = batch.getImage(i);
+            labels[i] = batch.getLabel(i);
+        }
+        return trainBatch(images, labels);
+    }
+
+    /**
+     * Computes and propagates every image of the batch backwards and nudges the parameters afterwards.
+     * @param images The images of the batch.
+     * @param labels The correct label of every image.
+     * @return The number of images that have been classified correctly before nudging the parameters.
+     */
+    int trainBatch(double[][] images, char[] labels) {
+        boolean storedInNeurons = Arrays.stream(compressedLayers).allMatch(Objects::isNull) && Arrays.stream(offHeapLayers).allMatch(Objects::isNull) && Arrays.stream(lowRankLayers).allMatch(Objects::isNull);
+        if (Arrays.stream(batchNormLayers).anyMatch(Objects::nonNull) || (matrixTraining && storedInNeurons)) {
+            return trainMatrixBatch(images, labels);
+        }
+
+        int successfulPairs = 0;
+        for (int i = 0; i < images.length; i++) {
+            compute(images[i]);
+            backPropagate(labels[i]);
+
+            //finding the highest value in output layer
+            Neuron maxValue = Arrays.stream(LAYERS[LAYERS.length - 1]).max(Comparator.comparing(Neuron::getActivation)).orElseThrow();
+            if (maxValue.getNodeLabel() == labels[i]) {
+                successfulPairs++;
+            }
+        }
+        nudgeParameters();
+        return successfulPairs;
+    }
+
+    /**
+     * @throws IllegalStateException if the network can only be evaluated, e.g. because a layer has been compressed or its weights are mapped read-only.
+     */
+    public void checkTrainable() {
+        if (Arrays.stream(compressedLayers).anyMatch(Objects::nonNull)) {
+            throw new IllegalStateException("A network with compressed layers can only be evaluated, prune it without compressing to fine-tune it.");
+        }
+        for (int l = 1; l < LAYERS.length; l++) {
+            if (offHeapLayers[l] != null && offHeapLayers[l].isReadOnly()) throw new IllegalStateException("The weights of layer " + l + " are mapped read-only, so it can only be evaluated.");
+        }
+        if (Arrays.stream(batchNormLayers).anyMatch(Objects::nonNull) && (Arrays.stream(offHeapLayers).anyMatch(Objects::nonNull) || Arrays.stream(lowRankLayers).anyMatch(Objects::nonNull))) {
+            throw new IllegalStateException("A network with batch normalization can only be trained while all its weights are stored in its neurons.");
+        }
+    }
+
+    /**
+     * Like {@link network.Network#trainBatch(double[][], char[])} but computes every layer for all images of the batch at once,
+     * which the {@link network.BatchNormLayer}s need since they normalize every weighted input sum with the mean and variance of its batch.
+     * All activations and gradients are row-major matrices (images x neurons).
+     */
+    private int trainMatrixBatch(double[][] images, char[] labels) {
+        if (Arrays.stream(compressedLayers).anyMatch(Objects::nonNull) || Arrays.stream(offHeapLayers).anyMatch(Objects::nonNull) || Arrays.stream(lowRankLayers).anyMatch(Objects::nonNull)) {
+            throw new IllegalStateException("A network with batch normalization can only be trained while all its weights are stored in its neurons.");
+        }
+        int batchSize = images.length;
+
+        //computing the feature maps and setting the input layer for every image
+        double[][] outputs = new double[LAYERS.length][];
+        double[][] weightedInputSums = new double[LAYERS.length][];
+        double[][] weights = new double[LAYERS.length][];
+        int inputLayerSize = LAYERS[0].length;
+        outputs[0] = new double[batchSize * inputLayerSize];
+        for (int s = 0; s < batchSize; s++) {
+            double[] input = images[s];
+            if (input.length != imageResolution * imageResolution) throw new IllegalArgumentException("Expected an image of " + imageResolution + "x" + imageResolution + " pixels but got " + input.length + " pixels.");
+            for (FeatureLayer featureLayer : featureLayers) {
+                input = featureLayer.forward(input);
+            }
+            System.arraycopy(input, 0, outputs[0], s * inputLayerSize, inputLayerSize);
+        }
+
+        //computing the values for subsequent layers
+        for (int l = 1; l < LAYERS.length; l++) {
+            Neuron[] layer = LAYERS[l];
+            int size = layer.length;
+            int previousSize = LAYERS[l - 1].length;
+            weights[l] = new double[size * previousSize];
+            double[] sums = new double[batchSize * size];
+            for (int j = 0; j < size; j++) {
+                System.arraycopy(layer[j].getWeights(), 0, weights[l], j * previousSize, previousSize);
+                for (int s = 0; s < batchSize; s++) {
+                    sums[s * size + j] = layer[j].getBias();
+                }
+            }
+            Matrix.multiply(outputs[l - 1], Matrix.transpose(weights[l], size, previousSize), sums, batchSize, previousSize, size);
+            if (batchNormLayers[l] != null) {
+                sums = batchNormLayers[l].forward(sums, batchSize);
+            }
+            weightedInputSums[l] = sums;
+
+            outputs[l] = new double[sums.length];
+            for (int s = 0; s < batchSize; s++) {
+                for (int j = 0; j < size; j++) {
+                    outputs[l][s * size + j] = layer[j].computeActivation(sums[s * size + j]);
+                }
+            }
+
+            //apply softmax to output layer
+            if (l == LAYERS.length - 1) {
+                for (int s = 0; s < batchSize; s++) {
+                    double sumPowers = 0;
+                    for (int j = 0; j < size; j++) {
+                        sumPowers += Math.exp(outputs[l][s * size + j]);
+                    }
+                    for (int j = 0; j < size; j++) {
+                        outputs[l][s * size + j] = Math.exp(outputs[l][s * size + j]) / sumPowers;
+                    }
+                }
+            }
+        }
+
+        //calculate gradients for output layer and track success
+        Neuron[] outputLayer = LAYERS[LAYERS.length - 1];
+        int outputSize = outputLayer.length;
+        double[] probabilities = outputs[LAYERS.length - 1];
+        double[] gradientFactors = new double[batchSize * outputSize];
+        int successfulPairs = 0;
+        for (int s = 0; s < batchSize; s++) {
+            int maxIndex = 0;
+            for (int j = 0; j < outputSize; j++) {
+                int index = s * outputSize + j;
+                double expectedActivation = outputLayer[j].getNodeLabel() == labels[s] ? 1 : 0;
+                gradientFactors[index] = Neuron.crossEntropyCostDerivative(probabilities[index], expectedActivation) * outputLayer[j].computeActivationDerivative(weightedInputSums[LAYERS.length - 1][index]);
+                if (probabilities[index] > probabilities[s * outputSize + maxIndex]) maxIndex = j;
+            }
+            if (outputLayer[maxIndex].getNodeLabel() == labels[s]) {
+                successfulPairs++;
+            }
+        }
+
+        //calculate gradients for all layers, gradientFactors holds ∂C/∂z of the current layer
+        for (int l = LAYERS.length - 1; l > 0; l--) {
+            Neuron[] layer = LAYERS[l];
+            int size = layer.length;
+            int previousSize = LAYERS[l - 1].length;
+            if (batchNormLayers[l] != null) {
+                gradientFactors = batchNormLayers[l].backward(gradientFactors, batchSize);
+            }
+
+            //∂C/∂w = (∂C/∂z)^T * inputs, summed over the batch
+            double[] weightGradients = new double[size * previousSize];
+            Matrix.multiply(Matrix.transpose(gradientFactors, batchSize, size), outputs[l - 1], weightGradients, size, batchSize, previousSize);
+            for (int j = 0; j < size; j++) {
+                double[] biasGradients = new double[batchSize];
+                for (int s = 0; s < batchSize; s++) {
+                    biasGradients[s] = gradientFactors[s * size + j];
+                }
+                layer[j].addBatchGradients(weightGradients, j * previousSize, biasGradients);
+            }
+            if (l == 1 && featureLayers.length == 0) break;
+
+            //∂C/∂a of the previous layer = ∂C/∂z * w
+            double[] activationGradients = new double[batchSize * previousSize];
+            Matrix.multiply(gradientFactors, weights[l], activationGradients, batchSize, size, previousSize);
+            if (l > 1) {
+                Neuron[] previousLayer = LAYERS[l - 1];
+                gradientFactors = new double[batchSize * previousSize];
+                for (int s = 0; s < batchSize; s++) {
+                    for (int i = 0; i < previousSize; i++) {
+                        int index = s * previousSize + i;
+                        gradientFactors[index] = activationGradients[index] * previousLayer[i].computeActivationDerivative(weightedInputSums[l - 1][index]);
+                    }
+                }
+            } else {
+                //calculate gradients for feature layers, which only remember the last image they computed
+                for (int s = batchSize - 1; s >= 0; s--) {
+                    if (s < batchSize - 1) {
+                        double[] input = images[s];
+                        for (FeatureLayer featureLayer : featureLayers) {
+                            input = featureLayer.forward(input);
+                        }
+                    }
+                    double[] gradient = Arrays.copyOfRange(activationGradients, s * previousSize, (s + 1) * previousSize);
+                    for (int i = featureLayers.length - 1; i >= 0; i--) {
+                        gradient = featureLayers[i].backward(gradient);
+                    }
+                }
+            }
+        }
+
+        nudgeParameters();
+        return successfulPairs;
+    }
+
+    /**
+     * Nudges all parameters based on the gradients of the current batch and clears them for the next one.
+     */
+    private void nudgeParameters() {
+        invalidatePredictions();
+        for (Neuron[] layer : LAYERS) {
+            for (Neuron neuron : layer) {
+                //nudge parameters
+                neuron.nudgeWeights(LEARNING_RATE);
+                neuron.nudgeBias(LEARNING_RATE);
+
+                //clear gradients for next batch
+                neuron.clearGradients();
+            }
+        }
+        for (OffHeapLayer offHeapLayer : offHeapLayers) {
+            if (offHeapLayer != null) {
+                offHeapLayer.nudgeWeights(LEARNING_RATE);
+            }
+        }
+        for (LowRankLayer lowRankLayer : lowRankLayers) {
+            if (lowRankLayer != null) {
+                lowRankLayer.nudgeWeights(LEARNING_RATE);
+            }
+        }
+        for (BatchNormLayer batchNormLayer : batchNormLayers) {
+            if (batchNormLayer != null) {
+                batchNormLayer.nudgeParameters(LEARNING_RATE);
+                batchNormLayer.clearGradients();
+            }
+        }
+        for (FeatureLayer featureLayer : featureLayers) {
+            featureLayer.nudgeParameters(LEARNING_RATE);
+            featureLayer.clearGradients();
+        }
+    }
+
+    /**
+     * Normalizes the weighted input sums of every hidden layer with a {@link network.BatchNormLayer}, so that the network is trained on whole batches from then on.
+     */
+    public void enableBatchNormalization() {
+        if (LAYERS.length < 3) throw new IllegalStateException("Only hidden layers can be batch normalized but the network doesn't have any.");
+        //the output layer isn't normalized but is trained on whole batches as well
+        for (int l = 1; l < LAYERS.length; l++) {
+            if (compressedLayers[l] != null) throw new IllegalStateException("Layer " + l + " has already been compressed.");
+            if (offHeapLayers[l] != null) throw new IllegalStateException("Layer " + l + " has been moved off the heap.");
+            if (lowRankLayers[l] != null) throw new IllegalStateException("Layer " + l + " has been factorized.");
+        }
+
+        for (int l = 1; l < LAYERS.length - 1; l++) {
+            if (batchNormLayers[l] == null) {
+                batchNormLayers[l] = new BatchNormLayer(LAYERS[l].length);
+            }
+        }
+        invalidatePredictions();
+    }
+
+    /**
+     * Folds the scale and shift every {@link network.BatchNormLayer} applies when evaluating single images into the weights and biases of its layer,
+     * so that evaluating doesn't cost anything extra. The network evaluates every image as before but is trained without batch normalization afterwards.
+     */
+    public void foldBatchNormalization() {
+        for (int l = 1; l < LAYERS.length; l++) {
+            BatchNormLayer batchNormLayer = batchNormLayers[l];
+            if (batchNormLayer == null) continue;
+
+            for (int j = 0; j < LAYERS[l].length; j++) {
+                LAYERS[l][j].fold(batchNormLayer.getScale(j), batchNormLayer.getShift(j));
+            }
+            batchNormLayers[l] = null;
+            System.out.println("Batch normalization of layer " + l + " folded into its weights.");
+        }
+        invalidatePredictions();
+    }
+
+    /**
+     * @return The number of values of {@link network.Network#getParameters()}.
+     */
+    public int getParameterCount() {
+        checkParametersAccessible();
+        int count = 0;
+        for (int l = 1; l < LAYERS.length; l++) {
+            count += LAYERS[l].length * (LAYERS[l - 1].length + 1);
+            if (batchNormLayers[l] != null) {
+                count += batchNormLayers[l].getParameterCount();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * All parameters of the fully connected layers in a single array, e.g. to exchange them between processes.
+     * Every layer holds the weights and the bias of each of its neurons followed by the parameters of its {@link network.BatchNormLayer} if it has one.
+     * @return A copy of the parameters.
+     */
+    public double[] getParameters() {
+        double[] parameters = new double[getParameterCount()];
+        int offset = 0;
+        for (int l = 1; l < LAYERS.length; l++) {
+            for (Neuron neuron : LAYERS[l]) {
+                offset = neuron.getParameters(parameters, offset);
+            }
+            if (batchNormLayers[l] != null) {
+                offset = batchNormLayers[l].getParameters(parameters, offset);
+            }
+        }
+        return parameters;
+    }
+
+    /**
+     * @param parameters The parameters in the order of {@link network.Network#getParameters()}, e.g. of another copy of this network.
+     */
+    public void setParameters(double[] parameters) {
+        if (parameters.length != getParameterCount()) throw new IllegalArgumentException("Expected " + getParameterCount() + " parameters but got " + parameters.length + ".");
+        int offset = 0;
+        for (int l = 1; l < LAYERS.length; l++) {
+            for (Neuron neuron : LAYERS[l]) {
+                offset = neuron.setParameters(parameters, offset);
+            }
+            if (batchNormLayers[l] != null) {
+                offset = batchNormLayers[l].setParameters(parameters, offset);
+            }
+        }
+        invalidatePredictions();
+    }
+
+    private void checkParametersAccessible() {
+        if (featureLayers.length > 0) throw new IllegalStateException("The parameters of feature layers cannot be accessed.");
+        for (int l = 1; l < LAYERS.length; l++) {
+            if (compressedLayers[l] != null) throw new IllegalStateException("Layer " + l + " has been compressed.");
+            if (offHeapLayers[l] != null) throw new IllegalStateException("Layer " + l + " has been moved off the heap.");
+            if (lowRankLayers[l] != null) throw new IllegalStateException("Layer " + l + " has been factorized.");
+        }
+    }
+
+    /**
+     * Sets the weights with the lowest magnitude in every fully connected layer to 0, keeping them at 0 during further training.
+     * @param sparsity The share of weights of every layer that is set to 0.
+     * @param compress Whether layers that are sparse enough are stored as {@link network.CompressedLayer}s afterwards, which can't be trained anymore.
+     */
+    public void prune(double sparsity, boolean compress) {
+        if (sparsity < 0 || sparsity >= 1) throw new IllegalArgumentException("The sparsity has to be between 0 (inclusive) & 1 (exclusive).");
+
+        for (int l = 1; l < LAYERS.length; l++) {
+            if (compressedLayers[l] != null) throw new IllegalStateException("Layer " + l + " has already been compressed.");
+            if (offHeapLayers[l] != null) throw new IllegalStateException("Layer " + l + " has been moved off the heap.");
+            if (lowRankLayers[l] != null) throw new IllegalStateException("Layer " + l + " has been factorized.");
+
+            //find the magnitude below which the given share of weights lies
+            double[] magnitudes = Arrays.stream(LAYERS[l]).flatMapToDouble(neuron -> Arrays.stream(neuron.getWeights())).map(Math::abs).sorted().toArray();
+            double threshold = magnitudes[(int) (magnitudes.length * sparsity)];
+            for (Neuron neuron : LAYERS[l]) {
+                neuron.prune(threshold);
+            }
+        }
+        invalidatePredictions();
+
+        if (compress) {
+            compress();
+        }
+    }
+
+    /**
+     * Stores every layer whose share of non-zero weights is at most {@link network.Network#COMPRESSED_WEIGHT_DENSITY_THRESHOLD} as a {@link network.CompressedLayer}, which is used by {@link network.Network#compute(double[])} from then on.
+     */
+    public void compress() {
+        //the compressed weights can't be changed anymore
+        foldBatchNormalization();
+        for (int l = 1; l < LAYERS.length; l++) {
+            if (compressedLayers[l] != null || offHeapLayers[l] != null || lowRankLayers[l] != null) continue;
+
+            CompressedLayer compressedLayer = new CompressedLayer(LAYERS[l]);
+            if (compressedLayer.getDensity() <= COMPRESSED_WEIGHT_DENSITY_THRESHOLD) {
+                compressedLayers[l] = compressedLayer;
+                for (Neuron neuron : LAYERS[l]) {
+                    neuron.releaseWeights();
+                }
+                System.out.println("Layer " + l + " compressed to " + compressedLayer.getNonZeroWeightCount() + " weights (" + Math.round(compressedLayer.getDensity() * 10000) / 100.0 + "%).");
+            }
+        }
+    }
+
+    /**
+     * Replaces the weights of a fully connected layer by a {@link network.LowRankLayer} of the given rank, which is used by {@link network.Network#compute(double[])} from then on
+     * and can still be fine-tuned one image at a time.
+     * @param layer The index of the layer, 1 for the layer after the input layer.
+     * @param rank The number of singular values that are kept, which only saves weights while rank * (inputs + neurons) < inputs * neurons.
+     */
+    public void factorize(int layer, int rank) {
+        if (layer < 1 || layer >= LAYERS.length) throw new IllegalArgumentException("There is no fully connected layer " + layer + ".");
+        if (compressedLayers[layer] != null) throw new IllegalStateException("Layer " + layer + " has already been compressed.");
+        if (offHeapLayers[layer] != null) throw new IllegalStateException("Layer " + layer + " has been moved off the heap.");
+        if (lowRankLayers[layer] != null) throw new IllegalStateException("Layer " + layer + " has already been factorized.");
+        //the factorized layers are trained one image at a time
+        foldBatchNormalization();
+
+        LowRankLayer lowRankLayer = new LowRankLayer(LAYERS[layer], rank);
+        lowRankLayers[layer] = lowRankLayer;
+        for (Neuron neuron : LAYERS[layer]) {
+            neuron.releaseWeights();
+        }
+        invalidatePredictions();
+        System.out.println("Layer " + layer + " factorized to rank " + rank + " with " + lowRankLayer.getWeightCount() + " weights ("
+                + Math.round((double) lowRankLayer.getWeightCount() / ((long) LAYERS[layer].length * LAYERS[layer - 1].length) * 10000) / 100.0 + "%), keeping "
+                + Math.round(lowRankLayer.getRetainedEnergy() * 10000) / 100.0 + "% of the squared weights.");
+    }
+
+    /**
+     * @return The share of non-zero weights over all fully connected layers.
+     */
+    public double getWeightDensity() {
+        long nonZeroWeights = 0;
+        long weights = 0;
+        for (int l = 1; l < LAYERS.length; l++) {
+            weights += (long) LAYERS[l].length * LAYERS[l - 1].length;
+            if (compressedLayers[l] != null) {
+                nonZeroWeights += compressedLayers[l].getNonZeroWeightCount();
+            } else if (offHeapLayers[l] != null) {
+                nonZeroWeights += offHeapLayers[l].getNonZeroWeightCount();
+            } else if (lowRankLayers[l] != null) {
+                nonZeroWeights += lowRankLayers[l].getWeightCount();
+            } else {
+                nonZeroWeights += Arrays.stream(LAYERS[l]).flatMapToDouble(neuron -> Arrays.stream(neuron.getWeights())).filter(weight -> weight != 0).count();
+            }
+        }
+        return (double) nonZeroWeights / weights;
+    }
+
+    /**
+     * Moves the weights and weight gradients of every fully connected layer that hasn't been compressed off the heap, see {@link network.OffHeapLayer}.
+     * Pruned weights are no longer kept at 0 when the network is trained afterwards.
+     * @param weightFile A new file the weights are written to and mapped from, so that saving the network only stores their location, null to hold them in direct memory.
+     *                   An existing file is never replaced since other networks may still have it mapped.
+     */
+    public void moveOffHeap(File weightFile) {
+        if (weightFile != null && weightFile.exists()) throw new IllegalArgumentException(weightFile.getAbsolutePath() + " already exists, the weights of another network may still be mapped from it.");
+        //the layers are trained one image at a time once they have been moved
+        foldBatchNormalization();
+
+        long offset = 0;
+        for (int l = 1; l < LAYERS.length; l++) {
+            if (compressedLayers[l] != null || offHeapLayers[l] != null || lowRankLayers[l] != null) continue;
+
+            offHeapLayers[l] = new OffHeapLayer(LAYERS[l], weightFile, offset);
+            offset += offHeapLayers[l].getByteSize();
+            for (Neuron neuron : LAYERS[l]) {
+                neuron.releaseWeights();
+            }
+            System.out.println("Layer " + l + " moved off the heap (" + offHeapLayers[l].getByteSize() / 1024 + "KB).");
+        }
+    }
+
     /**
      * Saves the network to a file.
      * @param successRate The success rate at the time of saving.
@@ -171,10 +757,11 @@ public class Network implements Serializable {
      * @param epochs The number of epochs gone through at the time of saving.
      */
     private void save(double successRate, int batches, int epochs) {
-        try (FileOutputStream fileOutputStream = new FileOutputStream("network.ser")) {
-            ObjectOutputStream outputStream = new ObjectOutputStream(fileOutputStream);
-            outputStream.writeObject(this);
-            outputStream.close();
+        //the saved network is only evaluated, so it doesn't need the batch statistics
+        Network foldedNetwork = copy();
+        foldedNetwork.foldBatchNormalization();
+        foldedNetwork.save(new File("network.ser"));
+        try {
             File networkInfo = new File("Network Info.txt");
             FileWriter writer = new FileWriter(networkInfo);
             writer.write("Network Info:\nAverage success rate (fluctuates a lot for individual characters): " + successRate * 100 + "%\nTrained for " + batches + " batches in " + epochs + " epochs.");
@@ -184,23 +771,97 @@ public class Network implements Serializable {
         }
     }
 
+    /**
+     * Saves the network to the given file.
+     * @param file The file to be written.
+     */
+    public void save(File file) {
+        try (ObjectOutputStream outputStream = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            outputStream.writeObject(this);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @param file The file the network has been saved to.
+     * @return The network saved in the given file.
+     */
+    public static Network load(File file) {
+        try (ObjectInputStream inputStream = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            return (Network) inputStream.readObject();
+        } catch (IOException | ClassNotFoundException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @return A deep copy of this network.
+     */
+    public Network copy() {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (ObjectOutputStream outputStream = new ObjectOutputStream(bytes)) {
+                outputStream.writeObject(this);
+            }
+            try (ObjectInputStream inputStream = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+                return (Network) inputStream.readObject();
+            }
+        } catch (IOException | ClassNotFoundException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     /**
      * Computes the activations for the whole network for the given input.
      * @param image The input image.
      */
     public void compute(double[] image) {
-        //setting values for all nodes in input layer
+        if (image.length != imageResolution * imageResolution) throw new IllegalArgumentException("Expected an image of " + imageResolution + "x" + imageResolution + " pixels but got " + image.length + " pixels.");
+
+        //computing the feature maps
+        for (FeatureLayer featureLayer : featureLayers) {
+            image = featureLayer.forward(image);
+        }
+
+        //setting values for all nodes in input layer and remembering the non-zero ones
         Neuron[] layer = LAYERS[0];
+        int[] nonZeroInputs = new int[layer.length];
+        int nonZeroInputCount = 0;
         for (int i = 0; i < layer.length; i++) {
             layer[i].setActivation(image[i]);
+            if (image[i] != 0) {
+                nonZeroInputs[nonZeroInputCount++] = i;
+            }
         }
+        activeInputs = nonZeroInputCount <= layer.length * SPARSE_INPUT_DENSITY_THRESHOLD ? Arrays.copyOf(nonZeroInputs, nonZeroInputCount) : null;
 
         //computing the values for subsequent layers
         for (int i = 1; i < LAYERS.length; i++) {
             layer = LAYERS[i];
-            //compute values for all nodes
-            for (Neuron neuron : layer) {
-                neuron.compute();
+            //compute values for all nodes, using the compressed weights if the layer has been pruned and skipping zero inputs in the first layer if the image is sparse
+            if (compressedLayers[i] != null || offHeapLayers[i] != null || lowRankLayers[i] != null) {
+                double[] weightedSums = multiplyStoredWeights(i, getOutputs(LAYERS[i - 1]));
+                for (int j = 0; j < layer.length; j++) {
+                    layer[j].compute(weightedSums[j]);
+                }
+            } else {
+                boolean sparse = i == 1 && activeInputs != null;
+                long operations = (long) layer.length * (sparse ? activeInputs.length : LAYERS[i - 1].length);
+                if (parallelPool != null && operations >= parallelOperationThreshold) {
+                    int minNeuronsPerTask = (int) Math.max(1, MIN_TASK_OPERATIONS * layer.length / Math.max(operations, 1));
+                    Neuron[] finalLayer = layer;
+                    parallelPool.invoke(new NeuronTask((from, to) -> computeNeurons(finalLayer, from, to, sparse), 0, layer.length, minNeuronsPerTask));
+                } else {
+                    computeNeurons(layer, 0, layer.length, sparse);
+                }
+            }
+
+            //normalize with the running averages of the batch statistics
+            if (batchNormLayers[i] != null) {
+                for (int j = 0; j < layer.length; j++) {
+                    layer[j].activate(batchNormLayers[i].normalize(j, layer[j].getWeightedInputSum()));
+                }
             }
 
             //apply softmax to output layer
@@ -213,15 +874,131 @@ public class Network implements Serializable {
         }
     }
 
+    /**
+     * @param layer The index of a layer whose weights are stored in a {@link network.CompressedLayer}, {@link network.OffHeapLayer} or {@link network.LowRankLayer}.
+     * @param input The outputs of the previous layer.
+     * @return The weighted sum of the inputs for every neuron.
+     */
+    private double[] multiplyStoredWeights(int layer, double[] input) {
+        if (compressedLayers[layer] != null) return compressedLayers[layer].multiply(input);
+        if (offHeapLayers[layer] != null) return offHeapLayers[layer].multiply(input);
+        return lowRankLayers[layer].multiply(input);
+    }
+
+    /**
+     * Computes the neurons of a fully connected layer in the given range.
+     * @param layer The layer of the neurons.
+     * @param from The index of the first neuron (inclusive).
+     * @param to The index of the last neuron (exclusive).
+     * @param sparse Whether only the non-zero inputs of {@link network.Network#activeInputs} are read.
+     */
+    private void computeNeurons(Neuron[] layer, int from, int to, boolean sparse) {
+        for (int j = from; j < to; j++) {
+            if (sparse) {
+                layer[j].compute(activeInputs);
+            } else {
+                layer[j].compute();
+            }
+        }
+    }
+
+    /**
+     * Computes the neurons of a layer in the given range, e.g. {@link network.Network#computeNeurons(Neuron[], int, int, boolean)}.
+     */
+    private interface NeuronComputation {
+        void compute(int from, int to);
+    }
+
+    /**
+     * Splits the neurons of a layer in halves until each part is small enough to be computed by a single thread, every neuron only changes its own state.
+     */
+    private static class NeuronTask extends RecursiveAction {
+
+        //the tasks are never serialized, but RecursiveAction is serializable
+        private static final long serialVersionUID = 1L;
+
+        private final NeuronComputation COMPUTATION;
+        private final int FROM;
+        private final int TO;
+        private final int MIN_NEURONS;
+
+        private NeuronTask(NeuronComputation computation, int from, int to, int minNeurons) {
+            COMPUTATION = computation;
+            FROM = from;
+            TO = to;
+            MIN_NEURONS = minNeurons;
+        }
+
+        @Override
+        protected void compute() {
+            if (TO - FROM <= MIN_NEURONS) {
+                COMPUTATION.compute(FROM, TO);
+                return;
+            }
+            int middle = (FROM + TO) >>> 1;
+            invokeAll(new NeuronTask(COMPUTATION, FROM, middle, MIN_NEURONS), new NeuronTask(COMPUTATION, middle, TO, MIN_NEURONS));
+        }
+    }
+
+    /**
+     * Computes the neurons of every fully connected layer with at least the given number of multiply-add operations in parallel, which lowers the latency of a single image
+     * for wide layers on an otherwise idle machine. Batches evaluated with {@link network.Network#evaluate(double[][], int)} are split the same way, counting the operations of all images.
+     * Smaller layers are still computed on the calling thread since splitting them costs more than it saves,
+     * see {@link main.ParallelComputeBenchmark} for finding the threshold. Layers that are compressed or stored off the heap are always computed on the calling thread.
+     * @param pool The pool computing the neurons, e.g. {@link java.util.concurrent.ForkJoinPool#commonPool()}.
+     * @param operationThreshold The smallest number of multiply-add operations of a layer that is split, e.g. {@link network.Network#DEFAULT_PARALLEL_OPERATION_THRESHOLD}.
+     */
+    public void enableParallelCompute(ForkJoinPool pool, long operationThreshold) {
+        parallelPool = pool;
+        parallelOperationThreshold = operationThreshold;
+    }
+
+    public void disableParallelCompute() {
+        parallelPool = null;
+    }
+
+    /**
+     * Chooses how batches are trained. By default every image is computed and propagated backwards on its own through the neurons, which skips the zero inputs of sparse images.
+     * Training as matrices computes every layer for the whole batch at once, which is faster for dense inputs and wide layers on some machines, see {@link main.Autotuner}.
+     * Both give the same parameters up to rounding. Networks with batch normalization are always trained as matrices and compressed or off-heap layers never are.
+     * @param matrixTraining Whether batches are trained as matrices.
+     */
+    public void setMatrixTraining(boolean matrixTraining) {
+        this.matrixTraining = matrixTraining;
+    }
+
+    /**
+     * @param layer The neurons whose outputs are read.
+     * @return The value the next layer multiplies with its weights for every neuron.
+     */
+    private static double[] getOutputs(Neuron[] layer) {
+        double[] outputs = new double[layer.length];
+        for (int i = 0; i < layer.length; i++) {
+            outputs[i] = layer[i].getOutput();
+        }
+        return outputs;
+    }
+
     /**
      * Propagate parameters backwards through network.
      * @param label The correct label of the current input image.
      */
     public void backPropagate(char label) {
+        if (Arrays.stream(compressedLayers).anyMatch(Objects::nonNull)) {
+            throw new IllegalStateException("A network with compressed layers can only be evaluated, prune it without compressing to fine-tune it.");
+        }
+        if (Arrays.stream(batchNormLayers).anyMatch(Objects::nonNull)) {
+            throw new IllegalStateException("A network with batch normalization has to be trained on whole batches, e.g. with fineTune.");
+        }
+        if (Arrays.stream(offHeapLayers).anyMatch(Objects::nonNull) || Arrays.stream(lowRankLayers).anyMatch(Objects::nonNull)) {
+            backPropagateLayers(label);
+            return;
+        }
+
         //calculate gradients for output layer
         for (Neuron neuron : LAYERS[LAYERS.length - 1]) {
             double expectedActivation = neuron.getNodeLabel() == label ? 1 : 0;
-            neuron.addWeightGradients(expectedActivation);
+            addWeightGradients(neuron, LAYERS.length - 1, expectedActivation);
             neuron.addBiasGradient(expectedActivation);
         }
 
@@ -229,12 +1006,88 @@ public class Network implements Serializable {
         for (int i = LAYERS.length - 2; i > 0; i--) {
             Neuron[] layer = LAYERS[i];
             for (Neuron neuron : layer) {
-                neuron.addWeightGradients(-1);
+                addWeightGradients(neuron, i, -1);
                 neuron.addBiasGradient(-1);
-                //neuron.addBetaGradient(-1);
-                //neuron.addGammaGradient(-1);
             }
         }
+
+        //calculate gradients for feature layers
+        if (featureLayers.length > 0) {
+            Neuron[] inputLayer = LAYERS[0];
+            double[] gradient = new double[inputLayer.length];
+            for (int i = 0; i < inputLayer.length; i++) {
+                gradient[i] = inputLayer[i].getActivationGradient();
+            }
+            for (int i = featureLayers.length - 1; i >= 0; i--) {
+                gradient = featureLayers[i].backward(gradient);
+            }
+        }
+    }
+
+    /**
+     * Like {@link network.Network#backPropagate(char)} for a network with layers that have been moved off the heap or factorized, whose neurons can't reach the weights of the next layer.
+     * The activation gradients of the inputs of every layer are computed here instead.
+     * @param label The correct label of the current input image.
+     */
+    private void backPropagateLayers(char label) {
+        double[] activationGradients = null;
+        for (int i = LAYERS.length - 1; i > 0; i--) {
+            Neuron[] layer = LAYERS[i];
+            double[] gradientFactors = new double[layer.length];
+            for (int j = 0; j < layer.length; j++) {
+                if (i == LAYERS.length - 1) {
+                    layer[j].setGradientFactor(layer[j].getNodeLabel() == label ? 1 : 0);
+                } else {
+                    layer[j].setGradientFactorFromActivationGradient(activationGradients[j]);
+                }
+                layer[j].addBiasGradient();
+                gradientFactors[j] = layer[j].getGradientFactor();
+            }
+
+            boolean needsActivationGradients = i > 1 || featureLayers.length > 0;
+            if (offHeapLayers[i] != null || lowRankLayers[i] != null) {
+                double[] inputs = getOutputs(LAYERS[i - 1]);
+                if (offHeapLayers[i] != null) {
+                    offHeapLayers[i].addGradients(gradientFactors, inputs);
+                    activationGradients = needsActivationGradients ? offHeapLayers[i].getActivationGradients(gradientFactors) : null;
+                } else {
+                    lowRankLayers[i].addGradients(gradientFactors, inputs);
+                    activationGradients = needsActivationGradients ? lowRankLayers[i].getActivationGradients(gradientFactors) : null;
+                }
+            } else {
+                //∂C/∂a of the previous layer = Σ ∂C/∂z * w
+                activationGradients = needsActivationGradients ? new double[LAYERS[i - 1].length] : null;
+                for (int j = 0; j < layer.length; j++) {
+                    layer[j].addWeightGradients();
+                    if (needsActivationGradients) {
+                        double[] weights = layer[j].getWeights();
+                        for (int k = 0; k < weights.length; k++) {
+                            activationGradients[k] += gradientFactors[j] * weights[k];
+                        }
+                    }
+                }
+            }
+        }
+
+        //calculate gradients for feature layers
+        double[] gradient = activationGradients;
+        for (int i = featureLayers.length - 1; i >= 0; i--) {
+            gradient = featureLayers[i].backward(gradient);
+        }
+    }
+
+    /**
+     * Adds the weight gradients of the given neuron, only touching the weights of non-zero inputs in the first layer if the image is sparse.
+     * @param neuron The neuron whose weight gradients are added.
+     * @param layerIndex The index of the layer of the neuron.
+     * @param expectedActivation Activation of the neuron that is expected for the input image.
+     */
+    private void addWeightGradients(Neuron neuron, int layerIndex, double expectedActivation) {
+        if (layerIndex == 1 && activeInputs != null) {
+            neuron.addWeightGradients(expectedActivation, activeInputs);
+        } else {
+            neuron.addWeightGradients(expectedActivation);
+        }
     }
 
     /**
@@ -242,19 +1095,302 @@ public class Network implements Serializable {
      * @return The label and the certainty the network computed for the input image.
      */
     public Map.Entry<Character, Double> evaluate(double[] image) {
+        return evaluate(image, 1).get(0);
+    }
+
+    /**
+     * @param image The image to be evaluated.
+     * @param k The number of labels to be returned.
+     * @return The k labels with the highest certainty the network computed for the input image, ordered by certainty.
+     */
+    public List<Map.Entry<Character, Double>> evaluate(double[] image, int k) {
+        long hash = 0;
+        if (predictionCache != null) {
+            hash = PredictionCache.hash(image);
+            List<Map.Entry<Character, Double>> cachedPredictions = predictionCache.get(hash);
+            if (cachedPredictions != null && cachedPredictions.size() >= Math.min(k, LAYERS[LAYERS.length - 1].length)) {
+                return cachedPredictions.subList(0, Math.min(k, cachedPredictions.size()));
+            }
+        }
+
+        compute(image);
+        //compute as many predictions as the cache stores so that later requests for fewer labels can use them
+        int computedPredictions = predictionCache != null ? Math.max(k, predictionCache.getTopK()) : k;
+        List<Map.Entry<Character, Double>> predictions = Arrays.stream(LAYERS[LAYERS.length - 1])
+                .sorted(Comparator.comparing(Neuron::getActivation).reversed())
+                .limit(computedPredictions)
+                .map(neuron -> (Map.Entry<Character, Double>) new AbstractMap.SimpleImmutableEntry<>(neuron.getNodeLabel(), neuron.getActivation()))
+                .toList();
+
+        if (predictionCache != null) {
+            predictionCache.put(hash, predictions);
+        }
+        return predictions.subList(0, Math.min(k, predictions.size()));
+    }
+
+    /**
+     * @param image The image to be evaluated.
+     * @return The certainty of every label in the order of {@link network.Network#getLabels()}.
+     */
+    public double[] getProbabilities(double[] image) {
         compute(image);
-        Neuron maxValue = Arrays.stream(LAYERS[LAYERS.length - 1]).max(Comparator.comparing(Neuron::getActivation)).orElseThrow();
-        return new AbstractMap.SimpleEntry<>(maxValue.getNodeLabel(), maxValue.getActivation());
+        Neuron[] outputLayer = LAYERS[LAYERS.length - 1];
+        double[] probabilities = new double[outputLayer.length];
+        for (int i = 0; i < outputLayer.length; i++) {
+            probabilities[i] = outputLayer[i].getActivation();
+        }
+        return probabilities;
+    }
+
+    /**
+     * Evaluates several images in a single pass through the network, e.g. all characters of a word. Every weight is read once for the whole batch instead of once per image,
+     * so a few images take about as long as one. Unlike {@link network.Network#evaluate(double[])} it doesn't change the state of the neurons or feature layers or use the {@link network.PredictionCache},
+     * so it can be called by several threads at the same time as long as the network isn't trained.
+     * @param images The images to be evaluated.
+     * @return The label with the highest certainty and the certainty for every image, in the order of the images.
+     */
+    public List<Map.Entry<Character, Double>> evaluate(double[][] images) {
+        return evaluate(images, 1).stream().map(predictions -> predictions.get(0)).toList();
+    }
+
+    /**
+     * Like {@link network.Network#evaluate(double[][])} but returns the k most certain labels of every image like {@link network.Network#evaluate(double[], int)}.
+     * @param images The images to be evaluated.
+     * @param k The number of labels to be returned for every image.
+     * @return The k labels with the highest certainty for every image ordered by certainty, in the order of the images.
+     */
+    public List<List<Map.Entry<Character, Double>>> evaluate(double[][] images, int k) {
+        double[] probabilities = computeBatch(images);
+        Neuron[] outputLayer = LAYERS[LAYERS.length - 1];
+        int labelCount = Math.min(k, outputLayer.length);
+        List<List<Map.Entry<Character, Double>>> predictions = new ArrayList<>(images.length);
+        for (int s = 0; s < images.length; s++) {
+            int offset = s * outputLayer.length;
+            //selecting the most certain remaining label k times, k is small compared to the number of labels
+            boolean[] selected = new boolean[outputLayer.length];
+            List<Map.Entry<Character, Double>> imagePredictions = new ArrayList<>(labelCount);
+            for (int p = 0; p < labelCount; p++) {
+                int maxIndex = -1;
+                for (int j = 0; j < outputLayer.length; j++) {
+                    if (!selected[j] && (maxIndex == -1 || probabilities[offset + j] > probabilities[offset + maxIndex])) maxIndex = j;
+                }
+                selected[maxIndex] = true;
+                imagePredictions.add(new AbstractMap.SimpleImmutableEntry<>(outputLayer[maxIndex].getNodeLabel(), probabilities[offset + maxIndex]));
+            }
+            predictions.add(imagePredictions);
+        }
+        return predictions;
+    }
+
+    /**
+     * Computes the probabilities of all images like {@link network.Network#compute(double[])} but layer by layer for the whole batch.
+     * @param images The images to be computed.
+     * @return The probability of every label for every image, row-major (images x labels).
+     */
+    private double[] computeBatch(double[][] images) {
+        int batchSize = images.length;
+
+        //computing the feature maps and setting the input layer for every image
+        int inputLayerSize = LAYERS[0].length;
+        double[] outputs = new double[batchSize * inputLayerSize];
+        int[][] activeInputs = new int[batchSize][];
+        for (int s = 0; s < batchSize; s++) {
+            double[] input = images[s];
+            if (input.length != imageResolution * imageResolution) throw new IllegalArgumentException("Expected an image of " + imageResolution + "x" + imageResolution + " pixels but got " + input.length + " pixels.");
+            for (FeatureLayer featureLayer : featureLayers) {
+                input = featureLayer.forward(input, false);
+            }
+            System.arraycopy(input, 0, outputs, s * inputLayerSize, inputLayerSize);
+
+            //remember the non-zero inputs of sparse images like compute does
+            int[] nonZeroInputs = new int[inputLayerSize];
+            int nonZeroInputCount = 0;
+            for (int i = 0; i < inputLayerSize; i++) {
+                if (input[i] != 0) {
+                    nonZeroInputs[nonZeroInputCount++] = i;
+                }
+            }
+            activeInputs[s] = nonZeroInputCount <= inputLayerSize * SPARSE_INPUT_DENSITY_THRESHOLD ? Arrays.copyOf(nonZeroInputs, nonZeroInputCount) : null;
+        }
+
+        //computing the values for subsequent layers
+        for (int l = 1; l < LAYERS.length; l++) {
+            Neuron[] layer = LAYERS[l];
+            int size = layer.length;
+            int previousSize = LAYERS[l - 1].length;
+            double[] sums = new double[batchSize * size];
+            if (compressedLayers[l] != null || offHeapLayers[l] != null || lowRankLayers[l] != null) {
+                for (int s = 0; s < batchSize; s++) {
+                    double[] weightedSums = multiplyStoredWeights(l, Arrays.copyOfRange(outputs, s * previousSize, (s + 1) * previousSize));
+                    System.arraycopy(weightedSums, 0, sums, s * size, size);
+                }
+            } else {
+                //every row of weights is used for all images while it is in the cache, sparse images only read their non-zero inputs
+                int[] denseImages = new int[batchSize];
+                int denseImageCount = 0;
+                long operations = 0;
+                for (int s = 0; s < batchSize; s++) {
+                    if (l != 1 || activeInputs[s] == null) {
+                        denseImages[denseImageCount++] = s;
+                        operations += (long) size * previousSize;
+                    } else {
+                        operations += (long) size * activeInputs[s].length;
+                    }
+                }
+
+                double[] inputs = outputs;
+                boolean firstLayer = l == 1;
+                int finalDenseImageCount = denseImageCount;
+                NeuronComputation computation = (from, to) -> computeBatchNeurons(layer, from, to, firstLayer, inputs, previousSize, activeInputs, denseImages, finalDenseImageCount, sums);
+                if (parallelPool != null && operations >= parallelOperationThreshold) {
+                    int minNeuronsPerTask = (int) Math.max(1, MIN_TASK_OPERATIONS * size / Math.max(operations, 1));
+                    parallelPool.invoke(new NeuronTask(computation, 0, size, minNeuronsPerTask));
+                } else {
+                    computation.compute(0, size);
+                }
+            }
+
+            double[] activations = new double[batchSize * size];
+            for (int s = 0; s < batchSize; s++) {
+                for (int j = 0; j < size; j++) {
+                    double weightedInputSum = sums[s * size + j] + layer[j].getBias();
+                    //normalize with the running averages of the batch statistics
+                    if (batchNormLayers[l] != null) {
+                        weightedInputSum = batchNormLayers[l].normalize(j, weightedInputSum);
+                    }
+                    activations[s * size + j] = layer[j].computeActivation(weightedInputSum);
+                }
+            }
+
+            //apply softmax to output layer
+            if (l == LAYERS.length - 1) {
+                for (int s = 0; s < batchSize; s++) {
+                    double sumPowers = 0;
+                    for (int j = 0; j < size; j++) {
+                        sumPowers += Math.exp(activations[s * size + j]);
+                    }
+                    for (int j = 0; j < size; j++) {
+                        activations[s * size + j] = Math.exp(activations[s * size + j]) / sumPowers;
+                    }
+                }
+            }
+            outputs = activations;
+        }
+        return outputs;
+    }
+
+    /**
+     * Computes the weighted input sums of the neurons of a fully connected layer in the given range for every image of a batch, see {@link network.Network#computeBatch(double[][])}.
+     * @param layer The layer of the neurons.
+     * @param from The index of the first neuron (inclusive).
+     * @param to The index of the last neuron (exclusive).
+     * @param firstLayer Whether the layer is the first hidden layer, in which the sparse images only read their non-zero inputs.
+     * @param inputs The outputs of the previous layer for every image, row-major (images x inputs).
+     * @param previousSize The number of outputs of the previous layer.
+     * @param activeInputs The non-zero inputs of every sparse image, null for dense images.
+     * @param denseImages The indices of the images that read all their inputs.
+     * @param denseImageCount The number of dense images.
+     * @param sums The weighted input sums of every image, row-major (images x neurons).
+     */
+    private static void computeBatchNeurons(Neuron[] layer, int from, int to, boolean firstLayer, double[] inputs, int previousSize, int[][] activeInputs,
+                                            int[] denseImages, int denseImageCount, double[] sums) {
+        int size = layer.length;
+        int batchSize = activeInputs.length;
+        for (int j = from; j < to; j++) {
+            double[] weights = layer[j].getWeights();
+            if (firstLayer) {
+                for (int s = 0; s < batchSize; s++) {
+                    if (activeInputs[s] == null) continue;
+                    int offset = s * previousSize;
+                    double sum = 0;
+                    for (int i : activeInputs[s]) {
+                        sum += inputs[offset + i] * weights[i];
+                    }
+                    sums[s * size + j] = sum;
+                }
+            }
+
+            //four images at a time so that every weight is loaded once for all four
+            int d = 0;
+            for (; d + 4 <= denseImageCount; d += 4) {
+                int offset0 = denseImages[d] * previousSize;
+                int offset1 = denseImages[d + 1] * previousSize;
+                int offset2 = denseImages[d + 2] * previousSize;
+                int offset3 = denseImages[d + 3] * previousSize;
+                double sum0 = 0, sum1 = 0, sum2 = 0, sum3 = 0;
+                for (int i = 0; i < previousSize; i++) {
+                    double weight = weights[i];
+                    sum0 += inputs[offset0 + i] * weight;
+                    sum1 += inputs[offset1 + i] * weight;
+                    sum2 += inputs[offset2 + i] * weight;
+                    sum3 += inputs[offset3 + i] * weight;
+                }
+                sums[denseImages[d] * size + j] = sum0;
+                sums[denseImages[d + 1] * size + j] = sum1;
+                sums[denseImages[d + 2] * size + j] = sum2;
+                sums[denseImages[d + 3] * size + j] = sum3;
+            }
+            for (; d < denseImageCount; d++) {
+                int offset = denseImages[d] * previousSize;
+                double sum = 0;
+                for (int i = 0; i < previousSize; i++) {
+                    sum += inputs[offset + i] * weights[i];
+                }
+                sums[denseImages[d] * size + j] = sum;
+            }
+        }
+    }
+
+    /**
+     * @return The labels of the output layer in order.
+     */
+    public char[] getLabels() {
+        Neuron[] outputLayer = LAYERS[LAYERS.length - 1];
+        char[] labels = new char[outputLayer.length];
+        for (int i = 0; i < outputLayer.length; i++) {
+            labels[i] = outputLayer[i].getNodeLabel();
+        }
+        return labels;
+    }
+
+    /**
+     * Puts a {@link network.PredictionCache} in front of {@link network.Network#evaluate(double[], int)}, which is cleared whenever the parameters change.
+     * @param maxBytes The maximum estimated heap usage of the cache.
+     * @param topK The number of predictions stored for every image.
+     */
+    public void enablePredictionCache(long maxBytes, int topK) {
+        predictionCache = new PredictionCache(maxBytes, topK);
+    }
+
+    public void disablePredictionCache() {
+        predictionCache = null;
+    }
+
+    /**
+     * @return The cache in front of {@link network.Network#evaluate(double[], int)}, null if it is disabled.
+     */
+    public PredictionCache getPredictionCache() {
+        return predictionCache;
+    }
+
+    /**
+     * Clears the cached predictions after the parameters have changed.
+     */
+    private void invalidatePredictions() {
+        if (predictionCache != null) {
+            predictionCache.clear();
+        }
     }
 
     @Deprecated
     public void test() {
+        FileHandler fileHandler = FileHandler.getInstance(imageResolution);
         try {
-            FILE_HANDLER.loadFiles(new File("C:\\Users\\Friiiz\\Documents\\NIST Handwritten Forms and Characters Database Test Images"));
+            fileHandler.loadFiles(Configuration.getFile(Configuration.TEST_DATA));
         } catch (InterruptedException e) {
             e.printStackTrace();
         }
-        LinkedHashMap<double[], Character> testData = shuffleTrainingData(FILE_HANDLER.getTrainingData());
+        LinkedHashMap<double[], Character> testData = shuffleTrainingData(fileHandler.getTrainingData());
         //training network
         System.out.println("Training network.");
         int totalPairs = 0;
@@ -285,4 +1421,66 @@ public class Network implements Serializable {
             System.out.println("Success rate: " + successRate * 100 + "%");
         }
     }
-}
\ No newline at end of file
+
+    public int getImageResolution() {
+        return imageResolution;
+    }
+
+    public int getBatchSize() {
+        return BATCH_SIZE;
+    }
+
+    /**
+     * @param imageSize The number of pixels of a square image.
+     * @return The width and height of the image.
+     */
+    private static int getResolution(int imageSize) {
+        int resolution = (int) Math.round(Math.sqrt(imageSize));
+        if (resolution * resolution != imageSize) throw new IllegalArgumentException("An image of " + imageSize + " pixels isn't square.");
+        return resolution;
+    }
+
+    /**
+     * @return The number of multiply-add operations needed to evaluate a single image.
+     */
+    public long getOperationCount() {
+        long operations = 0;
+        for (FeatureLayer featureLayer : featureLayers) {
+            operations += featureLayer.getOperationCount();
+        }
+        for (int l = 1; l < LAYERS.length; l++) {
+            operations += lowRankLayers[l] != null ? lowRankLayers[l].getWeightCount() : (long) LAYERS[l].length * LAYERS[l - 1].length;
+        }
+        return operations;
+    }
+
+    @Serial
+    private void readObject(ObjectInputStream inputStream) throws IOException, ClassNotFoundException {
+        inputStream.defaultReadObject();
+        if (featureLayers == null) {
+            featureLayers = new FeatureLayer[0];
+        }
+        if (compressedLayers == null) {
+            compressedLayers = new CompressedLayer[LAYERS.length];
+        }
+        if (offHeapLayers == null) {
+            offHeapLayers = new OffHeapLayer[LAYERS.length];
+        }
+        if (batchNormLayers == null) {
+            batchNormLayers = new BatchNormLayer[LAYERS.length];
+        }
+        if (lowRankLayers == null) {
+            lowRankLayers = new LowRankLayer[LAYERS.length];
+        }
+        if (imageResolution == 0) {
+            imageResolution = getResolution(featureLayers.length > 0 ? featureLayers[0].getInputLength() : LAYERS[0].length);
+        }
+
+        //models saved before the neurons knew their position need it to find their weights in the next layer
+        for (Neuron[] layer : LAYERS) {
+            for (int i = 0; i < layer.length; i++) {
+                layer[i].setPosition(i);
+            }
+        }
+    }
+}
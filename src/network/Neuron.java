@@ -1,53 +1,78 @@
 package network;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serial;
 import java.io.Serializable;
 import java.util.*;
 
 public class Neuron implements Serializable {
 
+    /**
+     * Kept at the value computed for the first saved models so that they can still be loaded.
+     */
+    private static final long serialVersionUID = 5435008483562571705L;
+
     protected enum NodeType implements Serializable {
         INPUT,
         OUTPUT,
         HIDDEN
     }
 
+    /**
+     * Distance from 0 and 1 the activation is clamped to in the cost functions, since a certainty of exactly 0 or 1 makes them undefined.
+     */
+    private static final double MIN_ACTIVATION_DISTANCE = 1e-15;
+
     private final NodeType NODE_TYPE;
     private final Character NODE_LABEL;
-    private final LinkedHashMap<Neuron, Double> INPUTS;
+
+    /**
+     * Only read from models saved before the weights were stored in {@link network.Neuron#weights} and cleared once they have been converted.
+     */
+    @Deprecated
+    private LinkedHashMap<Neuron, Double> INPUTS;
+
+    private Neuron[] inputNodes;
+
+    /**
+     * Weight of each of {@link network.Neuron#inputNodes}, null once the layer has been compressed into a {@link network.CompressedLayer}.
+     */
+    private double[] weights;
+
+    /**
+     * Whether weights that are 0 have been pruned and have to stay 0 when nudging.
+     */
+    private boolean pruned;
+
+    /**
+     * Position of this neuron in its layer, which is also the index of its weight in every neuron of {@link network.Neuron#OUTPUTS}.
+     */
+    private int position;
+
     private final LinkedList<Neuron> OUTPUTS;
-    private final LinkedList<double[]> WEIGHT_GRADIENTS;
+    private transient double[] weightGradientSums;
+    private transient int weightGradientCount;
     private final LinkedList<Double> BIAS_GRADIENTS;
-    private final LinkedList<Double> BETA_GRADIENTS;
-    private final LinkedList<Double> GAMMA_GRADIENTS;
-    private final LinkedList<Double> BATCH_ACTIVATIONS;
     private double gradientFactor;
     private double activation;
-    private double normalizedActivation;
-    private double scaledShiftedNormalizedActivation;
     private double weightedInputSum;
     private double bias;
-    private double beta;
-    private double gamma;
-    private double mean;
-    private double standardDeviation;
     private final Function ACTIVATION_FUNCTION;
 
     public Neuron(NodeType nodeType, Character nodeLabel) {
         NODE_TYPE = nodeType;
         NODE_LABEL = nodeLabel;
-        INPUTS = new LinkedHashMap<>();
+        inputNodes = new Neuron[0];
+        weights = new double[0];
         OUTPUTS = new LinkedList<>();
-        WEIGHT_GRADIENTS = new LinkedList<>();
         BIAS_GRADIENTS = new LinkedList<>();
-        BETA_GRADIENTS = new LinkedList<>();
-        GAMMA_GRADIENTS = new LinkedList<>();
-        BATCH_ACTIVATIONS = new LinkedList<>();
         bias = 0;
         ACTIVATION_FUNCTION = new Function(Function.FunctionTag.RELU);
     }
 
     /**
-     * Computes {@link network.Neuron#activation} using the weighted sum of {@link network.Neuron#INPUTS} and {@link network.Neuron#ACTIVATION_FUNCTION}.
+     * Computes {@link network.Neuron#activation} using the weighted sum of {@link network.Neuron#inputNodes} and {@link network.Neuron#ACTIVATION_FUNCTION}.
      *
      */
     public void compute() {
@@ -55,22 +80,85 @@ public class Neuron implements Serializable {
             throw new IllegalStateException("A node in an input layer cannot update its value.");
         }
 
-        //check if previous layer is hidden
-        if(INPUTS.keySet().stream().findAny().orElseThrow().NODE_TYPE == NodeType.HIDDEN) {
-            //sum batch normalized activations from all input nodes multiplied by their respective weight and add bias
-            weightedInputSum = INPUTS.entrySet().stream().mapToDouble(n -> n.getKey().scaledShiftedNormalizedActivation * n.getValue()).sum() + bias;
-        } else {
-            //sum activations from all input nodes multiplied by their respective weight and add bias
-            weightedInputSum = INPUTS.entrySet().stream().mapToDouble(n -> n.getKey().activation * n.getValue()).sum() + bias;
+        //sum outputs from all input nodes multiplied by their respective weight
+        double sum = 0;
+        for (int i = 0; i < inputNodes.length; i++) {
+            sum += inputNodes[i].getOutput() * weights[i];
+        }
+        weightedInputSum = sum + bias;
+
+        activate();
+    }
+
+    /**
+     * Computes {@link network.Neuron#activation} from a weighted sum of the inputs computed elsewhere, e.g. by a {@link network.CompressedLayer}.
+     * @param weightedSum The sum of the outputs of all input nodes multiplied by their respective weight.
+     */
+    void compute(double weightedSum) {
+        if (NODE_TYPE == NodeType.INPUT) {
+            throw new IllegalStateException("A node in an input layer cannot update its value.");
+        }
+
+        weightedInputSum = weightedSum + bias;
+
+        activate();
+    }
+
+    /**
+     * Recomputes {@link network.Neuron#activation} after {@link network.Neuron#weightedInputSum} has been changed elsewhere, e.g. normalized by a {@link network.BatchNormLayer}.
+     * @param weightedInputSum The new weighted input sum including the bias.
+     */
+    void activate(double weightedInputSum) {
+        this.weightedInputSum = weightedInputSum;
+        activate();
+    }
+
+    /**
+     * @return The value the next layer multiplies with its weights.
+     */
+    double getOutput() {
+        return activation;
+    }
+
+    /**
+     * Computes {@link network.Neuron#activation} like {@link network.Neuron#compute()} but only reads the inputs at the given indices, assuming that all other inputs are 0.
+     * Only valid for neurons whose inputs are in the input layer.
+     *
+     * @param activeInputs The ascending indices of the inputs that are not 0.
+     */
+    public void compute(int[] activeInputs) {
+        if (NODE_TYPE == NodeType.INPUT) {
+            throw new IllegalStateException("A node in an input layer cannot update its value.");
         }
 
-        if (NODE_TYPE != NodeType.OUTPUT) {
-            activation = ACTIVATION_FUNCTION.compute(weightedInputSum);
-        } else {
-            activation = weightedInputSum;
+        //sum activations from the non-zero input nodes multiplied by their respective weight
+        double sum = 0;
+        for (int i : activeInputs) {
+            sum += inputNodes[i].activation * weights[i];
         }
+        weightedInputSum = sum + bias;
+
+        activate();
+    }
 
-        BATCH_ACTIVATIONS.add(activation);
+    private void activate() {
+        activation = computeActivation(weightedInputSum);
+    }
+
+    /**
+     * @param weightedInputSum A weighted input sum including the bias.
+     * @return The activation of this neuron for the given sum, before the softmax if this is an output node.
+     */
+    double computeActivation(double weightedInputSum) {
+        return NODE_TYPE != NodeType.OUTPUT ? ACTIVATION_FUNCTION.compute(weightedInputSum) : weightedInputSum;
+    }
+
+    /**
+     * @param weightedInputSum A weighted input sum including the bias.
+     * @return The derivative of {@link network.Neuron#ACTIVATION_FUNCTION} for the given sum.
+     */
+    double computeActivationDerivative(double weightedInputSum) {
+        return ACTIVATION_FUNCTION.computeDerivative(weightedInputSum);
     }
 
     @Deprecated(since = "Implementation of the cross entropy cost function")
@@ -89,6 +177,7 @@ public class Neuron implements Serializable {
      * @return The "cost" of the given training example.
      */
     public double crossEntropyCost(double expectedActivation) {
+        double activation = getClampedActivation();
         return -(expectedActivation * Math.log(activation) + (1 - expectedActivation) * Math.log(1 - activation));
     }
 
@@ -99,9 +188,28 @@ public class Neuron implements Serializable {
      */
     public double crossEntropyCostDerivative(double expectedActivation) {
         //return -(expectedActivation * (1 / value) + Math.log(value) + (1 - expectedActivation) * (1 / (1 - value)) - Math.log(1 - value));
+        return crossEntropyCostDerivative(activation, expectedActivation);
+    }
+
+    /**
+     * Like {@link network.Neuron#crossEntropyCostDerivative(double)} for an activation computed elsewhere, e.g. for a whole batch.
+     * @param activation The activation of an output node.
+     * @param expectedActivation The activation that is expected for the given input.
+     * @return The derivative of the "cost" of the given training example.
+     */
+    static double crossEntropyCostDerivative(double activation, double expectedActivation) {
+        activation = clamp(activation);
         return (-activation + expectedActivation) / (activation * (activation - 1));
     }
 
+    private double getClampedActivation() {
+        return clamp(activation);
+    }
+
+    private static double clamp(double activation) {
+        return Math.min(Math.max(activation, MIN_ACTIVATION_DISTANCE), 1 - MIN_ACTIVATION_DISTANCE);
+    }
+
     /**
      * Derivative of the {@link network.Neuron#crossEntropyCost(double)} with respect to {@link network.Neuron#weightedInputSum} (∂C/∂z).
      *
@@ -113,77 +221,111 @@ public class Neuron implements Serializable {
             return;
         }
 
-        gradientFactor = 0; //TODO: redundant?
-        gradientFactor = OUTPUTS.stream().mapToDouble(neuron -> neuron.gradientFactor * neuron.INPUTS.get(this)).sum() * ACTIVATION_FUNCTION.computeDerivative(weightedInputSum);
+        gradientFactor = getActivationGradient() * ACTIVATION_FUNCTION.computeDerivative(weightedInputSum);
+    }
+
+    /**
+     * Like {@link network.Neuron#setGradientFactor(double)} for a hidden neuron whose activation gradient (∂C/∂a) has been computed elsewhere, e.g. by an {@link network.OffHeapLayer}.
+     * @param activationGradient The derivative of the cost with respect to the activation of this neuron.
+     */
+    void setGradientFactorFromActivationGradient(double activationGradient) {
+        gradientFactor = activationGradient * ACTIVATION_FUNCTION.computeDerivative(weightedInputSum);
+    }
+
+    double getGradientFactor() {
+        return gradientFactor;
+    }
+
+    /**
+     * Derivative of {@link network.Neuron#crossEntropyCost(double)} with respect to {@link network.Neuron#activation} (∂C/∂a), only valid after the gradients of {@link network.Neuron#OUTPUTS} have been added.
+     * @return The derivative of the "cost" of the current input image.
+     */
+    public double getActivationGradient() {
+        double sum = 0;
+        for (Neuron neuron : OUTPUTS) {
+            sum += neuron.gradientFactor * neuron.weights[position];
+        }
+        return sum;
     }
 
     /**
-     * Derivative of {@link network.Neuron#crossEntropyCost(double)} with respect to {@link network.Neuron#INPUTS} (∂C/∂w).
+     * Derivative of {@link network.Neuron#crossEntropyCost(double)} with respect to {@link network.Neuron#weights} (∂C/∂w).
      *
      * @param expectedActivation Activation of this neuron that is expected for the input image.
      */
     public void addWeightGradients(double expectedActivation) {
         setGradientFactor(expectedActivation);
-        double[] subWeightGradients = new double[INPUTS.size()];
-        int i = 0;
-        for (Map.Entry<Neuron, Double> input : INPUTS.entrySet()) {
-            subWeightGradients[i] = gradientFactor * input.getKey().getActivation();
-            i++;
+        double[] sums = getWeightGradientSums();
+        for (int i = 0; i < inputNodes.length; i++) {
+            sums[i] += gradientFactor * inputNodes[i].activation;
         }
-        WEIGHT_GRADIENTS.add(subWeightGradients);
+        weightGradientCount++;
     }
 
     /**
-     * Derivative of {@link network.Neuron#crossEntropyCost(double)} with respect to {@link network.Neuron#bias} (∂C/∂b).
+     * Like {@link network.Neuron#addWeightGradients(double)} but only touches the weights of the inputs at the given indices, since the gradient of all other weights is 0.
+     *
      * @param expectedActivation Activation of this neuron that is expected for the input image.
+     * @param activeInputs The ascending indices of the inputs that are not 0.
      */
-    public void addBiasGradient(double expectedActivation) {
+    public void addWeightGradients(double expectedActivation, int[] activeInputs) {
         setGradientFactor(expectedActivation);
-        BIAS_GRADIENTS.add(gradientFactor);
+        double[] sums = getWeightGradientSums();
+        for (int i : activeInputs) {
+            sums[i] += gradientFactor * inputNodes[i].activation;
+        }
+        weightGradientCount++;
     }
 
-    @Deprecated()
-    private void setMean() {
-        mean = BATCH_ACTIVATIONS.stream().mapToDouble(Double::doubleValue).sum() / BATCH_ACTIVATIONS.size();
+    /**
+     * Like {@link network.Neuron#addWeightGradients(double)} for the gradient factor set last, when it has been set without {@link network.Neuron#addWeightGradients(double)}.
+     */
+    void addWeightGradients() {
+        double[] sums = getWeightGradientSums();
+        for (int i = 0; i < inputNodes.length; i++) {
+            sums[i] += gradientFactor * inputNodes[i].activation;
+        }
+        weightGradientCount++;
     }
 
-    @Deprecated()
-    private void setStandardDeviation() {
-        standardDeviation = Math.sqrt(BATCH_ACTIVATIONS.stream().mapToDouble(a -> (a - mean) * (a - mean)).sum() / BATCH_ACTIVATIONS.size());
+    private double[] getWeightGradientSums() {
+        if (weightGradientSums == null) {
+            weightGradientSums = new double[weights.length];
+        }
+        return weightGradientSums;
     }
 
-    @Deprecated()
-    private void setNormalizedActivation() {
-        setMean();
-        setStandardDeviation();
-        normalizedActivation = (activation * mean) / standardDeviation;
-        //TODO: potentially add noise to standardDeviation if it becomes 0?
+    /**
+     * Derivative of {@link network.Neuron#crossEntropyCost(double)} with respect to {@link network.Neuron#bias} (∂C/∂b).
+     * @param expectedActivation Activation of this neuron that is expected for the input image.
+     */
+    public void addBiasGradient(double expectedActivation) {
+        setGradientFactor(expectedActivation);
+        BIAS_GRADIENTS.add(gradientFactor);
     }
 
-    @Deprecated()
-    private void setScaledShiftedNormalizedActivation() {
-        setNormalizedActivation();
-        scaledShiftedNormalizedActivation = gamma * normalizedActivation + beta;
+    /**
+     * Adds the gradient factor set last as the bias gradient, when it has been set without {@link network.Neuron#addBiasGradient(double)}.
+     */
+    void addBiasGradient() {
+        BIAS_GRADIENTS.add(gradientFactor);
     }
 
-    @Deprecated
-    public void addBetaGradient(double expectedActivation) {
-        setScaledShiftedNormalizedActivation();
-        if (expectedActivation == -1) {
-            expectedActivation = OUTPUTS.stream().mapToDouble(neuron -> neuron.INPUTS.entrySet().stream().filter(n -> n.getKey() == this).findAny().orElseThrow().getKey().weightedInputSum /
-                    neuron.INPUTS.entrySet().stream().filter(n -> n.getKey() == this).findAny().orElseThrow().getValue()).sum() / OUTPUTS.size();
+    /**
+     * Adds the gradients of a whole batch computed elsewhere, e.g. by {@link network.Network#trainBatch(double[][], char[])}.
+     * @param weightGradientSums The weight gradients summed over the batch, those of this neuron starting at the given offset.
+     * @param offset The index of the gradient of the first weight of this neuron.
+     * @param biasGradients The bias gradient (∂C/∂b) for every image of the batch.
+     */
+    void addBatchGradients(double[] weightGradientSums, int offset, double[] biasGradients) {
+        double[] sums = getWeightGradientSums();
+        for (int i = 0; i < sums.length; i++) {
+            sums[i] += weightGradientSums[offset + i];
         }
-        BETA_GRADIENTS.add(expectedActivation - scaledShiftedNormalizedActivation);
-    }
-
-    @Deprecated
-    public void addGammaGradient(double expectedActivation) {
-        setScaledShiftedNormalizedActivation();
-        if (expectedActivation == -1) {
-            expectedActivation = OUTPUTS.stream().mapToDouble(neuron -> neuron.INPUTS.entrySet().stream().filter(n -> n.getKey() == this).findAny().orElseThrow().getKey().weightedInputSum /
-                    neuron.INPUTS.entrySet().stream().filter(n -> n.getKey() == this).findAny().orElseThrow().getValue()).sum() / OUTPUTS.size();
+        weightGradientCount += biasGradients.length;
+        for (double biasGradient : biasGradients) {
+            BIAS_GRADIENTS.add(biasGradient);
         }
-        GAMMA_GRADIENTS.add((expectedActivation - scaledShiftedNormalizedActivation) * normalizedActivation);
     }
 
     /**
@@ -191,29 +333,42 @@ public class Neuron implements Serializable {
      * @param learningRate The learning rate of the network used to scale the gradients.
      */
     public void nudgeWeights(double learningRate) {
-        //create array to store average gradient for each input weight
-        double[] averageWeightGradients = new double[INPUTS.size()];
-
-        //iterate through arrays of gradients
-        for (int i = 0; i < averageWeightGradients.length; i++) {
-            double[] gradientsForSingleNode = new double[WEIGHT_GRADIENTS.size()];
+        if (weightGradientCount == 0) return;
 
-            //iterate through all ith positions of arrays in list
-            for (int j = 0; j < WEIGHT_GRADIENTS.size(); j++) {
+        //subtract averaged gradient multiplied by learning rate from each weight to nudge it towards local minimum
+        for (int i = 0; i < weights.length; i++) {
+            //pruned weights stay 0
+            if (pruned && weights[i] == 0) continue;
+            weights[i] -= weightGradientSums[i] / weightGradientCount * learningRate;
+        }
+    }
 
-                //take ith value from each array in list and store in array
-                gradientsForSingleNode[j] = WEIGHT_GRADIENTS.get(j)[i];
+    /**
+     * Sets all weights whose magnitude is below the given threshold to 0 and keeps them at 0 from now on.
+     * @param threshold The smallest magnitude a weight needs to be kept.
+     */
+    void prune(double threshold) {
+        for (int i = 0; i < weights.length; i++) {
+            if (Math.abs(weights[i]) < threshold) {
+                weights[i] = 0;
             }
-            //average gradients for current node and store in array
-            averageWeightGradients[i] = Arrays.stream(gradientsForSingleNode).sum() / gradientsForSingleNode.length;
         }
+        pruned = true;
+    }
 
-        //subtract averaged gradient multiplied by learning rate from each weight to nudge it towards local minimum
-        int i = 0;
-        for (Map.Entry<Neuron, Double> input : INPUTS.entrySet()) {
-            INPUTS.replace(input.getKey(), input.getValue() - averageWeightGradients[i] * learningRate);
-            i++;
-        }
+    /**
+     * Drops the weights after they have been stored in a {@link network.CompressedLayer}.
+     */
+    void releaseWeights() {
+        weights = null;
+        weightGradientSums = null;
+    }
+
+    /**
+     * @return The weights of this neuron, null if they have been released.
+     */
+    double[] getWeights() {
+        return weights;
     }
 
     /**
@@ -225,46 +380,88 @@ public class Neuron implements Serializable {
         bias -= (BIAS_GRADIENTS.stream().mapToDouble(Double::doubleValue).sum() / BIAS_GRADIENTS.size()) * learningRate;
     }
 
-    @Deprecated
-    public void nudgeBeta(double learningRate) {
-        //subtract averaged gradient multiplied by learning rate from bias to nudge it towards local minimum
-        beta -= -(BETA_GRADIENTS.stream().mapToDouble(Double::doubleValue).sum() / BETA_GRADIENTS.size()) * learningRate;
+    /**
+     * Folds a fixed scale and shift of the weighted input sum into the weights and the bias, e.g. those of a {@link network.BatchNormLayer}.
+     * Pruned weights stay 0.
+     * @param scale The factor the weighted input sum is multiplied with.
+     * @param shift The value added to the scaled sum.
+     */
+    void fold(double scale, double shift) {
+        for (int i = 0; i < weights.length; i++) {
+            weights[i] *= scale;
+        }
+        bias = bias * scale + shift;
     }
 
-    @Deprecated
-    public void nudgeGamma(double learningRate) {
-        //subtract averaged gradient multiplied by learning rate from bias to nudge it towards local minimum
-        gamma -= -(GAMMA_GRADIENTS.stream().mapToDouble(Double::doubleValue).sum() / GAMMA_GRADIENTS.size()) * learningRate;
+    double getBias() {
+        return bias;
     }
 
     /**
-     * Adds an input to this neuron and this node as an output to the new input.
-     * @param input The neuron to be added as an input.
-     * @param weight The weight for this connection.
+     * Copies the weights followed by the bias into the given array.
+     * @param parameters The array the parameters are copied into.
+     * @param offset The index of the first weight.
+     * @return The index after the bias.
      */
-    public void addInputNode(Neuron input, double weight) {
-        INPUTS.put(input, weight);
-        input.OUTPUTS.add(this);
+    int getParameters(double[] parameters, int offset) {
+        System.arraycopy(weights, 0, parameters, offset, weights.length);
+        parameters[offset + weights.length] = bias;
+        return offset + weights.length + 1;
+    }
+
+    /**
+     * Replaces the weights and the bias with the given ones, in the order of {@link network.Neuron#getParameters(double[], int)}.
+     * @param parameters The array the parameters are copied from.
+     * @param offset The index of the first weight.
+     * @return The index after the bias.
+     */
+    int setParameters(double[] parameters, int offset) {
+        System.arraycopy(parameters, offset, weights, 0, weights.length);
+        bias = parameters[offset + weights.length];
+        return offset + weights.length + 1;
+    }
+
+    /**
+     * Sets the inputs of this neuron and adds this node as an output to each of them.
+     * @param inputNodes The neurons of the previous layer in order.
+     * @param weights The weight for each connection.
+     */
+    public void setInputNodes(Neuron[] inputNodes, double[] weights) {
+        if (inputNodes.length != weights.length) throw new IllegalArgumentException("Every input needs exactly one weight.");
+        this.inputNodes = inputNodes.clone();
+        this.weights = weights.clone();
+        weightGradientSums = null;
+        for (int i = 0; i < inputNodes.length; i++) {
+            inputNodes[i].position = i;
+            inputNodes[i].OUTPUTS.add(this);
+        }
     }
 
     /**
      * Clears all gradients and activations accumulated for respective batch.
      */
     public void clearGradients() {
-        WEIGHT_GRADIENTS.clear();
+        if (weightGradientSums != null) {
+            Arrays.fill(weightGradientSums, 0);
+        }
+        weightGradientCount = 0;
         BIAS_GRADIENTS.clear();
-        //BETA_GRADIENTS.clear();
-        //GAMMA_GRADIENTS.clear();
-        BATCH_ACTIVATIONS.clear();
     }
 
-    public double getActivation() {
-        return activation;
+    /**
+     * Only needed for models saved before {@link network.Neuron#position} existed, the position is set by {@link network.Neuron#setInputNodes(Neuron[], double[])} otherwise.
+     * @param position The position of this neuron in its layer.
+     */
+    void setPosition(int position) {
+        this.position = position;
     }
 
-    @Deprecated
-    public double getScaledShiftedNormalizedActivation() {
-        return scaledShiftedNormalizedActivation;
+    double getWeightedInputSum() {
+        return weightedInputSum;
+    }
+
+    public double getActivation() {
+        return activation;
     }
 
     public void setActivation(double activation) {
@@ -275,4 +472,16 @@ public class Neuron implements Serializable {
         if (NODE_LABEL == null) throw new IllegalStateException("This node does not have label.");
         return NODE_LABEL;
     }
+
+    @Serial
+    private void readObject(ObjectInputStream inputStream) throws IOException, ClassNotFoundException {
+        inputStream.defaultReadObject();
+
+        //convert the weights of models saved as a map
+        if (INPUTS != null) {
+            inputNodes = INPUTS.keySet().toArray(new Neuron[0]);
+            weights = INPUTS.values().stream().mapToDouble(Double::doubleValue).toArray();
+        }
+        INPUTS = null;
+    }
 }
@@ -0,0 +1,214 @@
+package network;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * The weights and weight gradients of a fully connected layer of {@link network.Neuron}s outside the Java heap, so that large layers are not scanned or copied by the garbage collector.
+ * The weights are either held in direct memory or mapped from a weight file. A network saved with mapped layers only stores the location of their weights,
+ * so loading it maps the file read-only instead of copying the weights, and several JVMs loading the same model share its pages.
+ * Like in a {@link network.CompressedLayer} every row holds the weights of one input node, so rows of inputs that are 0 can be skipped.
+ */
+public class OffHeapLayer implements Serializable {
+
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    private final int ROWS;
+    private final int COLUMNS;
+
+    /**
+     * Absolute path of the file the weights are mapped from, so that a saved network can be loaded from any working directory, null if they are held in direct memory and saved with the layer.
+     */
+    private final String WEIGHT_FILE;
+
+    /**
+     * Position of the first weight in {@link network.OffHeapLayer#WEIGHT_FILE} in bytes.
+     */
+    private final long OFFSET;
+
+    private transient ByteBuffer weightBytes;
+    private transient DoubleBuffer weights;
+    private transient DoubleBuffer gradientSums;
+    private transient int gradientCount;
+
+    /**
+     * Copies the weights of the neurons into direct memory.
+     * @param layer The neurons whose weights are stored.
+     */
+    public OffHeapLayer(Neuron[] layer) {
+        this(layer, null, 0);
+    }
+
+    /**
+     * Writes the weights of the neurons into the given file at the given offset and maps them from there, changes of the weights are written back to the file.
+     * @param layer The neurons whose weights are stored.
+     * @param weightFile The file the weights are written to and mapped from, null to store them in direct memory.
+     * @param offset The position of the first weight in the file in bytes.
+     */
+    public OffHeapLayer(Neuron[] layer, File weightFile, long offset) {
+        ROWS = layer.length == 0 ? 0 : layer[0].getWeights().length;
+        COLUMNS = layer.length;
+        WEIGHT_FILE = weightFile == null ? null : weightFile.getAbsolutePath();
+        OFFSET = offset;
+
+        if (weightFile == null) {
+            weightBytes = ByteBuffer.allocateDirect(getByteSize()).order(ByteOrder.nativeOrder());
+        } else {
+            weightBytes = map(FileChannel.MapMode.READ_WRITE);
+        }
+        weights = weightBytes.asDoubleBuffer();
+
+        for (int column = 0; column < COLUMNS; column++) {
+            double[] neuronWeights = layer[column].getWeights();
+            for (int row = 0; row < ROWS; row++) {
+                weights.put(row * COLUMNS + column, neuronWeights[row]);
+            }
+        }
+    }
+
+    /**
+     * @return The size of the weights in bytes.
+     */
+    public int getByteSize() {
+        long bytes = (long) ROWS * COLUMNS * Double.BYTES;
+        if (bytes > Integer.MAX_VALUE) throw new IllegalStateException("A layer with " + ROWS + "x" + COLUMNS + " weights is too large for a single buffer.");
+        return (int) bytes;
+    }
+
+    private MappedByteBuffer map(FileChannel.MapMode mapMode) {
+        try (RandomAccessFile file = new RandomAccessFile(WEIGHT_FILE, mapMode == FileChannel.MapMode.READ_ONLY ? "r" : "rw")) {
+            //the mapping stays valid after the channel has been closed
+            MappedByteBuffer buffer = file.getChannel().map(mapMode, OFFSET, getByteSize());
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            return buffer;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @param input The outputs of the previous layer.
+     * @return The weighted sum of the inputs for every neuron.
+     */
+    public double[] multiply(double[] input) {
+        if (input.length != ROWS) throw new IllegalArgumentException("Expected " + ROWS + " inputs but got " + input.length + ".");
+        double[] weightedSums = new double[COLUMNS];
+        for (int row = 0; row < ROWS; row++) {
+            double value = input[row];
+            if (value == 0) continue;
+            int rowOffset = row * COLUMNS;
+            for (int column = 0; column < COLUMNS; column++) {
+                weightedSums[column] += weights.get(rowOffset + column) * value;
+            }
+        }
+        return weightedSums;
+    }
+
+    /**
+     * Adds the weight gradients (∂C/∂w) of a single image, which are the gradient factor of every neuron multiplied by every input.
+     * @param gradientFactors The derivative of the cost with respect to the weighted input sum of every neuron (∂C/∂z).
+     * @param input The outputs of the previous layer.
+     */
+    public void addGradients(double[] gradientFactors, double[] input) {
+        if (isReadOnly()) throw new IllegalStateException("The weights are mapped read-only, so the layer can only be evaluated.");
+        if (gradientSums == null) {
+            gradientSums = ByteBuffer.allocateDirect(getByteSize()).order(ByteOrder.nativeOrder()).asDoubleBuffer();
+        }
+
+        for (int row = 0; row < ROWS; row++) {
+            double value = input[row];
+            if (value == 0) continue;
+            int rowOffset = row * COLUMNS;
+            for (int column = 0; column < COLUMNS; column++) {
+                gradientSums.put(rowOffset + column, gradientSums.get(rowOffset + column) + gradientFactors[column] * value);
+            }
+        }
+        gradientCount++;
+    }
+
+    /**
+     * @param gradientFactors The derivative of the cost with respect to the weighted input sum of every neuron (∂C/∂z).
+     * @return The derivative of the cost with respect to every input (∂C/∂a).
+     */
+    public double[] getActivationGradients(double[] gradientFactors) {
+        double[] activationGradients = new double[ROWS];
+        for (int row = 0; row < ROWS; row++) {
+            int rowOffset = row * COLUMNS;
+            double sum = 0;
+            for (int column = 0; column < COLUMNS; column++) {
+                sum += gradientFactors[column] * weights.get(rowOffset + column);
+            }
+            activationGradients[row] = sum;
+        }
+        return activationGradients;
+    }
+
+    /**
+     * Nudges the weights based on the averages of the gradients of the batch and clears them for the next one.
+     * @param learningRate The learning rate of the network used to scale the gradients.
+     */
+    public void nudgeWeights(double learningRate) {
+        if (gradientCount == 0) return;
+
+        for (int i = 0; i < weights.capacity(); i++) {
+            weights.put(i, weights.get(i) - gradientSums.get(i) / gradientCount * learningRate);
+            gradientSums.put(i, 0);
+        }
+        gradientCount = 0;
+    }
+
+    public int getNonZeroWeightCount() {
+        int nonZeroWeights = 0;
+        for (int i = 0; i < weights.capacity(); i++) {
+            if (weights.get(i) != 0) nonZeroWeights++;
+        }
+        return nonZeroWeights;
+    }
+
+    /**
+     * @return Whether the weights are mapped from a file instead of held in direct memory.
+     */
+    public boolean isMapped() {
+        return WEIGHT_FILE != null;
+    }
+
+    /**
+     * @return Whether the weights are mapped read-only, e.g. after loading a saved network, so that the layer can only be evaluated.
+     */
+    public boolean isReadOnly() {
+        return weights.isReadOnly();
+    }
+
+    @Serial
+    private void writeObject(ObjectOutputStream outputStream) throws IOException {
+        outputStream.defaultWriteObject();
+        if (WEIGHT_FILE == null) {
+            for (int i = 0; i < weights.capacity(); i++) {
+                outputStream.writeDouble(weights.get(i));
+            }
+        } else if (weightBytes instanceof MappedByteBuffer mappedBytes && !mappedBytes.isReadOnly()) {
+            //make sure the file holds the current weights before anyone else maps it
+            mappedBytes.force();
+        }
+    }
+
+    @Serial
+    private void readObject(ObjectInputStream inputStream) throws IOException, ClassNotFoundException {
+        inputStream.defaultReadObject();
+        if (WEIGHT_FILE == null) {
+            weightBytes = ByteBuffer.allocateDirect(getByteSize()).order(ByteOrder.nativeOrder());
+            weights = weightBytes.asDoubleBuffer();
+            for (int i = 0; i < weights.capacity(); i++) {
+                weights.put(i, inputStream.readDouble());
+            }
+        } else {
+            weightBytes = map(FileChannel.MapMode.READ_ONLY);
+            weights = weightBytes.asDoubleBuffer();
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package network;
+
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Consumer;
+
+/**
+ * Fine-tunes a private copy of a network on corrected images on a background thread and publishes a new copy after every round,
+ * so networks that have been published are never changed and can be evaluated while training continues.
+ * Every round trains on the corrections added since the last round together with a random sample of earlier ones, so that the network doesn't only remember the latest correction.
+ */
+public class OnlineTrainer {
+
+    /**
+     * Maximum number of new corrections trained on in a single round.
+     */
+    private static final int MAX_NEW_CORRECTIONS = 16;
+
+    /**
+     * Number of earlier corrections trained on again in every round.
+     */
+    private static final int REPLAYED_CORRECTIONS = 32;
+
+    /**
+     * Maximum number of earlier corrections that are kept for replaying.
+     */
+    private static final int MAX_KEPT_CORRECTIONS = 1000;
+
+    private final Network TRAINING_NETWORK;
+    private final Consumer<Network> PUBLISHER;
+    private final Consumer<String> FAILURE_HANDLER;
+    private final BlockingQueue<Map.Entry<double[], Character>> NEW_CORRECTIONS;
+    private final ArrayList<Map.Entry<double[], Character>> KEPT_CORRECTIONS;
+    private final Random RANDOM;
+    private final Thread THREAD;
+
+    /**
+     * Why the network can't be fine-tuned, null as long as it can.
+     */
+    private volatile String failure;
+
+    /**
+     * @param network The network to start from, it is copied and not changed.
+     * @param publisher Receives a new copy of the network after every round, e.g. to replace the network used for predictions.
+     * @param failureHandler Receives why the network can't be fine-tuned, either right away or from the training thread once training fails, after which corrections are ignored.
+     */
+    public OnlineTrainer(Network network, Consumer<Network> publisher, Consumer<String> failureHandler) {
+        TRAINING_NETWORK = network.copy();
+        PUBLISHER = publisher;
+        FAILURE_HANDLER = failureHandler;
+        NEW_CORRECTIONS = new LinkedBlockingQueue<>();
+        KEPT_CORRECTIONS = new ArrayList<>();
+        RANDOM = new Random();
+
+        THREAD = new Thread(this::train, "online trainer");
+        try {
+            TRAINING_NETWORK.checkTrainable();
+        } catch (IllegalStateException e) {
+            fail(e.getMessage());
+            return;
+        }
+        THREAD.setDaemon(true);
+        THREAD.setPriority(Thread.MIN_PRIORITY);
+        THREAD.start();
+    }
+
+    /**
+     * Queues an image with its correct label for the next round, can be called from any thread. Ignored once the network can't be fine-tuned, see {@link network.OnlineTrainer#getFailure()}.
+     * @param image The image as given to the network.
+     * @param label The correct label of the image.
+     */
+    public void addCorrection(double[] image, char label) {
+        //the failure handler has already been told why
+        if (failure != null) return;
+        NEW_CORRECTIONS.add(new AbstractMap.SimpleImmutableEntry<>(image.clone(), label));
+    }
+
+    /**
+     * @return Why the network can't be fine-tuned, null if corrections are learned.
+     */
+    public String getFailure() {
+        return failure;
+    }
+
+    private void fail(String message) {
+        failure = message;
+        NEW_CORRECTIONS.clear();
+        System.out.println("The network cannot be fine-tuned, ignoring corrections: " + message);
+        FAILURE_HANDLER.accept(message);
+    }
+
+    private void train() {
+        try {
+            while (true) {
+                //wait for a correction and take all others that have been added in the meantime
+                List<Map.Entry<double[], Character>> newCorrections = new ArrayList<>();
+                newCorrections.add(NEW_CORRECTIONS.take());
+                NEW_CORRECTIONS.drainTo(newCorrections, MAX_NEW_CORRECTIONS - 1);
+
+                LinkedHashMap<double[], Character> batch = new LinkedHashMap<>();
+                for (Map.Entry<double[], Character> correction : newCorrections) {
+                    batch.put(correction.getKey(), correction.getValue());
+                }
+                for (int i = 0; i < Math.min(REPLAYED_CORRECTIONS, KEPT_CORRECTIONS.size()); i++) {
+                    Map.Entry<double[], Character> correction = KEPT_CORRECTIONS.get(RANDOM.nextInt(KEPT_CORRECTIONS.size()));
+                    batch.put(correction.getKey(), correction.getValue());
+                }
+
+                long start = System.nanoTime();
+                try {
+                    TRAINING_NETWORK.fineTune(batch, 1);
+                } catch (IllegalStateException e) {
+                    fail(e.getMessage());
+                    return;
+                }
+                PUBLISHER.accept(TRAINING_NETWORK.copy());
+                System.out.println("Fine-tuned on " + newCorrections.size() + " new and " + (batch.size() - newCorrections.size()) + " earlier corrections in " + (System.nanoTime() - start) / 1000000 + "ms.");
+
+                //keep the new corrections for later rounds, replacing random ones once there are too many
+                for (Map.Entry<double[], Character> correction : newCorrections) {
+                    if (KEPT_CORRECTIONS.size() < MAX_KEPT_CORRECTIONS) {
+                        KEPT_CORRECTIONS.add(correction);
+                    } else {
+                        KEPT_CORRECTIONS.set(RANDOM.nextInt(MAX_KEPT_CORRECTIONS), correction);
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,260 @@
+package network;
+
+import java.io.*;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+
+/**
+ * Coordinates data-parallel training of a network by several {@link network.ParameterWorker}s, usually one process each, over local sockets.
+ * Every worker trains a copy of the network on its own shard of the data. In every round it receives the current parameters, trains on a few batches
+ * and sends back how its parameters have changed, optionally compressed with a {@link network.GradientCompression}.
+ * In synchronous mode a round ends once all workers have sent their changes, which are averaged. In asynchronous mode the changes of every worker
+ * are applied as soon as they arrive, scaled by the number of workers, so fast workers don't wait for slow ones.
+ * The parameters are always sent in full, so every worker starts a round from exactly the parameters of the server.
+ * <p>
+ * Protocol: the server sends every worker its index, the number of workers, the number of rounds and batches per round, the compression, the top k share,
+ * the seed and the serialized network, and the worker answers with the size of its shard once it has loaded it. Every round starts with 1 and the parameters
+ * from the server and ends with the number of trained images and the changes from the worker. A 0 instead of a round tells the worker to stop.
+ */
+public class ParameterServer implements AutoCloseable {
+
+    private final Network NETWORK;
+    private final ServerSocket SERVER_SOCKET;
+    private final int WORKERS;
+    private final int ROUNDS;
+    private final int BATCHES_PER_ROUND;
+    private final boolean ASYNCHRONOUS;
+    private final GradientCompression COMPRESSION;
+    private final double TOP_K_SHARE;
+    private final long SEED;
+
+    private final double[] PARAMETERS;
+
+    /**
+     * Sum of the changes of all workers in the current round, only used in synchronous mode.
+     */
+    private final double[] ACCUMULATED_CHANGES;
+
+    private long trainedImages;
+    private long receivedBytes;
+    private long trainingTime;
+
+    /**
+     * @param network The network to be trained, it is only changed by {@link network.ParameterServer#run()}.
+     * @param port The port the workers connect to, 0 for any free port, see {@link network.ParameterServer#getPort()}.
+     * @param workers The number of workers to wait for.
+     * @param rounds The number of rounds every worker trains for.
+     * @param batchesPerRound The number of batches every worker trains on per round.
+     * @param asynchronous Whether changes are applied as soon as they arrive instead of once per round.
+     * @param compression How the workers encode their changes.
+     * @param topKShare The share of changes sent with {@link network.GradientCompression#TOP_K}.
+     * @param seed The seed of the shuffling of the workers, each of which adds its index.
+     * @throws IOException if the port cannot be opened.
+     */
+    public ParameterServer(Network network, int port, int workers, int rounds, int batchesPerRound, boolean asynchronous, GradientCompression compression, double topKShare, long seed) throws IOException {
+        if (workers < 1 || rounds < 1 || batchesPerRound < 1) throw new IllegalArgumentException("There has to be at least one worker, round and batch per round.");
+        if (compression == GradientCompression.TOP_K && (topKShare <= 0 || topKShare > 1)) throw new IllegalArgumentException("The top k share has to be between 0 (exclusive) & 1 (inclusive).");
+        NETWORK = network;
+        PARAMETERS = network.getParameters();
+        ACCUMULATED_CHANGES = new double[PARAMETERS.length];
+        SERVER_SOCKET = new ServerSocket(port);
+        WORKERS = workers;
+        ROUNDS = rounds;
+        BATCHES_PER_ROUND = batchesPerRound;
+        ASYNCHRONOUS = asynchronous;
+        COMPRESSION = compression;
+        TOP_K_SHARE = topKShare;
+        SEED = seed;
+    }
+
+    public int getPort() {
+        return SERVER_SOCKET.getLocalPort();
+    }
+
+    /**
+     * Waits for all workers to connect and load their shard and trains the network with them.
+     * @return The trained network.
+     * @throws IOException if a worker cannot be reached.
+     * @throws InterruptedException if the thread is interrupted while waiting for the workers.
+     */
+    public Network run() throws IOException, InterruptedException {
+        byte[] serializedNetwork;
+        try (ByteArrayOutputStream bytes = new ByteArrayOutputStream(); ObjectOutputStream outputStream = new ObjectOutputStream(bytes)) {
+            outputStream.writeObject(NETWORK);
+            outputStream.flush();
+            serializedNetwork = bytes.toByteArray();
+        }
+
+        //connect to all workers and wait until they have loaded their shards
+        List<Socket> sockets = new ArrayList<>();
+        List<DataInputStream> inputStreams = new ArrayList<>();
+        List<DataOutputStream> outputStreams = new ArrayList<>();
+        try {
+            for (int w = 0; w < WORKERS; w++) {
+                Socket socket = SERVER_SOCKET.accept();
+                sockets.add(socket);
+                DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                outputStream.writeInt(w);
+                outputStream.writeInt(WORKERS);
+                outputStream.writeInt(ROUNDS);
+                outputStream.writeInt(BATCHES_PER_ROUND);
+                outputStream.writeByte(COMPRESSION.ordinal());
+                outputStream.writeDouble(TOP_K_SHARE);
+                outputStream.writeLong(SEED);
+                outputStream.writeInt(serializedNetwork.length);
+                outputStream.write(serializedNetwork);
+                outputStream.flush();
+                outputStreams.add(outputStream);
+                inputStreams.add(new DataInputStream(new BufferedInputStream(new CountingInputStream(socket.getInputStream()))));
+                System.out.println("Worker " + w + " connected from " + socket.getRemoteSocketAddress() + ".");
+            }
+            for (int w = 0; w < WORKERS; w++) {
+                System.out.println("Worker " + w + " loaded " + inputStreams.get(w).readInt() + " images.");
+            }
+
+            //train with one thread per worker
+            CyclicBarrier roundEnd = new CyclicBarrier(WORKERS, this::applyAccumulatedChanges);
+            List<Thread> threads = new ArrayList<>();
+            List<Exception> failures = new ArrayList<>();
+            long start = System.nanoTime();
+            for (int w = 0; w < WORKERS; w++) {
+                int worker = w;
+                Thread thread = new Thread(() -> {
+                    try {
+                        train(worker, inputStreams.get(worker), outputStreams.get(worker), roundEnd);
+                    } catch (IOException | InterruptedException | BrokenBarrierException e) {
+                        synchronized (failures) {
+                            failures.add(e);
+                        }
+                        //let the other workers stop instead of waiting for this one
+                        roundEnd.reset();
+                    }
+                }, "parameter server worker " + w);
+                thread.start();
+                threads.add(thread);
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            trainingTime = System.nanoTime() - start;
+            if (!failures.isEmpty()) throw new IllegalStateException("Training failed since a worker could not be reached.", failures.get(0));
+        } finally {
+            for (Socket socket : sockets) {
+                socket.close();
+            }
+        }
+
+        NETWORK.setParameters(PARAMETERS);
+        return NETWORK;
+    }
+
+    /**
+     * Runs all rounds of a single worker.
+     */
+    private void train(int worker, DataInputStream inputStream, DataOutputStream outputStream, CyclicBarrier roundEnd) throws IOException, InterruptedException, BrokenBarrierException {
+        for (int round = 0; round < ROUNDS; round++) {
+            double[] parameters;
+            synchronized (PARAMETERS) {
+                parameters = PARAMETERS.clone();
+            }
+            outputStream.writeInt(1);
+            for (double parameter : parameters) {
+                outputStream.writeDouble(parameter);
+            }
+            outputStream.flush();
+
+            int images = inputStream.readInt();
+            double[] changes = GradientCompression.read(inputStream, PARAMETERS.length);
+            synchronized (PARAMETERS) {
+                trainedImages += images;
+                for (int i = 0; i < changes.length; i++) {
+                    if (ASYNCHRONOUS) {
+                        PARAMETERS[i] += changes[i] / WORKERS;
+                    } else {
+                        ACCUMULATED_CHANGES[i] += changes[i];
+                    }
+                }
+            }
+            if (!ASYNCHRONOUS) {
+                roundEnd.await();
+            }
+            if (worker == 0 && (round + 1) % 10 == 0) {
+                System.out.println("Worker 0 finished round " + (round + 1) + " of " + ROUNDS + ".");
+            }
+        }
+        outputStream.writeInt(0);
+        outputStream.flush();
+    }
+
+    /**
+     * Applies the average of the changes of all workers at the end of a synchronous round.
+     */
+    private void applyAccumulatedChanges() {
+        synchronized (PARAMETERS) {
+            for (int i = 0; i < PARAMETERS.length; i++) {
+                PARAMETERS[i] += ACCUMULATED_CHANGES[i] / WORKERS;
+                ACCUMULATED_CHANGES[i] = 0;
+            }
+        }
+    }
+
+    /**
+     * @return The number of images all workers have trained on.
+     */
+    public long getTrainedImages() {
+        return trainedImages;
+    }
+
+    /**
+     * @return The time between the first and the last round in nanoseconds, without connecting and loading the data.
+     */
+    public long getTrainingTime() {
+        return trainingTime;
+    }
+
+    /**
+     * @return The number of bytes received from all workers.
+     */
+    public long getReceivedBytes() {
+        return receivedBytes;
+    }
+
+    @Override
+    public void close() throws IOException {
+        SERVER_SOCKET.close();
+    }
+
+    /**
+     * Counts the bytes read from a worker into {@link network.ParameterServer#receivedBytes}.
+     */
+    private class CountingInputStream extends FilterInputStream {
+
+        private CountingInputStream(InputStream inputStream) {
+            super(inputStream);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int value = super.read();
+            if (value >= 0) count(1);
+            return value;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            int read = super.read(bytes, offset, length);
+            if (read > 0) count(read);
+            return read;
+        }
+
+        private void count(int bytes) {
+            synchronized (ParameterServer.this) {
+                receivedBytes += bytes;
+            }
+        }
+    }
+}
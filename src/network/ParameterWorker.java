@@ -0,0 +1,128 @@
+package network;
+
+import filehandling.FileHandler;
+
+import java.io.*;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Trains a copy of the network of a {@link network.ParameterServer} on a shard of the data and sends the change of its parameters back after every round.
+ * Only the shard is loaded, so the data is spread across the heaps of all workers.
+ */
+public class ParameterWorker {
+
+    private final String HOST;
+    private final int PORT;
+    private final File DATA;
+
+    /**
+     * @param host The host of the parameter server.
+     * @param port The port of the parameter server.
+     * @param data The folder or ZIP archive the shards are taken from, see {@link filehandling.FileHandler#loadFiles(File, int, int)}.
+     */
+    public ParameterWorker(String host, int port, File data) {
+        HOST = host;
+        PORT = port;
+        DATA = data;
+    }
+
+    /**
+     * Connects to the parameter server and trains until it has finished all rounds.
+     * @throws IOException if the server cannot be reached.
+     * @throws InterruptedException if the thread is interrupted while loading the data.
+     */
+    public void run() throws IOException, InterruptedException {
+        try (Socket socket = new Socket(HOST, PORT)) {
+            DataInputStream inputStream = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+            int index = inputStream.readInt();
+            int workers = inputStream.readInt();
+            inputStream.readInt(); //number of rounds, the server tells when to stop
+            int batchesPerRound = inputStream.readInt();
+            int compressionIndex = inputStream.readByte();
+            if (compressionIndex < 0 || compressionIndex >= GradientCompression.values().length) throw new IOException("Unknown gradient compression " + compressionIndex + ".");
+            GradientCompression compression = GradientCompression.values()[compressionIndex];
+            double topKShare = inputStream.readDouble();
+            long seed = inputStream.readLong();
+            byte[] serializedNetwork = new byte[inputStream.readInt()];
+            inputStream.readFully(serializedNetwork);
+            Network network;
+            try (ObjectInputStream objectInputStream = new ObjectInputStream(new ByteArrayInputStream(serializedNetwork))) {
+                network = (Network) objectInputStream.readObject();
+            } catch (ClassNotFoundException e) {
+                throw new RuntimeException(e);
+            }
+
+            FileHandler fileHandler = new FileHandler(network.getImageResolution());
+            fileHandler.loadFiles(DATA, index, workers);
+            LinkedHashMap<double[], Character> trainingData = fileHandler.getTrainingData();
+            if (trainingData.isEmpty()) throw new IllegalStateException("Shard " + index + " of " + workers + " of " + DATA + " is empty.");
+            System.out.println("Worker " + index + " loaded " + trainingData.size() + " images.");
+            outputStream.writeInt(trainingData.size());
+            outputStream.flush();
+
+            try (BatchProducer batchProducer = new BatchProducer(trainingData, network.getBatchSize(), null, seed + index, 1)) {
+                Iterator<BatchProducer.Batch> batches = new EpochIterator(batchProducer);
+                double[] residuals = new double[network.getParameterCount()];
+                while (inputStream.readInt() == 1) {
+                    double[] parameters = new double[residuals.length];
+                    for (int i = 0; i < parameters.length; i++) {
+                        parameters[i] = inputStream.readDouble();
+                    }
+                    network.setParameters(parameters);
+
+                    //train on the next batches, continuing with the next epoch once the current one is done
+                    List<BatchProducer.Batch> roundBatches = new ArrayList<>();
+                    int images = 0;
+                    for (int b = 0; b < batchesPerRound; b++) {
+                        BatchProducer.Batch batch = batches.next();
+                        roundBatches.add(batch);
+                        images += batch.size();
+                    }
+                    network.fineTune(roundBatches);
+
+                    double[] changes = network.getParameters();
+                    for (int i = 0; i < changes.length; i++) {
+                        changes[i] -= parameters[i];
+                    }
+                    outputStream.writeInt(images);
+                    compression.write(outputStream, changes, residuals, topKShare);
+                    outputStream.flush();
+                }
+            }
+        }
+    }
+
+    /**
+     * Goes through the epochs of a {@link network.BatchProducer} one after another without end.
+     */
+    private static class EpochIterator implements Iterator<BatchProducer.Batch> {
+
+        private final BatchProducer BATCH_PRODUCER;
+        private Iterator<BatchProducer.Batch> epochIterator;
+        private int epoch;
+
+        private EpochIterator(BatchProducer batchProducer) {
+            BATCH_PRODUCER = batchProducer;
+            epochIterator = batchProducer.getEpoch(0).iterator();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return true;
+        }
+
+        @Override
+        public BatchProducer.Batch next() {
+            if (!epochIterator.hasNext()) {
+                epochIterator = BATCH_PRODUCER.getEpoch(++epoch).iterator();
+            }
+            return epochIterator.next();
+        }
+    }
+}
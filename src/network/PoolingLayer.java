@@ -0,0 +1,109 @@
+package network;
+
+/**
+ * Downsamples every channel separately by taking the maximum or the average of each window of the {@link network.Matrix#im2col(double[], int, int, int, int, int)} of the input.
+ */
+public class PoolingLayer extends FeatureLayer {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Represents the possible ways to combine the values of a window.
+     */
+    public enum PoolingType {
+        MAX,
+        AVERAGE
+    }
+
+    private final PoolingType POOLING_TYPE;
+    private final int POOL_SIZE;
+    private final int STRIDE;
+
+    private transient int[] lastMaxRows;
+
+    /**
+     * @param poolingType The way the values of a window are combined.
+     * @param channels The number of channels of the input.
+     * @param inputSize The width and height of the input.
+     * @param poolSize The width and height of every window.
+     * @param stride The distance between two windows.
+     */
+    public PoolingLayer(PoolingType poolingType, int channels, int inputSize, int poolSize, int stride) {
+        super(channels, inputSize, channels, Matrix.outputSize(inputSize, poolSize, stride, 0));
+        POOLING_TYPE = poolingType;
+        POOL_SIZE = poolSize;
+        STRIDE = stride;
+
+        System.out.println((poolingType == PoolingType.MAX ? "Max" : "Average") + " pooling layer created with an output of " + OUTPUT_SIZE + "x" + OUTPUT_SIZE + "x" + channels + ".");
+    }
+
+    @Override
+    public double[] forward(double[] input, boolean training) {
+        int positions = OUTPUT_SIZE * OUTPUT_SIZE;
+        int windowLength = POOL_SIZE * POOL_SIZE;
+        double[] columns = Matrix.im2col(input, INPUT_CHANNELS, INPUT_SIZE, POOL_SIZE, STRIDE, 0);
+        double[] output = new double[getOutputLength()];
+        int[] maxRows = POOLING_TYPE == PoolingType.MAX ? new int[output.length] : null;
+
+        for (int c = 0; c < INPUT_CHANNELS; c++) {
+            int firstRow = c * windowLength;
+            for (int p = 0; p < positions; p++) {
+                int o = c * positions + p;
+                switch (POOLING_TYPE) {
+                    case MAX -> {
+                        int maxRow = firstRow;
+                        for (int r = firstRow + 1; r < firstRow + windowLength; r++) {
+                            if (columns[r * positions + p] > columns[maxRow * positions + p]) maxRow = r;
+                        }
+                        maxRows[o] = maxRow;
+                        output[o] = columns[maxRow * positions + p];
+                    }
+                    case AVERAGE -> {
+                        double sum = 0;
+                        for (int r = firstRow; r < firstRow + windowLength; r++) {
+                            sum += columns[r * positions + p];
+                        }
+                        output[o] = sum / windowLength;
+                    }
+                }
+            }
+        }
+        if (training) lastMaxRows = maxRows;
+
+        return output;
+    }
+
+    @Override
+    public double[] backward(double[] outputGradient) {
+        int positions = OUTPUT_SIZE * OUTPUT_SIZE;
+        int windowLength = POOL_SIZE * POOL_SIZE;
+        double[] columnGradients = new double[INPUT_CHANNELS * windowLength * positions];
+
+        for (int c = 0; c < INPUT_CHANNELS; c++) {
+            int firstRow = c * windowLength;
+            for (int p = 0; p < positions; p++) {
+                int o = c * positions + p;
+                switch (POOLING_TYPE) {
+                    //only the maximum of each window influenced the output
+                    case MAX -> {
+                        if (lastMaxRows == null) throw new IllegalStateException("The layer has to compute an output before propagating backwards.");
+                        columnGradients[lastMaxRows[o] * positions + p] = outputGradient[o];
+                    }
+                    //every value of the window influenced the output equally
+                    case AVERAGE -> {
+                        for (int r = firstRow; r < firstRow + windowLength; r++) {
+                            columnGradients[r * positions + p] = outputGradient[o] / windowLength;
+                        }
+                    }
+                }
+            }
+        }
+
+        return Matrix.col2im(columnGradients, INPUT_CHANNELS, INPUT_SIZE, POOL_SIZE, STRIDE, 0);
+    }
+
+    @Override
+    public long getOperationCount() {
+        return (long) getOutputLength() * POOL_SIZE * POOL_SIZE;
+    }
+}
@@ -0,0 +1,118 @@
+package network;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Least recently used cache of the top predictions of a {@link network.Network}, keyed by a 64-bit hash of the image quantized to 256 grey levels.
+ * Images that only differ below the quantization step share an entry, and two different images sharing a hash is accepted as practically impossible.
+ */
+public class PredictionCache {
+
+    /**
+     * Estimated heap usage of an entry without its predictions (map entry, boxed key and list).
+     */
+    private static final int ENTRY_BYTES = 96;
+
+    /**
+     * Estimated heap usage of a single prediction (map entry and boxed label and certainty).
+     */
+    private static final int PREDICTION_BYTES = 64;
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final int TOP_K;
+    private final int MAX_ENTRIES;
+    private final LinkedHashMap<Long, List<Map.Entry<Character, Double>>> ENTRIES;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * @param maxBytes The maximum estimated heap usage of all entries.
+     * @param topK The number of predictions stored for every image.
+     */
+    public PredictionCache(long maxBytes, int topK) {
+        if (topK < 1) throw new IllegalArgumentException("At least one prediction has to be stored per image.");
+        TOP_K = topK;
+        MAX_ENTRIES = (int) Math.min(Integer.MAX_VALUE, maxBytes / (ENTRY_BYTES + (long) PREDICTION_BYTES * topK));
+        if (MAX_ENTRIES < 1) throw new IllegalArgumentException(maxBytes + " bytes are not enough for a single entry.");
+
+        ENTRIES = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, List<Map.Entry<Character, Double>>> eldest) {
+                if (size() > MAX_ENTRIES) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * @param image The image to be hashed.
+     * @return FNV-1a hash of the image quantized to 256 grey levels.
+     */
+    public static long hash(double[] image) {
+        long hash = FNV_OFFSET_BASIS;
+        for (double value : image) {
+            long quantized = Math.round(Math.min(Math.max(value, 0), 1) * 255);
+            hash = (hash ^ quantized) * FNV_PRIME;
+        }
+        return (hash ^ image.length) * FNV_PRIME;
+    }
+
+    /**
+     * @param hash The hash of the image, see {@link network.PredictionCache#hash(double[])}.
+     * @return The stored predictions, null if there are none.
+     */
+    public synchronized List<Map.Entry<Character, Double>> get(long hash) {
+        List<Map.Entry<Character, Double>> predictions = ENTRIES.get(hash);
+        if (predictions != null) {
+            hits++;
+        } else {
+            misses++;
+        }
+        return predictions;
+    }
+
+    /**
+     * @param hash The hash of the image, see {@link network.PredictionCache#hash(double[])}.
+     * @param predictions The predictions ordered by certainty, only the first {@link network.PredictionCache#TOP_K} are stored.
+     */
+    public synchronized void put(long hash, List<Map.Entry<Character, Double>> predictions) {
+        ENTRIES.put(hash, List.copyOf(predictions.subList(0, Math.min(TOP_K, predictions.size()))));
+    }
+
+    /**
+     * Removes all entries, e.g. because the parameters of the network have changed.
+     */
+    public synchronized void clear() {
+        ENTRIES.clear();
+    }
+
+    public int getTopK() {
+        return TOP_K;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized double getHitRate() {
+        return hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "Prediction cache: " + ENTRIES.size() + "/" + MAX_ENTRIES + " entries, " + hits + " hits, " + misses + " misses (" + Math.round(getHitRate() * 10000) / 100.0 + "%), " + evictions + " evictions";
+    }
+}